@@ -1,26 +1,35 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static simpledb.Aggregator.NO_GROUPING;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). An Aggregate computes one or more aggregate expressions, grouped by
+ * zero or more columns, in a single pass over its child. When the child
+ * produces batches, its input is consumed a batch at a time.
+ * <p>
+ * An Aggregate can also read several children that are partitions of its
+ * input, such as the parts of a {@link SeqScan#split split scan}. Each
+ * partition is then aggregated on its own thread of the {@link WorkerPool},
+ * and the partial aggregates are combined once all of them are done.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
-    private OpIterator child;
+    private OpIterator[] children;
     private final TupleDesc td;
-    private final int afield;
-    private final int gfield;
+    private final int[] afields;
+    private final int[] gfields;
 
-    private final Aggregator.Op aop;
+    private final Aggregator.Op[] aops;
     private Aggregator aggregator;
     private OpIterator aggregatedOpIter;
+    // whether the partitions have been opened by the workers
+    private boolean partitionsOpen;
 
     /**
      * Constructor.
@@ -36,27 +45,78 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
-        // some code goes here
+        this(child, new int[]{afield},
+                gfield == NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Aggregator.Op[]{aop});
+    }
 
-        this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-        this.td = child.getTupleDesc();
-        Type gfieldtype;
-        if (gfield == NO_GROUPING) {
-            gfieldtype = null;
-        } else {
-            gfieldtype = child.getTupleDesc().getFieldType(gfield);
+    /**
+     * Constructor for an aggregate that computes several aggregate expressions
+     * over any number of grouping columns. The output tuples hold the group-by
+     * values in the order of gfields, followed by one value per aggregate.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aops    The aggregation operator to apply to each of afields
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(new OpIterator[]{child}, afields, gfields, aops);
+    }
+
+    /**
+     * Constructor for an aggregate over an input split into partitions. The
+     * result is the same as that of an aggregate over the union of the
+     * partitions, but the partitions are aggregated in parallel; a group may
+     * appear in any number of them.
+     *
+     * @param partitions The OpIterators that are feeding us the tuples of
+     *                   each partition; all of them have the same TupleDesc.
+     * @param afields    The columns over which we are computing aggregates.
+     * @param gfields    The columns over which we are grouping the result;
+     *                   empty if there is no grouping
+     * @param aops       The aggregation operator to apply to each of afields
+     */
+    public Aggregate(OpIterator[] partitions, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length != aops.length || afields.length == 0) {
+            throw new IllegalArgumentException("Need one operator per aggregate field");
         }
-        if (this.child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE) {
-            this.aggregator = new StringAggregator(this.gfield, gfieldtype, this.afield, aop);
-        } else {
-            this.aggregator = new IntegerAggregator(this.gfield, gfieldtype, this.afield, aop);
+        if (partitions.length == 0) {
+            throw new IllegalArgumentException("Need at least one partition");
         }
+        this.children = partitions.clone();
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.td = children[0].getTupleDesc();
+        this.aggregator = newAggregator();
         this.aggregatedOpIter = null;
     }
 
+    /**
+     * @return an empty aggregator for the aggregates computed by this operator
+     */
+    private Aggregator newAggregator() {
+        if (afields.length == 1 && gfields.length <= 1) {
+            int gfield = gfields.length == 0 ? NO_GROUPING : gfields[0];
+            Type gfieldtype = gfield == NO_GROUPING ? null : td.getFieldType(gfield);
+            if (td.getFieldType(afields[0]) == Type.STRING_TYPE) {
+                return new StringAggregator(gfield, gfieldtype, afields[0], aops[0]);
+            }
+            return new IntegerAggregator(gfield, gfieldtype, afields[0], aops[0]);
+        }
+        return new MultiFieldAggregator(td, gfields, afields, aops);
+    }
+
+    /**
+     * @return the number of partitions of the input that are aggregated in
+     * parallel; 1 if the input is a single child
+     */
+    public int numPartitions() {
+        return children.length;
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      * field index in the <b>INPUT</b> tuples. If not, return
@@ -64,7 +124,15 @@ public class Aggregate extends Operator {
      */
     public int groupField() {
         // some code goes here
-        return gfield;
+        return gfields.length == 0 ? NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the group-by field indices in the <b>INPUT</b> tuples, in the
+     * order they appear in the output; empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
@@ -74,7 +142,15 @@ public class Aggregate extends Operator {
      */
     public String groupFieldName() {
         // some code goes here
-        return gfield == NO_GROUPING ? null : td.getFieldName(gfield);
+        return gfields.length == 0 ? null : td.getFieldName(gfields[0]);
+    }
+
+    /**
+     * @param i the index of a group-by field
+     * @return the name of the ith group-by field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName(int i) {
+        return td.getFieldName(gfields[i]);
     }
 
     /**
@@ -82,7 +158,22 @@ public class Aggregate extends Operator {
      */
     public int aggregateField() {
         // some code goes here
-        return afield;
+        return afields[0];
+    }
+
+    /**
+     * @return the number of aggregate expressions computed by this operator
+     */
+    public int numAggregates() {
+        return afields.length;
+    }
+
+    /**
+     * @param i the index of an aggregate expression
+     * @return the aggregate field of the ith aggregate expression
+     */
+    public int aggregateField(int i) {
+        return afields[i];
     }
 
     /**
@@ -91,7 +182,15 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return aop.toString() + "(" + td.getFieldName(afield) + ")";
+        return aggregateFieldName(0);
+    }
+
+    /**
+     * @param i the index of an aggregate expression
+     * @return the name of the ith aggregate field in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName(int i) {
+        return aops[i].toString() + "(" + td.getFieldName(afields[i]) + ")";
     }
 
     /**
@@ -99,26 +198,109 @@ public class Aggregate extends Operator {
      */
     public Aggregator.Op aggregateOp() {
         // some code goes here
-        return aop;
+        return aops[0];
+    }
+
+    /**
+     * @param i the index of an aggregate expression
+     * @return the operator of the ith aggregate expression
+     */
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
     }
 
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
         super.open();
-        child.open();
-        while (child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(this.child.next());
+        // partitions are opened by the workers that read them, so that they
+        // are opened in parallel
+        if (children.length == 1)
+            children[0].open();
+        aggregatedOpIter = null;
+    }
+
+    /**
+     * Consume the whole child and set up the iterator over the groups. Called
+     * on the first request for output rather than in open, so that the batch
+     * and the tuple interface can both be used.
+     */
+    private void aggregateChild() throws DbException, TransactionAbortedException {
+        if (children.length == 1) {
+            merge(children[0], aggregator);
+        } else {
+            aggregatePartitions();
         }
         aggregatedOpIter = aggregator.iterator();
         aggregatedOpIter.open();
     }
 
+    /**
+     * Merge every tuple of child into agg.
+     */
+    private static void merge(OpIterator child, Aggregator agg)
+            throws DbException, TransactionAbortedException {
+        if (child instanceof BatchIterator) {
+            BatchIterator batches = (BatchIterator) child;
+            TupleBatch b;
+            while ((b = batches.nextBatch()) != null) {
+                agg.mergeBatch(b);
+            }
+        } else {
+            while (child.hasNext()) {
+                agg.mergeTupleIntoGroup(child.next());
+            }
+        }
+    }
+
+    /**
+     * Aggregate each partition into its own aggregator on a worker thread,
+     * then combine the partial aggregates into this operator's aggregator.
+     */
+    private void aggregatePartitions() throws DbException, TransactionAbortedException {
+        Aggregator[] partials = new Aggregator[children.length];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < children.length; i++) {
+            OpIterator partition = children[i];
+            Aggregator partial = newAggregator();
+            partials[i] = partial;
+            tasks.add(() -> {
+                try {
+                    partition.open();
+                    merge(partition, partial);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        partitionsOpen = true;
+        Database.getWorkerPool().submit(tasks).await();
+
+        Throwable e = failure.get();
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e != null)
+            throw new DbException("aggregate partition failed: " + e);
+        for (Aggregator partial : partials)
+            aggregator.combine(partial);
+    }
+
     public void close() {
         // some code goes here
-        aggregatedOpIter.close();
+        if (aggregatedOpIter != null)
+            aggregatedOpIter.close();
+        aggregatedOpIter = null;
         aggregator.clear();
-        child.close();
+        if (children.length == 1) {
+            children[0].close();
+        } else if (partitionsOpen) {
+            for (OpIterator partition : children)
+                partition.close();
+            partitionsOpen = false;
+        }
         super.close();
     }
 
@@ -133,16 +315,35 @@ public class Aggregate extends Operator {
      * field is the field by which we are grouping, and the second field is the
      * result of computing the aggregate. If there is no group by field, then
      * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * aggregate. With several group-by fields or aggregates, all group-by
+     * fields come first, followed by all aggregate values. Should return null
+     * if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
+        if (aggregatedOpIter == null)
+            aggregateChild();
         if (aggregatedOpIter.hasNext()) {
             return aggregatedOpIter.next();
         }
         return null;
     }
 
+    /**
+     * Returns the next batch of result rows, laid out as in
+     * {@link #fetchNext}.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (aggregatedOpIter == null)
+            aggregateChild();
+        if (!aggregatedOpIter.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        while (!b.isFull() && aggregatedOpIter.hasNext())
+            b.addTuple(aggregatedOpIter.next());
+        return b;
+    }
+
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
@@ -162,11 +363,11 @@ public class Aggregate extends Operator {
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return new OpIterator[]{this.child};
+        return children.clone();
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        this.child = children[0];
+        this.children = children.clone();
     }
 }
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * AggregateState keeps the running state of one aggregate expression for one
+ * group. It tracks the count, sum, minimum and maximum of the values seen so
+ * far, which is enough to answer any of MIN, MAX, SUM, AVG and COUNT.
+ */
+public class AggregateState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int count;
+    private long sum;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    /**
+     * Fold an integer value into this state.
+     *
+     * @param v the value to add
+     */
+    public void add(int v) {
+        count++;
+        sum += v;
+        if (v < min)
+            min = v;
+        if (v > max)
+            max = v;
+    }
+
+    /**
+     * Count one more value without looking at it; used for aggregates over
+     * non-integer fields, which only support COUNT.
+     */
+    public void addCount() {
+        count++;
+    }
+
+    /**
+     * Fold the values seen by another state into this one, as if they had
+     * been added to this state directly. Used to merge the partial
+     * aggregates computed over separate partitions of the input.
+     *
+     * @param other the state to fold in; it is not changed
+     */
+    public void combine(AggregateState other) {
+        count += other.count;
+        sum += other.sum;
+        if (other.min < min)
+            min = other.min;
+        if (other.max > max)
+            max = other.max;
+    }
+
+    /**
+     * @return the number of values folded into this state
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param op the aggregate operator
+     * @return the value of the aggregate op over the values seen so far
+     * @throws IllegalArgumentException if op is not supported
+     */
+    public int result(Aggregator.Op op) {
+        switch (op) {
+            case MIN:
+                return min;
+            case MAX:
+                return max;
+            case SUM:
+                return (int) sum;
+            case AVG:
+                return count == 0 ? 0 : (int) (sum / count);
+            case COUNT:
+                return count;
+            default:
+                throw new IllegalArgumentException("Unsupported aggregate " + op);
+        }
+    }
+}
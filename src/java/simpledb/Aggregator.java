@@ -76,6 +76,31 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every selected row of a batch into the aggregate. The default
+     * builds a Tuple per row; aggregators should override it to read the
+     * columns directly.
+     *
+     * @param batch the rows to merge
+     */
+    public default void mergeBatch(TupleBatch batch) {
+        for (int i = 0; i < batch.numRows(); i++)
+            mergeTupleIntoGroup(batch.getTuple(batch.rowIndex(i)));
+    }
+
+    /**
+     * Merge the partial aggregates computed by another aggregator into this
+     * one, so that this aggregator returns the aggregates over the tuples
+     * merged into either of them. SUM and COUNT add up, MIN and MAX keep the
+     * smaller or larger value, and AVG combines the sums and counts that
+     * the average is computed from.
+     *
+     * @param partial an aggregator of the same class, built with the same
+     *                arguments; it is not changed
+     * @throws IllegalArgumentException if partial is not such an aggregator
+     */
+    public void combine(Aggregator partial);
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
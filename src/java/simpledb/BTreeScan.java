@@ -52,6 +52,14 @@ public class BTreeScan implements OpIterator {
 		return this.tablename;
 	}
 
+	/**
+	 * @return the predicate on the key the scan matches, or null if it
+	 *         returns all tuples
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
 	/**
 	 * @return Return the alias of the table this operator scans. 
 	 * */
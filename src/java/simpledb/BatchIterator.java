@@ -0,0 +1,45 @@
+package simpledb;
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link OpIterator}.
+ * Instead of one Tuple per call, nextBatch returns a {@link TupleBatch} of up
+ * to {@link TupleBatch#DEFAULT_SIZE} rows, so that operators can work in tight
+ * loops over primitive columns. Operators that implement both interfaces share
+ * open, rewind and close between them.
+ */
+public interface BatchIterator extends Serializable {
+  /**
+   * Opens the iterator. This must be called before nextBatch.
+   * @throws DbException when there are problems opening/accessing the database.
+   */
+  public void open()
+      throws DbException, TransactionAbortedException;
+
+  /**
+   * Returns the next batch of rows. A returned batch always has at least one
+   * selected row.
+   *
+   * @return the next batch, or null if there are no more rows.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+  /**
+   * Resets the iterator to the start.
+   * @throws DbException when rewind is unsupported.
+   */
+  public void rewind() throws DbException, TransactionAbortedException;
+
+  /**
+   * Returns the TupleDesc of the rows in the returned batches.
+   * @return the TupleDesc of the rows in the returned batches.
+   */
+  public TupleDesc getTupleDesc();
+
+  /**
+   * Closes the iterator.
+   */
+  public void close();
+
+}
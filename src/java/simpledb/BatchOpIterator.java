@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Turns a {@link BatchIterator} back into an {@link OpIterator}, returning the
+ * selected rows of each batch one Tuple at a time.
+ */
+public class BatchOpIterator extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private BatchIterator source;
+    private transient TupleBatch batch;
+    private transient int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param source the batches to unpack
+     */
+    public BatchOpIterator(BatchIterator source) {
+        this.source = source;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return source.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        source.open();
+        batch = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        source.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        source.rewind();
+        batch = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (batch == null || pos == batch.numRows()) {
+            batch = source.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.rowIndex(pos++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        if (source instanceof OpIterator)
+            return new OpIterator[]{(OpIterator) source};
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.source = OpIteratorBatchAdapter.asBatches(children[0]);
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A Bloom filter over the hash codes of a set of fields. It answers whether
+ * a value may be in the set: a value that was added is always reported, and
+ * a value that was not is reported with a small probability (about 1% with
+ * the default sizing). A hash join publishes one over the keys of its build
+ * side so that a scan feeding its probe side can drop most of the tuples
+ * that would find no match.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of bits per expected key. */
+    public static final int BITS_PER_KEY = 10;
+
+    /** Number of bits set for each key. */
+    private static final int HASHES = 4;
+
+    private final long[] words;
+    private final int mask;
+
+    /**
+     * Create an empty filter.
+     *
+     * @param expectedKeys the number of keys that will be added
+     */
+    public BloomFilter(int expectedKeys) {
+        long bits = Math.max(64L, (long) expectedKeys * BITS_PER_KEY);
+        int size = 64;
+        while (size < bits && size < (1 << 30))
+            size <<= 1;
+        this.words = new long[size / 64];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add a value, given by its hash code.
+     *
+     * @param hash the {@link Field#hashCode} of the value
+     */
+    public void add(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Add a value.
+     */
+    public void add(Field f) {
+        add(f.hashCode());
+    }
+
+    /**
+     * @param hash the {@link Field#hashCode} of a value
+     * @return false if the value was certainly not added, true if it may
+     * have been
+     */
+    public boolean mightContain(int hash) {
+        long h = mix(hash);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((words[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if f was certainly not added, true if it may have been
+     */
+    public boolean mightContain(Field f) {
+        return mightContain(f.hashCode());
+    }
+
+    /**
+     * Spread the bits of a hash code over a long, so that keys with nearby
+     * hash codes (such as consecutive integers) set unrelated bits.
+     */
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 29);
+    }
+}
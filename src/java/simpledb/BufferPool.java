@@ -37,6 +37,20 @@ public class BufferPool {
     private final ConcurrentHashMap<PageId, Page> pageMap;
     private final LockManager lockManager;
 
+    /**
+     * What calls to getPage have cost one thread: how many found their page
+     * in the pool, how many had to read it, and how long they waited for
+     * locks. {@link InstrumentedOperator} reads these before and after each
+     * call it times.
+     */
+    static final class PageStats {
+        long hits;
+        long misses;
+        long lockWaitNanos;
+    }
+
+    private static final ThreadLocal<PageStats> pageStats = ThreadLocal.withInitial(PageStats::new);
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -63,6 +77,37 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * @return the counts of the calls to getPage made by the current thread,
+     *         over the life of the thread
+     */
+    static PageStats pageStats() {
+        return pageStats.get();
+    }
+
+    /**
+     * @return the maximum number of pages in this buffer pool
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Count the pages of a table that are in the buffer pool, so that the
+     * optimizer can expect to read them without any I/O.
+     *
+     * @param tableId the table
+     * @return the number of its pages in the buffer pool at the moment
+     */
+    public int cachedPages(int tableId) {
+        int n = 0;
+        for (PageId pid : pageMap.keySet()) {
+            if (pid.getTableId() == tableId)
+                n++;
+        }
+        return n;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -87,22 +132,37 @@ public class BufferPool {
         } else {
             lockType = Lock.WRITE;
         }
+        PageStats stats = pageStats.get();
         boolean acquiredLock = false;
         long timeout = new Random().nextInt(2000) + 1000;
         long sysTime = System.currentTimeMillis(); //获取系统时间用于判断是否死锁
-        while (!acquiredLock) {
-            //lockManager获取锁，获取不到抛出异常
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - sysTime > timeout) {
-                throw new TransactionAbortedException(); //采用抛出异常中断事务的方式解决死锁
-            }
-            try {
-                acquiredLock = lockManager.acquireLock(tid, pid, lockType);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+        // a failed attempt has already waited inside acquireLock, so the wait
+        // is timed from before the first one
+        long waitStart = System.nanoTime();
+        boolean waited = false;
+        try {
+            while (!acquiredLock) {
+                //lockManager获取锁，获取不到抛出异常
+                long currentTime = System.currentTimeMillis();
+                if (currentTime - sysTime > timeout) {
+                    throw new TransactionAbortedException(); //采用抛出异常中断事务的方式解决死锁
+                }
+                try {
+                    acquiredLock = lockManager.acquireLock(tid, pid, lockType);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                if (!acquiredLock)
+                    waited = true;
             }
+        } finally {
+            if (waited)
+                stats.lockWaitNanos += System.nanoTime() - waitStart;
         }
-        if (!pageMap.containsKey(pid)) {
+        if (pageMap.containsKey(pid)) {
+            stats.hits++;
+        } else {
+            stats.misses++;
             if (pageMap.size() >= numPages) {
                 evictPage();
             }
@@ -168,6 +228,7 @@ public class BufferPool {
             }
         }
         lockManager.CompleteTransaction(tid);
+        TableStats.transactionComplete(tid, commit);
     }
 
     /**
@@ -179,7 +240,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
-     * that future requests see up-to-date pages.
+     * that future requests see up-to-date pages. The {@link TableStats} of the
+     * table, if any, are updated when the transaction commits.
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -196,6 +258,7 @@ public class BufferPool {
                 evictPage(); //页面过多时需要淘汰
             pageMap.put(p.getId(), p);
         }
+        TableStats.tupleInserted(tid, tableId, t);
     }
 
     /**
@@ -206,7 +269,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
-     * that future requests see up-to-date pages.
+     * that future requests see up-to-date pages. The {@link TableStats} of the
+     * table, if any, are updated when the transaction commits.
      *
      * @param tid the transaction deleting the tuple.
      * @param t   the tuple to delete
@@ -214,7 +278,8 @@ public class BufferPool {
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pageList = dbFile.deleteTuple(tid, t);
         for (Page p : pageList) {
             p.markDirty(true, tid);
@@ -222,6 +287,7 @@ public class BufferPool {
                 evictPage();
             pageMap.put(p.getId(), p);
         }
+        TableStats.tupleDeleted(tid, tableId, t);
     }
 
     /**
@@ -0,0 +1,315 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * CardinalityFeedback remembers how far the estimates of the optimizer were
+ * from the number of tuples operators actually returned, so that the next
+ * estimate of the same thing can be corrected. Two kinds of estimate are
+ * corrected:
+ * <ul>
+ * <li>the selectivity of the conjunction of the predicates pushed into a
+ * scan, looked up by {@link TableStats#estimateSelectivity}, and</li>
+ * <li>the cardinality of a join given the cardinalities of its inputs, looked
+ * up by {@link JoinOptimizer#estimateTableJoinCardinality}.</li>
+ * </ul>
+ * For each, the ratio of the actual cardinality to the one estimated from the
+ * statistics alone is kept, under a signature of the predicates or the join
+ * and the {@link TableStats} of the tables involved. Feedback is thus dropped
+ * when the statistics of a table are computed again. Repeated observations
+ * are averaged geometrically, so that a query whose plan changes as its
+ * estimates improve settles down rather than flipping between plans.
+ * <p>
+ * {@link Query} measures the plans of queries built by the parser, with
+ * {@link InstrumentedOperator}s that only count, and records what they
+ * measured when the query is closed.
+ */
+public class CardinalityFeedback {
+
+    /** The most signatures remembered; the least recently used go first. */
+    public static final int MAX_ENTRIES = 4096;
+
+    /**
+     * The smallest selectivity an estimate is taken to be when the ratio to
+     * the actual selectivity is computed, so that the ratio stays finite.
+     */
+    static final double MIN_SELECTIVITY = 1e-6;
+
+    private static volatile boolean enabled = true;
+
+    private static final Map<Key, Double> ratios = new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * A signature, with the statistics of the tables it is about, which are
+     * compared by identity.
+     */
+    private static final class Key {
+        private final TableStats s1;
+        private final TableStats s2;
+        private final String signature;
+
+        Key(TableStats s1, TableStats s2, String signature) {
+            this.s1 = s1;
+            this.s2 = s2;
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return s1 == k.s1 && s2 == k.s2 && signature.equals(k.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(s1) + System.identityHashCode(s2))
+                    + signature.hashCode();
+        }
+    }
+
+    /**
+     * Turn the recording of feedback from queries on or off. Feedback already
+     * recorded is still used.
+     *
+     * @param on whether {@link Query} should measure and record; true by default
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** @return whether {@link Query} measures queries and records feedback */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Forget all the feedback recorded. */
+    public static void clear() {
+        synchronized (ratios) {
+            ratios.clear();
+        }
+    }
+
+    /** @return the number of signatures feedback is kept for */
+    public static int size() {
+        synchronized (ratios) {
+            return ratios.size();
+        }
+    }
+
+    private static Double get(Key k) {
+        synchronized (ratios) {
+            return ratios.get(k);
+        }
+    }
+
+    private static void put(Key k, double ratio) {
+        if (Double.isNaN(ratio) || Double.isInfinite(ratio))
+            return;
+        synchronized (ratios) {
+            Double old = ratios.get(k);
+            ratios.put(k, old == null ? ratio : Math.sqrt(old * ratio));
+        }
+    }
+
+    /** @return the signature of a conjunction, the same whatever the order of its conjuncts */
+    private static String signature(Predicate[] preds) {
+        String[] terms = new String[preds.length];
+        for (int i = 0; i < preds.length; i++)
+            terms[i] = preds[i].getField() + " " + preds[i].getOp() + " " + preds[i].getOperand();
+        Arrays.sort(terms);
+        return String.join(" AND ", terms);
+    }
+
+    /**
+     * @return the key of a join; the two sides of an equality are put in the
+     *         same order whichever way round the join is written
+     */
+    private static Key joinKey(TableStats s1, int field1, Predicate.Op op,
+            TableStats s2, int field2) {
+        if (op == Predicate.Op.EQUALS && (System.identityHashCode(s1) > System.identityHashCode(s2)
+                || (s1 == s2 && field1 > field2)))
+            return new Key(s2, s1, field2 + " " + op + " " + field1);
+        return new Key(s1, s2, field1 + " " + op + " " + field2);
+    }
+
+    /**
+     * @param stats the statistics of a table
+     * @param preds a conjunction of predicates on the fields of the table
+     * @return the ratio of the actual selectivity of the conjunction to its
+     *         estimate from the statistics, or 1 if it has not been measured
+     */
+    static double selectivityRatio(TableStats stats, Predicate[] preds) {
+        if (size() == 0)
+            return 1.0;
+        Double r = get(new Key(stats, null, signature(preds)));
+        return r == null ? 1.0 : r;
+    }
+
+    /**
+     * Record the selectivity of a conjunction of predicates on a table.
+     *
+     * @param stats  the statistics of the table
+     * @param preds  the predicates, on the fields of the table
+     * @param actual the fraction of the tuples of the table that satisfied them
+     */
+    public static void recordSelectivity(TableStats stats, Predicate[] preds, double actual) {
+        if (preds.length == 0)
+            return;
+        double estimate = Math.max(stats.rawSelectivity(preds), MIN_SELECTIVITY);
+        put(new Key(stats, null, signature(preds)), Math.max(actual, MIN_SELECTIVITY) / estimate);
+    }
+
+    /**
+     * @return the ratio of the actual cardinality of a join to its estimate
+     *         from the statistics and the cardinalities of its inputs, or 1
+     *         if it has not been measured
+     */
+    static double joinRatio(TableStats s1, int field1, Predicate.Op op,
+            TableStats s2, int field2) {
+        if (size() == 0)
+            return 1.0;
+        Double r = get(joinKey(s1, field1, op, s2, field2));
+        return r == null ? 1.0 : r;
+    }
+
+    /**
+     * Record the cardinality of a join.
+     *
+     * @param s1       the statistics of the table of the left field
+     * @param field1   the left field, in its table
+     * @param op       the operator of the join
+     * @param s2       the statistics of the table of the right field
+     * @param field2   the right field, in its table
+     * @param estimate the cardinality estimated from the statistics and the
+     *                 actual cardinalities of the inputs
+     * @param actual   the number of tuples the join returned
+     */
+    public static void recordJoin(TableStats s1, int field1, Predicate.Op op,
+            TableStats s2, int field2, double estimate, double actual) {
+        put(joinKey(s1, field1, op, s2, field2), Math.max(actual, 1) / Math.max(estimate, 1));
+    }
+
+    /**
+     * Record the cardinalities measured in a plan run to completion, or as
+     * far as it went: only the runs of operators that reached the end of
+     * their output are used. Scans of part of a table are left out, as are
+     * joins whose inputs can't be traced back to the fields of tables.
+     *
+     * @param plan  the plan, with {@link InstrumentedOperator}s around its operators
+     * @param lp    the logical plan it was built from
+     * @param stats the statistics of the tables, by table name
+     */
+    public static void record(OpIterator plan, LogicalPlan lp, Map<String, TableStats> stats) {
+        Set<OpIterator> seen = Collections.newSetFromMap(new IdentityHashMap<OpIterator, Boolean>());
+        List<OpIterator> todo = new ArrayList<OpIterator>();
+        todo.add(plan);
+        while (!todo.isEmpty()) {
+            OpIterator it = todo.remove(todo.size() - 1);
+            if (it == null || !seen.add(it))
+                continue;
+            if (it instanceof InstrumentedOperator) {
+                InstrumentedOperator io = (InstrumentedOperator) it;
+                if (io.getCompletedLoops() > 0)
+                    recordOperator(io, lp, stats);
+            }
+            if (it instanceof Operator) {
+                OpIterator[] children = ((Operator) it).getChildren();
+                if (children != null)
+                    todo.addAll(Arrays.asList(children));
+            }
+        }
+    }
+
+    private static void recordOperator(InstrumentedOperator io, LogicalPlan lp,
+            Map<String, TableStats> stats) {
+        OpIterator op = io.getOperator();
+        if (op instanceof SeqScan) {
+            SeqScan scan = (SeqScan) op;
+            TableStats s = stats.get(scan.getTableName());
+            int tuples = s == null ? 0 : s.estimateTableCardinality(1.0);
+            if (scan.getPredicates().length == 0 || scan.numPartitions() != 1 || tuples == 0)
+                return;
+            recordSelectivity(s, scan.getPredicates(), Math.min(1.0, inputRows(io) / tuples));
+        } else if (op instanceof Join || op instanceof HashEquiJoin || op instanceof ParallelHashJoin) {
+            OpIterator[] children = ((Operator) op).getChildren();
+            int numLeft = op instanceof ParallelHashJoin ? ((ParallelHashJoin) op).numLeftInputs() : 1;
+            JoinPredicate p = op instanceof Join ? ((Join) op).getJoinPredicate()
+                    : op instanceof HashEquiJoin ? ((HashEquiJoin) op).getJoinPredicate()
+                    : ((ParallelHashJoin) op).getJoinPredicate();
+            double card1 = 0, card2 = 0;
+            for (int i = 0; i < children.length; i++) {
+                if (!(children[i] instanceof InstrumentedOperator)
+                        || ((InstrumentedOperator) children[i]).getCompletedLoops() == 0)
+                    return;
+                if (i < numLeft)
+                    card1 += inputRows((InstrumentedOperator) children[i]);
+                else
+                    card2 += inputRows((InstrumentedOperator) children[i]);
+            }
+            String name1 = children[0].getTupleDesc().getFieldName(p.getField1());
+            String name2 = children[numLeft].getTupleDesc().getFieldName(p.getField2());
+            recordJoin(name1, p.getOperator(), name2, card1, card2,
+                    (double) io.getCompletedRows() / io.getCompletedLoops(), lp, stats);
+        }
+    }
+
+    /**
+     * @return the number of tuples an operator returned in each of its runs
+     *         that reached the end, counting for a scan the tuples dropped by
+     *         a runtime filter, which the estimates know nothing of
+     */
+    private static double inputRows(InstrumentedOperator io) {
+        long rows = io.getCompletedRows();
+        if (io.getOperator() instanceof SeqScan)
+            rows += ((SeqScan) io.getOperator()).runtimeFiltered();
+        return (double) rows / io.getCompletedLoops();
+    }
+
+    private static void recordJoin(String name1, Predicate.Op op, String name2,
+            double card1, double card2, double actual, LogicalPlan lp,
+            Map<String, TableStats> stats) {
+        int dot1 = name1 == null ? -1 : name1.indexOf('.');
+        int dot2 = name2 == null ? -1 : name2.indexOf('.');
+        if (dot1 < 0 || dot2 < 0)
+            return;
+        String alias1 = name1.substring(0, dot1), field1 = name1.substring(dot1 + 1);
+        String alias2 = name2.substring(0, dot2), field2 = name2.substring(dot2 + 1);
+        Map<String, Integer> aliases = lp.getTableAliasToIdMapping();
+        Integer id1 = aliases.get(alias1), id2 = aliases.get(alias2);
+        if (id1 == null || id2 == null)
+            return;
+        TableStats s1 = stats.get(Database.getCatalog().getTableName(id1));
+        TableStats s2 = stats.get(Database.getCatalog().getTableName(id2));
+        if (s1 == null || s2 == null)
+            return;
+        int f1, f2;
+        try {
+            f1 = s1.getTupleDesc().fieldNameToIndex(field1);
+            f2 = s2.getTupleDesc().fieldNameToIndex(field2);
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        double estimate = JoinOptimizer.rawJoinCardinality(op, alias1, alias2, field1, field2,
+                (int) Math.round(card1), (int) Math.round(card2),
+                field1.equals(Database.getCatalog().getPrimaryKey(id1)),
+                field2.equals(Database.getCatalog().getPrimaryKey(id2)), stats, aliases);
+        recordJoin(s1, f1, op, s2, f2, estimate, actual);
+    }
+}
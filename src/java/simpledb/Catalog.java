@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -22,6 +23,8 @@ public class Catalog {
         public final DbFile file;
         public final String name;
         public final String key;
+        // the pairs of fields whose joint distribution the statistics keep
+        final List<int[]> columnGroups = new ArrayList<>();
 
         public Table(DbFile file, String name, String key) {
             this.file = file;
@@ -33,6 +36,16 @@ public class Catalog {
     private final HashMap<Integer, Table> idToTable;
     private final ArrayList<Integer> ids;
 
+    // shared by all catalogs, so that a new catalog (see Database#reset)
+    // never has the version of an old one
+    private static final AtomicLong versions = new AtomicLong();
+    private volatile long version = versions.incrementAndGet();
+
+    // files whose pages are read through the buffer pool without being
+    // tables, e.g. by CostCalibrator; no query can refer to them, so they
+    // leave the version and the list of tables as they are
+    private final ConcurrentHashMap<Integer, DbFile> scratchFiles = new ConcurrentHashMap<>();
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -58,6 +71,7 @@ public class Catalog {
         int id = file.getId();
         idToTable.put(id, new Table(file, name, pkeyField));
         ids.add(id);
+        version = versions.incrementAndGet();
     }
 
     public void addTable(DbFile file, String name) {
@@ -103,7 +117,7 @@ public class Catalog {
         try {
             return idToTable.get(tableid).file.getTupleDesc();
         } catch (Exception e) {
-            throw new NoSuchElementException();
+            return scratchFile(tableid).getTupleDesc();
         }
     }
 
@@ -119,10 +133,37 @@ public class Catalog {
         try {
             return idToTable.get(tableid).file;
         } catch (Exception e) {
-            throw new NoSuchElementException();
+            return scratchFile(tableid);
         }
     }
 
+    private DbFile scratchFile(int tableid) throws NoSuchElementException {
+        DbFile f = scratchFiles.get(tableid);
+        if (f == null)
+            throw new NoSuchElementException();
+        return f;
+    }
+
+    /**
+     * Make the pages of a file that is not a table readable through the
+     * buffer pool, e.g. a file written to measure the cost of reading it.
+     * Unlike {@link #addTable}, this doesn't change the version of the
+     * catalog, and the file is not listed among the tables.
+     *
+     * @param file the file, until {@link #removeScratchFile} is called
+     */
+    void addScratchFile(DbFile file) {
+        scratchFiles.put(file.getId(), file);
+    }
+
+    /**
+     * Forget a file added with {@link #addScratchFile}. Its pages must have
+     * been discarded from the buffer pool.
+     */
+    void removeScratchFile(DbFile file) {
+        scratchFiles.remove(file.getId());
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         try {
@@ -132,6 +173,54 @@ public class Catalog {
         }
     }
 
+    /**
+     * Declare that two fields of a table are correlated, such as the city
+     * and zip code of an address, so that {@link TableStats} keeps a {@link
+     * JointHistogram} of their values and estimates conjunctions of
+     * predicates on both from it, rather than taking the predicates to be
+     * independent. The histogram is built the next time the statistics of
+     * the table are computed. Column groups can also be declared in the
+     * catalog file, see {@link #loadSchema}.
+     *
+     * @param tableName the name of the table
+     * @param field1    the name of one field of the table
+     * @param field2    the name of another field of the table
+     * @throws NoSuchElementException if the table or a field doesn't exist
+     */
+    public void addColumnGroup(String tableName, String field1, String field2)
+            throws NoSuchElementException {
+        Table t = idToTable.get(getTableId(tableName));
+        TupleDesc td = t.file.getTupleDesc();
+        int f1 = td.fieldNameToIndex(field1);
+        int f2 = td.fieldNameToIndex(field2);
+        if (f1 == f2)
+            throw new IllegalArgumentException("a column group needs two different fields");
+        synchronized (t.columnGroups) {
+            for (int[] g : t.columnGroups) {
+                if ((g[0] == f1 && g[1] == f2) || (g[0] == f2 && g[1] == f1))
+                    return;
+            }
+            t.columnGroups.add(new int[]{f1, f2});
+        }
+    }
+
+    /**
+     * @return the pairs of fields declared correlated with {@link
+     * #addColumnGroup}, by index, in the order they were declared
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public List<int[]> getColumnGroups(int tableid) throws NoSuchElementException {
+        Table t = idToTable.get(tableid);
+        if (t == null)
+            throw new NoSuchElementException();
+        synchronized (t.columnGroups) {
+            List<int[]> groups = new ArrayList<>();
+            for (int[] g : t.columnGroups)
+                groups.add(g.clone());
+            return groups;
+        }
+    }
+
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         return ids.iterator();
@@ -153,10 +242,22 @@ public class Catalog {
         // some code goes here
         idToTable.clear();
         ids.clear();
+        version = versions.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever a table is added to the catalog
+     * or the catalog is cleared
+     */
+    public long getVersion() {
+        return version;
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line declares a table as {@code name (field type [pk], ...)},
+     * optionally followed by the column groups of the table, each as
+     * {@code group (field, field)}, see {@link #addColumnGroup}.
      *
      * @param catalogFile
      */
@@ -200,6 +301,21 @@ public class Catalog {
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
                 addTable(tabHf, name, primaryKey);
+                String groups = line.substring(line.indexOf(")") + 1).trim();
+                while (!groups.isEmpty()) {
+                    //assume groups are of the format group (field, field) ...
+                    if (!groups.startsWith("group")) {
+                        System.out.println("Unknown annotation " + groups);
+                        System.exit(0);
+                    }
+                    String[] pair = groups.substring(groups.indexOf("(") + 1, groups.indexOf(")")).split(",");
+                    if (pair.length != 2) {
+                        System.out.println("Invalid column group " + groups);
+                        System.exit(0);
+                    }
+                    addColumnGroup(name, pair[0].trim(), pair[1].trim());
+                    groups = groups.substring(groups.indexOf(")") + 1).trim();
+                }
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -208,6 +324,9 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            System.out.println("Invalid column group in catalog entry : " + line + ": " + e.getMessage());
+            System.exit(0);
         }
     }
 }
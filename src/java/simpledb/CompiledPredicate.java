@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * CompiledPredicate evaluates a conjunction of {@link Predicate}s. Each
+ * conjunct is turned into a test on the primitive value of its field when the
+ * predicate is compiled, so that evaluating a row involves no Field.compare
+ * dispatch, no cast of the operand and no switch on the operator.
+ */
+public class CompiledPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** A test on the value of an integer field. */
+    interface IntTest extends Serializable {
+        boolean test(int v);
+    }
+
+    /** A test on the value of a string field. */
+    interface StringTest extends Serializable {
+        boolean test(String v);
+    }
+
+    private final Predicate[] conjuncts;
+    private final int[] fields;
+    private final IntTest[] intTests;
+    private final StringTest[] stringTests;
+    // the runtime filter added by withFilter, if any
+    private RuntimeFilter runtimeFilter;
+
+    private CompiledPredicate(Predicate[] conjuncts, int tests) {
+        this.conjuncts = conjuncts.clone();
+        this.fields = new int[tests];
+        this.intTests = new IntTest[tests];
+        this.stringTests = new StringTest[tests];
+        for (int i = 0; i < conjuncts.length; i++) {
+            Predicate p = conjuncts[i];
+            fields[i] = p.getField();
+            if (p.getOperand().getType() == Type.INT_TYPE)
+                intTests[i] = compileInt(p.getOp(), ((IntField) p.getOperand()).getValue());
+            else
+                stringTests[i] = compileString(p.getOp(), ((StringField) p.getOperand()).getValue());
+        }
+    }
+
+    /**
+     * Compile the conjunction of the given predicates.
+     *
+     * @param conjuncts the predicates that must all hold; at least one
+     * @return an evaluator for the conjunction
+     * @throws IllegalArgumentException if conjuncts is empty
+     */
+    public static CompiledPredicate compile(Predicate... conjuncts) {
+        if (conjuncts.length == 0)
+            throw new IllegalArgumentException("Need at least one predicate");
+        return new CompiledPredicate(conjuncts, conjuncts.length);
+    }
+
+    /**
+     * Add a runtime filter to a conjunction: the result also drops the
+     * records whose value of a field is certainly not in a Bloom filter. The
+     * filter checks how many records it lets through, and stops checking
+     * once it has seen it keep most of them, since it then costs more than
+     * it saves.
+     *
+     * @param base   the conjunction to extend, or null for none
+     * @param field  the field whose value is looked up in filter
+     * @param type   the type of that field
+     * @param filter the values the field may have
+     * @return an evaluator for the conjunction of base and the filter
+     */
+    public static CompiledPredicate withFilter(CompiledPredicate base, int field, Type type,
+                                               BloomFilter filter) {
+        Predicate[] conjuncts = base == null ? new Predicate[0] : base.conjuncts;
+        int n = base == null ? 0 : base.fields.length;
+        CompiledPredicate p = new CompiledPredicate(conjuncts, n + 1);
+        for (int i = 0; i < n; i++) {
+            p.fields[i] = base.fields[i];
+            p.intTests[i] = base.intTests[i];
+            p.stringTests[i] = base.stringTests[i];
+        }
+        RuntimeFilter test = new RuntimeFilter(filter);
+        p.runtimeFilter = test;
+        p.fields[n] = field;
+        if (type == Type.INT_TYPE)
+            p.intTests[n] = test;
+        else
+            p.stringTests[n] = test;
+        return p;
+    }
+
+    /**
+     * @return the number of records that satisfied the rest of the
+     *         conjunction but were dropped by the runtime filter added by
+     *         {@link #withFilter}; 0 if there is none
+     */
+    public int droppedByFilter() {
+        return runtimeFilter == null ? 0 : runtimeFilter.dropped;
+    }
+
+    /**
+     * A test that a value may be in a Bloom filter, which turns itself off
+     * if too few values fail it.
+     */
+    private static class RuntimeFilter implements IntTest, StringTest {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Number of values looked up before deciding whether to go on. */
+        static final int SAMPLE = 1024;
+
+        /** Fraction of values that must fail for the filter to stay on. */
+        static final double MIN_DROPPED = 0.25;
+
+        private final BloomFilter filter;
+        private int seen;
+        private int dropped;
+        private boolean off;
+
+        RuntimeFilter(BloomFilter filter) {
+            this.filter = filter;
+        }
+
+        public boolean test(int v) {
+            return off || check(filter.mightContain(v));
+        }
+
+        public boolean test(String v) {
+            return off || check(filter.mightContain(v.hashCode()));
+        }
+
+        private boolean check(boolean pass) {
+            if (!pass)
+                dropped++;
+            if (++seen == SAMPLE)
+                off = dropped < SAMPLE * MIN_DROPPED;
+            return pass;
+        }
+    }
+
+    private static IntTest compileInt(Predicate.Op op, int c) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return v -> v == c;
+            case NOT_EQUALS:
+                return v -> v != c;
+            case GREATER_THAN:
+                return v -> v > c;
+            case GREATER_THAN_OR_EQ:
+                return v -> v >= c;
+            case LESS_THAN:
+                return v -> v < c;
+            case LESS_THAN_OR_EQ:
+                return v -> v <= c;
+        }
+        throw new IllegalArgumentException("Unknown operator " + op);
+    }
+
+    private static StringTest compileString(Predicate.Op op, String c) {
+        switch (op) {
+            case EQUALS:
+                return v -> v.equals(c);
+            case NOT_EQUALS:
+                return v -> !v.equals(c);
+            case GREATER_THAN:
+                return v -> v.compareTo(c) > 0;
+            case GREATER_THAN_OR_EQ:
+                return v -> v.compareTo(c) >= 0;
+            case LESS_THAN:
+                return v -> v.compareTo(c) < 0;
+            case LESS_THAN_OR_EQ:
+                return v -> v.compareTo(c) <= 0;
+            case LIKE:
+                return v -> v.contains(c);
+        }
+        throw new IllegalArgumentException("Unknown operator " + op);
+    }
+
+    /**
+     * @return the predicates this evaluator was compiled from
+     */
+    public Predicate[] getConjuncts() {
+        return conjuncts.clone();
+    }
+
+    /**
+     * @param t the tuple to evaluate
+     * @return true if t satisfies every conjunct
+     */
+    public boolean test(Tuple t) {
+        for (int i = 0; i < fields.length; i++) {
+            if (intTests[i] != null) {
+                if (!intTests[i].test(((IntField) t.getField(fields[i])).getValue()))
+                    return false;
+            } else if (!stringTests[i].test(((StringField) t.getField(fields[i])).getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluate the conjunction on a record that has not been decoded, such as
+     * a record still in the bytes of a {@link HeapPage}. Only the fields the
+     * conjuncts refer to are read.
+     *
+     * @param data    the bytes holding the record
+     * @param base    the offset of the record in data
+     * @param offsets the offset of each field from the start of the record
+     * @return true if the record satisfies every conjunct
+     */
+    public boolean test(byte[] data, int base, int[] offsets) {
+        for (int i = 0; i < fields.length; i++) {
+            int off = base + offsets[fields[i]];
+            if (intTests[i] != null) {
+                if (!intTests[i].test(HeapPage.readIntAt(data, off)))
+                    return false;
+            } else if (!stringTests[i].test(HeapPage.readStringAt(data, off))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Narrow the selection vector of a batch to the rows that satisfy every
+     * conjunct. Conjuncts are applied one after another, each one reading
+     * only the rows that passed the previous ones.
+     *
+     * @param b the batch to filter; its selection vector is replaced
+     * @return the number of rows left selected
+     */
+    public int select(TupleBatch b) {
+        int[] rows = new int[b.capacity()];
+        int n = b.numRows();
+        for (int i = 0; i < conjuncts.length && n > 0; i++) {
+            n = conjuncts[i].filter(b, rows);
+            b.select(rows, n);
+        }
+        // runtime filters have no Predicate, so test them a row at a time
+        for (int i = conjuncts.length; i < fields.length && n > 0; i++) {
+            int kept = 0;
+            for (int r = 0; r < n; r++) {
+                int row = b.rowIndex(r);
+                boolean pass = intTests[i] != null
+                        ? intTests[i].test(b.intColumn(fields[i])[row])
+                        : stringTests[i].test(((StringField) b.getField(fields[i], row)).getValue());
+                if (pass)
+                    rows[kept++] = row;
+            }
+            n = kept;
+            b.select(rows, n);
+        }
+        return n;
+    }
+}
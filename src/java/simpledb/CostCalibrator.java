@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Measures the constants of the cost model on this host: the time taken to
+ * read the next page of a heap file, to read a page anywhere in it, to find a
+ * page in the buffer pool and to apply a predicate to a tuple. The first
+ * three are written out relative to the last, which is the unit of cost of
+ * {@link JoinOptimizer#estimateJoinCost}, and can be loaded with {@link
+ * TableStats#loadCosts}.
+ * <p>
+ * Pages are read from a file written for the purpose. Unless the file is
+ * larger than the memory the operating system caches files in, reads are
+ * served from that cache, as reads of tables that size would be.
+ */
+public class CostCalibrator {
+
+    /** The key of the cost of reading the next page of a file. */
+    public static final String SEQ_PAGE_COST = "seqPageCost";
+    /** The key of the cost of reading a page anywhere in a file. */
+    public static final String RANDOM_PAGE_COST = "randomPageCost";
+    /** The key of the cost of finding a page in the buffer pool. */
+    public static final String CACHED_PAGE_COST = "cachedPageCost";
+
+    /** The default size of the file read, in pages. */
+    public static final int DEFAULT_PAGES = 4096;
+
+    // each measurement is taken this many times, and the fastest kept, to
+    // leave out the warm up of the JVM and interference from other work
+    private static final int ROUNDS = 3;
+
+    static final String usage = "Usage: calibrate costsFile [pages]";
+
+    /**
+     * Measure the constants of the cost model.
+     *
+     * @param pages the size of the file to read, in pages
+     * @return the constants, under the keys {@link #SEQ_PAGE_COST}, {@link
+     *         #RANDOM_PAGE_COST} and {@link #CACHED_PAGE_COST}
+     * @throws IOException if the file can't be written
+     */
+    public static Properties calibrate(int pages) throws IOException {
+        if (pages < 1)
+            throw new IllegalArgumentException("pages must be positive");
+        TupleDesc td = Utility.getTupleDesc(2, "c");
+        File f = File.createTempFile("calibrate", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        // the file is not a table, so that measuring leaves the plans
+        // compiled against the catalog valid
+        Database.getCatalog().addScratchFile(hf);
+        try {
+            byte[] data = fullPage(hf, td);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+                for (int i = 0; i < pages; i++)
+                    out.write(data);
+            }
+
+            double seq = Double.MAX_VALUE, random = Double.MAX_VALUE;
+            double cached = Double.MAX_VALUE, tuple = Double.MAX_VALUE;
+            for (int r = 0; r < ROUNDS; r++) {
+                seq = Math.min(seq, sequentialRead(hf, pages));
+                random = Math.min(random, randomRead(hf, pages));
+                cached = Math.min(cached, cachedRead(hf, pages));
+                tuple = Math.min(tuple, applyPredicate(hf));
+            }
+
+            Properties p = new Properties();
+            p.setProperty(SEQ_PAGE_COST, Double.toString(seq / tuple));
+            p.setProperty(RANDOM_PAGE_COST, Double.toString(random / tuple));
+            p.setProperty(CACHED_PAGE_COST, Double.toString(cached / tuple));
+            return p;
+        } finally {
+            for (int i = 0; i < pages; i++)
+                Database.getBufferPool().discardPage(new HeapPageId(hf.getId(), i));
+            Database.getCatalog().removeScratchFile(hf);
+            f.delete();
+        }
+    }
+
+    /** @return the data of a page of hf holding as many tuples as it can */
+    private static byte[] fullPage(HeapFile hf, TupleDesc td) throws IOException {
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        Random rand = new Random(0);
+        try {
+            while (page.getNumEmptySlots() > 0) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(rand.nextInt()));
+                t.setField(1, new IntField(rand.nextInt()));
+                page.insertTuple(t);
+            }
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        }
+        return page.getPageData();
+    }
+
+    /** @return the time taken to read a page, reading the file in order, in ns */
+    private static double sequentialRead(HeapFile hf, int pages) {
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++)
+            hf.readPage(new HeapPageId(hf.getId(), i));
+        return (double) (System.nanoTime() - start) / pages;
+    }
+
+    /** @return the time taken to read a page, reading pages at random, in ns */
+    private static double randomRead(HeapFile hf, int pages) {
+        Random rand = new Random(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++)
+            hf.readPage(new HeapPageId(hf.getId(), rand.nextInt(pages)));
+        return (double) (System.nanoTime() - start) / pages;
+    }
+
+    /** @return the time taken to get a page that is in the buffer pool, in ns */
+    private static double cachedRead(HeapFile hf, int pages) throws IOException {
+        int resident = Math.min(pages, Database.getBufferPool().getNumPages());
+        TransactionId tid = new TransactionId();
+        try {
+            for (int i = 0; i < resident; i++)
+                Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            int reads = Math.max(pages, 10000);
+            long start = System.nanoTime();
+            for (int i = 0; i < reads; i++)
+                Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i % resident),
+                        Permissions.READ_ONLY);
+            return (double) (System.nanoTime() - start) / reads;
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** @return the time taken to apply a predicate to a tuple of a page in memory, in ns */
+    private static double applyPredicate(HeapFile hf) {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+        int tuples = 0, matches = 0;
+        long start = System.nanoTime();
+        while (tuples < 1000000) {
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                if (pred.filter(it.next()))
+                    matches++;
+                tuples++;
+            }
+        }
+        long time = System.nanoTime() - start;
+        // keep the loop from being optimized away
+        if (matches < 0)
+            throw new IllegalStateException();
+        return (double) time / tuples;
+    }
+
+    /**
+     * Measure the constants of the cost model and write them to a file.
+     *
+     * @param args the file to write, usually the catalog file followed by
+     *             {@link TableStats#COSTS_FILE_SUFFIX}, and optionally the
+     *             size of the file to read, in pages
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println(usage);
+            return;
+        }
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PAGES;
+        Properties p = calibrate(pages);
+        try (OutputStream out = new FileOutputStream(args[0])) {
+            p.store(out, "cost constants, relative to applying a predicate to a tuple");
+        }
+        System.out.println("Wrote " + p + " to " + args[0]);
+    }
+}
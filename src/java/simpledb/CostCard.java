@@ -1,7 +1,7 @@
 package simpledb;
 import java.util.Vector;
 
-/** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
+/** Class returned by {@link JoinOptimizer#orderJoins} specifying the
     cost and cardinality of the optimal plan represented by plan.
 */
 public class CostCard {
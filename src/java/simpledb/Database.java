@@ -17,6 +17,7 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final WorkerPool _workerpool;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -24,6 +25,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _workerpool = new WorkerPool(Runtime.getRuntime().availableProcessors());
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -45,6 +47,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the worker pool of the static Database instance */
+    public static WorkerPool getWorkerPool() {
+        return _instance.get()._workerpool;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -0,0 +1,25 @@
+package simpledb;
+
+/**
+ * Exchange is the base class of the operators that split a query plan into
+ * pipelines running on different threads. The pipelines below an exchange
+ * are run by the {@link WorkerPool} and pass their tuples up through bounded
+ * queues, so a single query can keep several cores busy.
+ *
+ * @see Gather
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples a producer collects before queueing them. */
+    public static final int CHUNK_SIZE = 256;
+
+    /** Number of chunks a queue between two pipelines holds. */
+    public static final int QUEUE_CAPACITY = 16;
+
+    /**
+     * @return a short description of this exchange, as shown in query plans
+     */
+    public abstract String getName();
+}
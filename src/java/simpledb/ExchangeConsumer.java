@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * The consuming side of an {@link Exchange}: returns the tuples that the
+ * producers of the exchange put into an {@link ExchangeQueue}, one chunk at
+ * a time. Subclasses decide which pipelines produce the tuples.
+ */
+public abstract class ExchangeConsumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient ExchangeQueue queue;
+    private transient Tuple[] chunk;
+    private transient int pos;
+
+    /**
+     * Start reading from a new queue, dropping whatever was left of the
+     * previous one.
+     */
+    protected void consume(ExchangeQueue queue) {
+        this.queue = queue;
+        this.chunk = null;
+        this.pos = 0;
+    }
+
+    /**
+     * @return the next tuple from the queue, or null once every producer has
+     * finished
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || pos == chunk.length) {
+            chunk = queue == null ? null : queue.take();
+            pos = 0;
+            if (chunk == null)
+                return null;
+        }
+        return chunk[pos++];
+    }
+}
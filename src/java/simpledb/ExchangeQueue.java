@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue that carries chunks of tuples from the producers of an
+ * {@link Exchange} to the one thread that consumes them. A producer that
+ * finds the queue full waits for the consumer, so a fast producer cannot
+ * run arbitrarily far ahead. Each producer marks its end with
+ * {@link #finish}; the consumer sees the end of the stream once every
+ * producer has finished, and an error raised by any producer is rethrown
+ * to the consumer.
+ */
+class ExchangeQueue {
+
+    /** Marks the end of the output of one producer. */
+    private static final Tuple[] END = new Tuple[0];
+
+    private final ArrayBlockingQueue<Tuple[]> queue;
+    private int producers;
+    private volatile Throwable error;
+    private volatile boolean stopped;
+
+    /**
+     * @param producers the number of producers that will call finish
+     * @param capacity  the number of chunks the queue holds
+     */
+    ExchangeQueue(int producers, int capacity) {
+        this.producers = producers;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Hand a chunk to the consumer, waiting while the queue is full.
+     *
+     * @return false if the consumer has stopped reading, in which case the
+     * producer should stop
+     */
+    boolean put(Tuple[] chunk) {
+        try {
+            while (!stopped) {
+                if (queue.offer(chunk, 10, TimeUnit.MILLISECONDS))
+                    return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Called once by each producer when it is done.
+     *
+     * @param failure the error that ended the producer, or null if it ran to
+     *                completion
+     */
+    void finish(Throwable failure) {
+        if (failure != null && error == null)
+            error = failure;
+        put(END);
+    }
+
+    /**
+     * @return the next chunk, or null once every producer has finished
+     * @throws DbException                 if a producer failed
+     * @throws TransactionAbortedException if a producer was aborted
+     */
+    Tuple[] take() throws DbException, TransactionAbortedException {
+        while (producers > 0) {
+            Tuple[] chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for an exchange");
+            }
+            if (chunk != END)
+                return chunk;
+            producers--;
+            Throwable e = error;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e != null) {
+                DbException failed = new DbException("exchange producer failed: " + e);
+                failed.initCause(e);
+                throw failed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop reading: producers blocked on this queue give up, and anything
+     * already queued is dropped.
+     */
+    void stop() {
+        stopped = true;
+        queue.clear();
+    }
+}
@@ -3,13 +3,17 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It returns the
+ * tuples of its child that satisfy a conjunction of one or more predicates,
+ * which is compiled into a {@link CompiledPredicate} when the Filter is built.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
-    private Predicate p;
+    private Predicate[] preds;
+    private CompiledPredicate compiled;
     private OpIterator child;
+    private BatchIterator childBatches;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -20,13 +24,36 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         // some code goes here
-        this.p = p;
+        this(new Predicate[]{p}, child);
+    }
+
+    /**
+     * Constructor accepts the conjuncts of a WHERE clause and a child
+     * operator to read tuples to filter from.
+     *
+     * @param preds The predicates that a tuple must all satisfy
+     * @param child The child operator
+     */
+    public Filter(Predicate[] preds, OpIterator child) {
+        this.preds = preds.clone();
+        this.compiled = CompiledPredicate.compile(preds);
         this.child = child;
+        this.childBatches = OpIteratorBatchAdapter.asBatches(child);
     }
 
+    /**
+     * @return the first predicate of this filter
+     */
     public Predicate getPredicate() {
         // some code goes here
-        return p;
+        return preds[0];
+    }
+
+    /**
+     * @return all predicates of this filter, in evaluation order
+     */
+    public Predicate[] getPredicates() {
+        return preds.clone();
     }
 
     public TupleDesc getTupleDesc() {
@@ -49,10 +76,7 @@ public class Filter extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        child.close();
-        child.open();
-        super.open();
-        super.close();
+        child.rewind();
     }
 
     /**
@@ -62,7 +86,7 @@ public class Filter extends Operator {
      *
      * @return The next tuple that passes the filter, or null if there are no
      * more tuples
-     * @see Predicate#filter
+     * @see CompiledPredicate#test
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
@@ -70,7 +94,7 @@ public class Filter extends Operator {
         Tuple t = null;
         while (child.hasNext()) {
             Tuple temp = child.next();
-            if (p.filter(temp)) {
+            if (compiled.test(temp)) {
                 t = temp;
                 break;
             }
@@ -78,6 +102,24 @@ public class Filter extends Operator {
         return t;
     }
 
+    /**
+     * Returns the next batch of the child with the rows that fail the
+     * predicate removed from its selection vector. Batches with no
+     * remaining rows are skipped.
+     *
+     * @return the next batch with at least one qualifying row, or null if
+     * there are no more rows
+     * @see CompiledPredicate#select
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch b;
+        while ((b = childBatches.nextBatch()) != null) {
+            if (compiled.select(b) > 0)
+                return b;
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -88,6 +130,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         child = children[0];
+        childBatches = OpIteratorBatchAdapter.asBatches(child);
     }
 
 }
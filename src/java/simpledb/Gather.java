@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Gather runs each of its children on a thread of the {@link WorkerPool} and
+ * returns the union of their tuples, in no particular order. The children
+ * are typically the partitions of a parallel plan, e.g. one pipeline per
+ * morsel-driven scan of the same table, see {@link PageMorsels}.
+ */
+public class Gather extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    private transient ExchangeQueue queue;
+    private transient WorkerPool.Job job;
+    private transient boolean started;
+
+    /**
+     * Constructor.
+     *
+     * @param children the pipelines to run in parallel; all of them have the
+     *                 same TupleDesc
+     */
+    public Gather(OpIterator... children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("Need at least one child");
+        this.children = children.clone();
+    }
+
+    @Override
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        // the children are opened by the workers, since opening one may
+        // already consume its input, e.g. to build a hash table
+        started = false;
+        start();
+        super.open();
+    }
+
+    private void start() {
+        queue = new ExchangeQueue(children.length, QUEUE_CAPACITY);
+        consume(queue);
+        final boolean rewind = started;
+        List<Runnable> tasks = new ArrayList<>();
+        for (OpIterator child : children)
+            tasks.add(() -> produce(child, rewind));
+        job = Database.getWorkerPool().submit(tasks);
+        started = true;
+    }
+
+    private void produce(OpIterator child, boolean rewind) {
+        Throwable failure = null;
+        try {
+            if (rewind)
+                child.rewind();
+            else
+                child.open();
+            Tuple[] chunk = new Tuple[CHUNK_SIZE];
+            int n = 0;
+            while (child.hasNext()) {
+                chunk[n++] = child.next();
+                if (n == CHUNK_SIZE) {
+                    if (!queue.put(chunk))
+                        return;
+                    chunk = new Tuple[CHUNK_SIZE];
+                    n = 0;
+                }
+            }
+            if (n > 0 && !queue.put(Arrays.copyOf(chunk, n)))
+                return;
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            queue.finish(failure);
+        }
+    }
+
+    /**
+     * Stop the workers and wait for them to return, so that the children can
+     * safely be used by this thread.
+     */
+    private void stop() {
+        if (job != null) {
+            queue.stop();
+            job.await();
+            job = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+        super.close();
+        super.open();
+    }
+
+    public void close() {
+        stop();
+        if (started) {
+            for (OpIterator child : children)
+                child.close();
+            started = false;
+        }
+        super.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children.clone();
+    }
+}
@@ -5,14 +5,20 @@ import java.util.*;
 /**
  * The Join operator implements the relational join operation.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
     private OpIterator child1, child2;
+    private BatchIterator child2Batches;
     private TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    transient private TupleBatch probeBatch = null;
+    transient private int probePos;
+    transient private int probeRow;
+    transient private Iterator<Tuple> probeMatches = null;
+    transient private boolean probeDone = false;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -29,6 +35,7 @@ public class HashEquiJoin extends Operator {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.child2Batches = OpIteratorBatchAdapter.asBatches(child2);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -52,6 +59,17 @@ public class HashEquiJoin extends Operator {
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
+    private int mapSize = MAP_SIZE;
+
+    /**
+     * Set the number of tuples of child1 hashed at a time; child2 is read
+     * once for every such chunk of child1.
+     *
+     * @param mapSize the chunk size, {@link #MAP_SIZE} by default
+     */
+    public void setMapSize(int mapSize) {
+        this.mapSize = mapSize;
+    }
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
@@ -64,21 +82,52 @@ public class HashEquiJoin extends Operator {
                 map.put(t1.getField(pred.getField1()), list);
             }
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            if (cnt++ == mapSize)
                 return true;
         }
         return cnt > 0;
 
     }
 
+    /**
+     * The most keys the hash table may hold for a filter over them to be
+     * passed to the probe side.
+     */
+    public final static int MAX_FILTER_KEYS = 1 << 20;
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
-        child2.open();
         loadMap();
+        publishFilter();
+        child2.open();
+        probeDone = false;
         super.open();
     }
 
+    /**
+     * If child2 is a scan, possibly under some filters or {@link
+     * InstrumentedOperator}s, and the hash table holds the whole of child1,
+     * give the scan a Bloom filter over the keys of the table, so that it
+     * drops most of the tuples that would find no match before they are
+     * decoded. Otherwise, remove any filter given to
+     * the scan by an earlier open.
+     */
+    private void publishFilter() throws DbException, TransactionAbortedException {
+        OpIterator it = child2;
+        while (it instanceof Filter || it instanceof InstrumentedOperator)
+            it = ((Operator) it).getChildren()[0];
+        if (!(it instanceof SeqScan))
+            return;
+        BloomFilter filter = null;
+        if (!child1.hasNext() && map.size() <= MAX_FILTER_KEYS) {
+            filter = new BloomFilter(map.size());
+            for (Object key : map.keySet())
+                filter.add((Field) key);
+        }
+        ((SeqScan) it).setRuntimeFilter(pred.getField2(), filter);
+    }
+
     public void close() {
         super.close();
         child2.close();
@@ -86,12 +135,19 @@ public class HashEquiJoin extends Operator {
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.probeBatch=null;
+        this.probeMatches=null;
         this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        listIt = null;
+        probeBatch = null;
+        probeMatches = null;
+        probeDone = false;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -116,17 +172,7 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        return new JoinedTuple(comboTD, t1, t2);
 
     }
 
@@ -159,6 +205,45 @@ public class HashEquiJoin extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of joined rows. The hash table over child1 is
+     * built the same way as for {@link #fetchNext}, but child2 is probed a
+     * batch at a time and matching rows are written straight into the output
+     * columns, without building a Tuple per probe row.
+     *
+     * @return the next batch of joined rows, or null if there are no more
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (probeDone)
+            return null;
+        TupleBatch out = new TupleBatch(comboTD, TupleBatch.DEFAULT_SIZE);
+        while (!out.isFull()) {
+            if (probeMatches != null && probeMatches.hasNext()) {
+                out.addJoinedRow(probeMatches.next(), probeBatch, probeRow);
+                continue;
+            }
+            probeMatches = null;
+            if (probeBatch != null && probePos < probeBatch.numRows()) {
+                probeRow = probeBatch.rowIndex(probePos++);
+                ArrayList<Tuple> l = map.get(probeBatch.getField(pred.getField2(), probeRow));
+                if (l != null)
+                    probeMatches = l.iterator();
+                continue;
+            }
+            probeBatch = child2Batches.nextBatch();
+            probePos = 0;
+            if (probeBatch == null) {
+                // child2 is done: advance child1
+                child2.rewind();
+                if (!loadMap()) {
+                    probeDone = true;
+                    break;
+                }
+            }
+        }
+        return out.size() == 0 ? null : out;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
@@ -168,6 +253,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(OpIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.child2Batches = OpIteratorBatchAdapter.asBatches(child2);
     }
     
 }
@@ -118,7 +118,10 @@ public class HeapFile implements DbFile {
             HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE); //确保读写权限
             if (page.getNumEmptySlots() == 0) {
                 //当获取的page没有空的slot时立即释放在这个page的锁
-                Database.getBufferPool().releasePage(tid, pid);
+                // (unless this transaction changed it, so that it is still
+                // written out when the transaction commits)
+                if (page.isDirty() == null)
+                    Database.getBufferPool().releasePage(tid, pid);
                 continue;
             }
             page.insertTuple(t);
@@ -151,67 +154,220 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null, null, null);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that satisfy a
+     * conjunction of predicates, keeping only some of their fields. The
+     * predicates are checked on the raw bytes of each page, and a Tuple is
+     * only built for the records that qualify.
+     *
+     * @param tid    the transaction reading the file
+     * @param fields the indices of the fields to keep, in output order, or
+     *               null to keep every field
+     * @param preds  predicates on the fields of this file that every returned
+     *               tuple satisfies; may be null or empty
+     * @return an iterator whose tuples have the kept fields of this file,
+     * named as in {@link #getTupleDesc}
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] preds) {
+        CompiledPredicate pred = preds == null || preds.length == 0 ? null : CompiledPredicate.compile(preds);
+        return iterator(tid, fields, pred);
+    }
 
-    private static final class HeapFileIterator implements DbFileIterator {
-        private int pgNo;
+    /**
+     * Returns an iterator over the tuples of this file that satisfy an
+     * already compiled condition, such as a conjunction extended with a
+     * runtime filter, keeping only some of their fields.
+     *
+     * @param pred the condition on the fields of this file that every
+     *             returned tuple satisfies, or null to return every tuple
+     * @see #iterator(TransactionId, int[], Predicate[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] fields, CompiledPredicate pred) {
+        TupleDesc outTd = null;
+        if (fields != null) {
+            Type[] types = new Type[fields.length];
+            String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = td.getFieldType(fields[i]);
+                names[i] = td.getFieldName(fields[i]);
+            }
+            outTd = new TupleDesc(types, names);
+        }
+        return new HeapFileIterator(this, tid, fields, outTd, pred);
+    }
+
+    /**
+     * Returns an iterator that reads its share of the pages of this file in
+     * a parallel scan: the iterators created with the same morsels together
+     * return the tuples of {@link #iterator(TransactionId, int[], Predicate[])},
+     * each of them those of the pages it has claimed.
+     *
+     * @param morsels the pages left to read by the iterators of the scan
+     */
+    DbFileIterator iterator(TransactionId tid, int[] fields, Predicate[] preds, PageMorsels morsels) {
+        HeapFileIterator it = (HeapFileIterator) iterator(tid, fields, preds);
+        it.morsels = morsels;
+        return it;
+    }
+
+
+    /**
+     * The iterator of a heap file, which can also fill a {@link TupleBatch}
+     * straight from the bytes of its pages, see {@link #fillBatch}.
+     */
+    static final class HeapFileIterator implements DbFileIterator {
         private final HeapFile file;
         private final TransactionId tid;
+        private final int[] fields;
+        private final TupleDesc outTd;
+        private final CompiledPredicate pred;
+        // the page being read, if any; its records from slot on are left to
+        // read, unless they are being returned by tupleIterator
+        private boolean hasPage;
+        private int pgNo;
+        private int slot;
         private Iterator<Tuple> tupleIterator;
+        private boolean opened;
+        // when set, pages are claimed from it and read up to morselEnd
+        // instead of reading the whole file
+        private PageMorsels morsels;
+        private int pass;
+        private int morselEnd;
 
-        public HeapFileIterator(HeapFile file, TransactionId tid) {
+        public HeapFileIterator(HeapFile file, TransactionId tid, int[] fields, TupleDesc outTd,
+                                CompiledPredicate pred) {
             this.file = file;
             this.tid = tid;
+            this.fields = fields;
+            this.outTd = outTd;
+            this.pred = pred;
         }
 
-        private Iterator<Tuple> getPageTuples(int pageNumber) throws TransactionAbortedException, DbException {
-            if (pageNumber >= 0 && pageNumber < file.numPages()) {
-                HeapPageId pid = new HeapPageId(file.getId(), pageNumber);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        private HeapPage readPage(int pageNumber) throws TransactionAbortedException, DbException {
+            if (pageNumber < 0 || pageNumber >= file.numPages())
+                throw new DbException(String.format("heapfile %d does not contain page %d!", file.getId(), pageNumber));
+            HeapPageId pid = new HeapPageId(file.getId(), pageNumber);
+            return (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        }
+
+        private Iterator<Tuple> readPageTuples(int pageNumber, int from) throws TransactionAbortedException, DbException {
+            HeapPage page = readPage(pageNumber);
+            if (fields == null && pred == null && from == 0)
                 return page.iterator();
+            return page.iterator(from, fields, outTd, pred);
+        }
+
+        /**
+         * Move on to the next page to read, claiming a new morsel once the
+         * pages of the current one are read.
+         *
+         * @return false if no page is left
+         */
+        private boolean nextPage() {
+            slot = 0;
+            tupleIterator = null;
+            if (morsels == null) {
+                hasPage = pgNo + 1 < file.numPages();
+                if (hasPage)
+                    pgNo++;
+            } else if (pgNo + 1 < morselEnd) {
+                pgNo++;
+                hasPage = true;
             } else {
-                throw new DbException(String.format("heapfile %d does not contain page %d!", pageNumber, file.getId()));
+                hasPage = morselEnd >= 0 && claimMorsel();
+            }
+            return hasPage;
+        }
+
+        /**
+         * Move on to the first page of a newly claimed morsel.
+         *
+         * @return false if no morsel is left
+         */
+        private boolean claimMorsel() {
+            int start = morsels.claim();
+            if (start < 0) {
+                // don't claim again on every call once the pass is over
+                morselEnd = -1;
+                return false;
             }
+            pgNo = start;
+            morselEnd = morsels.end(start);
+            return true;
         }
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            if (tupleIterator == null) {
+            if (!opened) {
                 return false;
             }
 
-            if (!tupleIterator.hasNext()) {
-                if (pgNo < (file.numPages() - 1)) {
-                    pgNo++;
-                    tupleIterator = getPageTuples(pgNo);
-                    return tupleIterator.hasNext();
-                } else {
-                    return false;
-                }
-            } else {
-                return true;
+            // a page may have no qualifying tuples, so keep going until one
+            // does or the file ends
+            while (hasPage) {
+                if (tupleIterator == null)
+                    tupleIterator = readPageTuples(pgNo, slot);
+                if (tupleIterator.hasNext())
+                    return true;
+                nextPage();
             }
+            return false;
         }
 
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if (tupleIterator == null || !tupleIterator.hasNext()) {
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
             return tupleIterator.next();
         }
 
+        /**
+         * Append the next qualifying records to a batch, until it is full or
+         * the file ends. The kept fields of the records are read from the
+         * page data into the columns of the batch, without building a
+         * {@link Tuple} for them.
+         *
+         * @param b a batch whose TupleDesc is that of the returned tuples
+         */
+        void fillBatch(TupleBatch b) throws DbException, TransactionAbortedException {
+            while (opened && hasPage && !b.isFull()) {
+                if (tupleIterator != null) {
+                    // the rest of a page that next() has started on
+                    while (!b.isFull() && tupleIterator.hasNext())
+                        b.addTuple(tupleIterator.next());
+                    if (tupleIterator.hasNext())
+                        return;
+                    nextPage();
+                    continue;
+                }
+                slot = readPage(pgNo).fillBatch(slot, b, fields, pred);
+                if (slot >= 0)
+                    return;
+                nextPage();
+            }
+        }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            opened = true;
+            slot = 0;
+            tupleIterator = null;
+            if (morsels != null) {
+                pass = morsels.open(pass);
+                morselEnd = 0;
+                hasPage = claimMorsel();
+                return;
+            }
             pgNo = 0;
-            HeapPage heapPage = (HeapPage) Database.getBufferPool()
-                    .getPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
-            tupleIterator = heapPage.iterator();
+            hasPage = file.numPages() > 0;
         }
 
         @Override
         public void close() {
+            opened = false;
             tupleIterator = null;
         }
 
@@ -223,4 +379,3 @@ public class HeapFile implements DbFile {
         }
     }
 }
-
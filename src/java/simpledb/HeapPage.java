@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
@@ -15,8 +16,12 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    // decoded tuples; several threads may scan the page at once, so the
+    // tuples decoded by one are published to the others
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
+    final byte[] data;
+    final int[] offsets;
     byte[] oldData;
     private final Byte oldDataLock = (byte) 0;
     boolean dirty;
@@ -51,19 +56,85 @@ public class HeapPage implements Page {
         for (int i = 0; i < header.length; i++)
             header[i] = dis.readByte();
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
+        // records are decoded from the raw bytes the first time they are
+        // asked for; until then a used slot holds a null tuple
+        tuples = new AtomicReferenceArray<>(numSlots);
+        this.data = data;
+        this.offsets = fieldOffsets(td);
         dis.close();
 
         setBeforeImage();
     }
 
+    /**
+     * @return the byte offset of each field of td from the start of a record
+     */
+    static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields()];
+        int off = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = off;
+            off += td.getFieldType(i).getLen();
+        }
+        return offsets;
+    }
+
+    /**
+     * @return the offset in the page data of the record in the given slot
+     */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
+    /**
+     * Read an integer field, serialized as by {@link IntField#serialize}.
+     *
+     * @param data the bytes holding the field
+     * @param off  the offset of the field in data
+     */
+    static int readIntAt(byte[] data, int off) {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * Read the value of a string field, serialized as by
+     * {@link StringField#serialize}.
+     *
+     * @param data the bytes holding the field
+     * @param off  the offset of the field in data
+     */
+    static String readStringAt(byte[] data, int off) {
+        int len = readIntAt(data, off);
+        return new String(data, off + 4, len);
+    }
+
+    private Field readFieldAt(int field, int base) {
+        int off = base + offsets[field];
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            return new IntField(readIntAt(data, off));
+        return new StringField(readStringAt(data, off), Type.STRING_LEN);
+    }
+
+    /**
+     * @return the tuple in a used slot, decoding it from the page data if
+     * this is the first time it is asked for
+     */
+    private Tuple getTuple(int slotId) {
+        Tuple t = tuples.get(slotId);
+        if (t == null) {
+            t = new Tuple(td);
+            int base = slotOffset(slotId);
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, readFieldAt(j, base));
+            t.setRecordId(new RecordId(pid, slotId));
+            // a thread decoding the same slot at the same time may win
+            if (!tuples.compareAndSet(slotId, null, t))
+                t = tuples.get(slotId);
+        }
+        return t;
+    }
+
     /**
      * Retrieve the number of tuples on this page.
      *
@@ -117,40 +188,6 @@ public class HeapPage implements Page {
         return pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
-        return t;
-    }
-
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -178,7 +215,7 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        for (int i = 0; i < tuples.length(); i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
@@ -193,9 +230,20 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // non-empty slot that was never decoded: its bytes are unchanged
+            Tuple decoded = tuples.get(i);
+            if (decoded == null) {
+                try {
+                    dos.write(data, slotOffset(i), td.getSize());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                Field f = decoded.getField(j);
                 try {
                     f.serialize(dos);
 
@@ -206,7 +254,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length()); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -249,12 +297,11 @@ public class HeapPage implements Page {
         // some code goes here
         RecordId rid = t.getRecordId();
         if (rid != null && pid.equals(rid.getPageId())) {
-            for (int i = 0; i < numSlots; i++) {
-                if (isSlotUsed(i) && rid.equals(tuples[i].getRecordId())) {
-                    tuples[i] = null;
-                    markSlotUsed(i, false);
-                    return;
-                }
+            int i = rid.getTupleNumber();
+            if (i >= 0 && i < numSlots && isSlotUsed(i)) {
+                tuples.set(i, null);
+                markSlotUsed(i, false);
+                return;
             }
         }
         throw new DbException("WRONG DELETE!!!");
@@ -277,7 +324,7 @@ public class HeapPage implements Page {
             if (!isSlotUsed(i)) {
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));
-                tuples[i] = t;
+                tuples.set(i, t);
                 return;
             }
         }
@@ -351,10 +398,104 @@ public class HeapPage implements Page {
         ArrayList<Tuple> Tuples = new ArrayList<>();
         for (int i = 0; i < numSlots; i++) {
             if (isSlotUsed(i)) {
-                Tuples.add(tuples[i]);
+                Tuples.add(getTuple(i));
             }
         }
         return Tuples.iterator();
     }
+
+    /**
+     * Return the tuples on this page that satisfy a predicate, keeping only
+     * some of their fields. The predicate is evaluated on the page data, so
+     * a record that does not qualify is never decoded, and only the kept
+     * fields of a qualifying record are read.
+     *
+     * @param fields the indices of the fields to keep, in output order, or
+     *               null to return whole tuples
+     * @param outTd  the TupleDesc of the returned tuples; ignored if fields
+     *               is null
+     * @param pred   the predicate tuples must satisfy, or null to return
+     *               every tuple
+     * @return an iterator over the qualifying tuples; each one carries the
+     * RecordId of the record it was read from
+     */
+    public Iterator<Tuple> iterator(int[] fields, TupleDesc outTd, CompiledPredicate pred) {
+        return iterator(0, fields, outTd, pred);
+    }
+
+    /**
+     * Return the qualifying tuples in the slots from a given one on, as
+     * {@link #iterator(int[], TupleDesc, CompiledPredicate)}.
+     *
+     * @param from the first slot to read
+     */
+    Iterator<Tuple> iterator(int from, int[] fields, TupleDesc outTd, CompiledPredicate pred) {
+        ArrayList<Tuple> out = new ArrayList<>();
+        for (int i = from; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            Tuple decoded = tuples.get(i);
+            int base = slotOffset(i);
+            if (pred != null && !(decoded == null ? pred.test(data, base, offsets) : pred.test(decoded)))
+                continue;
+            if (fields == null) {
+                out.add(getTuple(i));
+                continue;
+            }
+            Tuple t = new Tuple(outTd);
+            for (int j = 0; j < fields.length; j++)
+                t.setField(j, decoded == null ? readFieldAt(fields[j], base) : decoded.getField(fields[j]));
+            t.setRecordId(new RecordId(pid, i));
+            out.add(t);
+        }
+        return out.iterator();
+    }
+
+    /**
+     * Append the records on this page that satisfy a predicate to a batch,
+     * keeping only some of their fields, from a given slot on and until the
+     * batch is full. As for {@link #iterator(int[], TupleDesc,
+     * CompiledPredicate)}, the predicate is evaluated on the page data; the
+     * kept fields of a qualifying record are read from it straight into the
+     * columns of the batch, without building a Tuple.
+     *
+     * @param from   the first slot to read
+     * @param b      the batch, whose TupleDesc has the kept fields
+     * @param fields the indices of the fields to keep, in output order, or
+     *               null to keep every field
+     * @param pred   the predicate records must satisfy, or null to append
+     *               every record
+     * @return the slot to go on from once the batch is full, or -1 if every
+     * slot has been read
+     */
+    int fillBatch(int from, TupleBatch b, int[] fields, CompiledPredicate pred) {
+        int n = fields == null ? td.numFields() : fields.length;
+        for (int i = from; i < numSlots; i++) {
+            if (b.isFull())
+                return i;
+            if (!isSlotUsed(i))
+                continue;
+            Tuple decoded = tuples.get(i);
+            int base = slotOffset(i);
+            if (pred != null && !(decoded == null ? pred.test(data, base, offsets) : pred.test(decoded)))
+                continue;
+            int row = b.addRow(new RecordId(pid, i));
+            for (int j = 0; j < n; j++) {
+                int f = fields == null ? j : fields[j];
+                if (decoded != null) {
+                    Field v = decoded.getField(f);
+                    if (v.getType() == Type.INT_TYPE)
+                        b.intColumn(j)[row] = ((IntField) v).getValue();
+                    else
+                        b.fieldColumn(j)[row] = v;
+                } else if (td.getFieldType(f) == Type.INT_TYPE) {
+                    b.intColumn(j)[row] = readIntAt(data, base + offsets[f]);
+                } else {
+                    b.fieldColumn(j)[row] = readFieldAt(f, base);
+                }
+            }
+        }
+        return -1;
+    }
 }
 
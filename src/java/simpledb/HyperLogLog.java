@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A HyperLogLog sketch (Flajolet et al.) estimating the number of distinct
+ * values in a multiset in constant space: 2^{@link #PRECISION} one-byte
+ * registers, with a relative standard error of about 1.04 / sqrt(2^PRECISION),
+ * i.e. 1.6%. Sketches of different parts of a column, e.g. those built by
+ * different threads, can be merged into a sketch of the whole column.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of bits of the hash that choose a register. */
+    public static final int PRECISION = 12;
+
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    // the last estimate, until a register changes; the optimizer asks for
+    // it once for every plan it considers
+    private transient volatile Long estimate;
+
+    /**
+     * Add a value, given by its hash code.
+     *
+     * @param hash the {@link Field#hashCode} of the value
+     */
+    public void add(int hash) {
+        long h = mix(hash);
+        int register = (int) (h >>> (64 - PRECISION));
+        // the position of the first 1 bit among the remaining bits
+        int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+            estimate = null;
+        }
+    }
+
+    /**
+     * Add a value.
+     */
+    public void add(Field f) {
+        add(f.hashCode());
+    }
+
+    /**
+     * Add the values of another sketch to this one.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+        estimate = null;
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+        Long e = estimate;
+        if (e == null) {
+            e = compute();
+            estimate = e;
+        }
+        return e;
+    }
+
+    private long compute() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double e = alpha * REGISTERS * REGISTERS / sum;
+        // few values: linear counting of the empty registers is more accurate
+        if (e <= 2.5 * REGISTERS && zeros > 0)
+            e = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return Math.round(e);
+    }
+
+    /**
+     * @return the relative half-width of the 95% confidence interval of
+     * {@link #estimate}
+     */
+    public static double relativeError() {
+        return 1.96 * 1.04 / Math.sqrt(REGISTERS);
+    }
+
+    /**
+     * Spread the bits of a hash code over a long, so that values with nearby
+     * hash codes (such as consecutive integers) end up in unrelated
+     * registers.
+     */
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        h *= 0x94D049BB133111EBL;
+        return h ^ (h >>> 32);
+    }
+}
@@ -25,9 +25,18 @@ public class Insert extends Operator {
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
         // some code goes here
-        if (!child.getTupleDesc().equals(Database.getCatalog().getTupleDesc(tableId))) {
+        // only the types have to match; the child's field names usually carry
+        // a table alias prefix
+        TupleDesc childTd = child.getTupleDesc();
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableId);
+        if (childTd.numFields() != tableTd.numFields()) {
             throw new DbException("Wrong TupleDesc!");
         }
+        for (int i = 0; i < childTd.numFields(); i++) {
+            if (childTd.getFieldType(i) != tableTd.getFieldType(i)) {
+                throw new DbException("Wrong TupleDesc!");
+            }
+        }
         this.tid = t;
         this.child = child;
         this.tableId = tableId;
@@ -0,0 +1,306 @@
+package simpledb;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * InstrumentedOperator passes on the tuples of another operator unchanged,
+ * measuring what it costs to produce them: how many rows it returns, how long
+ * open and the calls that fetch tuples take, how many of the pages it gets
+ * from the buffer pool are there already and how many are read, and how long
+ * it waits for locks. All of these include the work of the operator's
+ * children, and cover only the work done on the thread that calls it; the
+ * work of the pipelines below an {@link Exchange} is counted by the operators
+ * in those pipelines. An operator that only counts rows, and the times it
+ * was run and ran to the end, costs less; {@link Query} uses these to give
+ * {@link CardinalityFeedback} the actual cardinalities of a plan.
+ * <p>
+ * {@link #instrument} wraps every operator of a plan, for EXPLAIN ANALYZE.
+ */
+public class InstrumentedOperator extends Operator implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private BatchIterator childBatches;
+    private final boolean timed;
+
+    // the number of times the operator was opened or rewound, and of those
+    // the number that ran to the end of its output, with the rows they returned
+    private int loops;
+    private int ends;
+    private long endedRows;
+    private transient boolean atEnd;
+    private transient long runStartRows;
+    private long rows;
+    private long openNanos;
+    private long nextNanos;
+    private long pageHits;
+    private long pageMisses;
+    private long lockWaitNanos;
+
+    // what the buffer pool had counted for this thread when the current call began
+    private transient long startHits, startMisses, startLockWait;
+
+    /**
+     * Constructor.
+     *
+     * @param child the operator to measure
+     * @param timed whether to measure times and the use of the buffer pool,
+     *              or only to count
+     */
+    public InstrumentedOperator(OpIterator child, boolean timed) {
+        this.child = child;
+        this.childBatches = OpIteratorBatchAdapter.asBatches(child);
+        this.timed = timed;
+    }
+
+    /**
+     * Wrap every operator of a plan in an InstrumentedOperator that measures
+     * everything.
+     *
+     * @param plan the root of the plan
+     * @return the root of the instrumented plan
+     */
+    public static OpIterator instrument(OpIterator plan) {
+        return instrument(plan, true);
+    }
+
+    /**
+     * Wrap every operator of a plan in an InstrumentedOperator. An operator
+     * that is the child of several others is wrapped once. A plan that is
+     * instrumented already is returned as it is.
+     *
+     * @param plan  the root of the plan
+     * @param timed whether to measure times and the use of the buffer pool,
+     *              or only to count
+     * @return the root of the instrumented plan
+     */
+    public static OpIterator instrument(OpIterator plan, boolean timed) {
+        return instrument(plan, timed, new IdentityHashMap<OpIterator, OpIterator>());
+    }
+
+    private static OpIterator instrument(OpIterator it, boolean timed,
+            Map<OpIterator, OpIterator> done) {
+        if (it instanceof InstrumentedOperator)
+            return it;
+        OpIterator wrapped = done.get(it);
+        if (wrapped != null)
+            return wrapped;
+        if (it instanceof Operator) {
+            Operator o = (Operator) it;
+            OpIterator[] children = o.getChildren();
+            if (children != null && children.length > 0) {
+                OpIterator[] instrumented = new OpIterator[children.length];
+                for (int i = 0; i < children.length; i++)
+                    instrumented[i] = children[i] == null ? null : instrument(children[i], timed, done);
+                o.setChildren(instrumented);
+            }
+        }
+        wrapped = new InstrumentedOperator(it, timed);
+        done.put(it, wrapped);
+        return wrapped;
+    }
+
+    /** @return the operator measured */
+    public OpIterator getOperator() {
+        return child;
+    }
+
+    /**
+     * @return the number of rows returned since the operator was opened, by
+     *         all its runs
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /** @return the number of times the operator was run: opened, then rewound */
+    public int getLoops() {
+        return loops;
+    }
+
+    /** @return the number of runs of the operator that reached the end of its output */
+    public int getCompletedLoops() {
+        return ends;
+    }
+
+    /** @return the number of rows returned by the runs that reached the end of the output */
+    public long getCompletedRows() {
+        return endedRows;
+    }
+
+    /** @return the time spent in open, in nanoseconds */
+    public long getOpenNanos() {
+        return openNanos;
+    }
+
+    /** @return the time spent fetching tuples or batches, in nanoseconds */
+    public long getNextNanos() {
+        return nextNanos;
+    }
+
+    /** @return the number of pages got from the buffer pool that were in it */
+    public long getPageHits() {
+        return pageHits;
+    }
+
+    /** @return the number of pages got from the buffer pool that were read */
+    public long getPageMisses() {
+        return pageMisses;
+    }
+
+    /** @return the time spent waiting for locks, in nanoseconds */
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    /**
+     * @return the measurements, in the form they are shown next to the
+     *         estimates of the operator in a printed plan
+     */
+    public String getActuals() {
+        return String.format(",actual:%d%s,time:%.3f+%.3fms,pages:%d/%d,lockwait:%.3fms",
+                rows, loops > 1 ? ",loops:" + loops : "", openNanos / 1e6, nextNanos / 1e6,
+                pageHits, pageHits + pageMisses, lockWaitNanos / 1e6);
+    }
+
+    private void start() {
+        if (!timed)
+            return;
+        BufferPool.PageStats s = BufferPool.pageStats();
+        startHits = s.hits;
+        startMisses = s.misses;
+        startLockWait = s.lockWaitNanos;
+    }
+
+    private void stop() {
+        if (!timed)
+            return;
+        BufferPool.PageStats s = BufferPool.pageStats();
+        pageHits += s.hits - startHits;
+        pageMisses += s.misses - startMisses;
+        lockWaitNanos += s.lockWaitNanos - startLockWait;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        rows = 0;
+        loops = 1;
+        ends = 0;
+        endedRows = 0;
+        atEnd = false;
+        runStartRows = 0;
+        openNanos = nextNanos = 0;
+        pageHits = pageMisses = lockWaitNanos = 0;
+        start();
+        long t = System.nanoTime();
+        try {
+            child.open();
+        } finally {
+            openNanos += System.nanoTime() - t;
+            stop();
+        }
+        super.open();
+    }
+
+    public void close() {
+        child.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        loops++;
+        atEnd = false;
+        runStartRows = rows;
+    }
+
+    private void end() {
+        if (!atEnd) {
+            atEnd = true;
+            ends++;
+            endedRows += rows - runStartRows;
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!timed) {
+            boolean more = child.hasNext();
+            if (!more)
+                end();
+            return more;
+        }
+        start();
+        long t = System.nanoTime();
+        try {
+            boolean more = child.hasNext();
+            if (!more)
+                end();
+            return more;
+        } finally {
+            nextNanos += System.nanoTime() - t;
+            stop();
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!timed) {
+            Tuple next = child.next();
+            rows++;
+            return next;
+        }
+        start();
+        long t = System.nanoTime();
+        try {
+            Tuple next = child.next();
+            rows++;
+            return next;
+        } finally {
+            nextNanos += System.nanoTime() - t;
+            stop();
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return hasNext() ? next() : null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        start();
+        long t = System.nanoTime();
+        try {
+            TupleBatch b = childBatches.nextBatch();
+            if (b != null)
+                rows += b.numRows();
+            else
+                end();
+            return b;
+        } finally {
+            nextNanos += System.nanoTime() - t;
+            stop();
+        }
+    }
+
+    @Override
+    public int getEstimatedCardinality() {
+        return child instanceof Operator ? ((Operator) child).getEstimatedCardinality() : 0;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+        childBatches = OpIteratorBatchAdapter.asBatches(child);
+    }
+}
@@ -1,8 +1,37 @@
 package simpledb;
 
-/** A class to represent a fixed-width histogram over a single integer-based field.
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A class to represent a histogram over a single integer-based field.
+ * <p>
+ * A histogram built with {@link #IntHistogram(int, int, int)} has buckets of
+ * a fixed width. The histograms {@link TableStats} builds from the values of
+ * a column are equi-depth instead: their buckets hold about as many values
+ * each, so they are narrow where the values are dense. They also keep a
+ * list of the most common values (MCVs) of the column with their exact
+ * counts, which the buckets do not hold, and the number of distinct values
+ * in each bucket, so skewed columns are estimated well: a value in the list
+ * is estimated from its own count, and any other value from the count of
+ * its bucket divided among the distinct values in it.
  */
-public class IntHistogram {
+public class IntHistogram implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private final int min;
+    private final int max;
+    // bucket b holds the values from starts[b] up to starts[b + 1] - 1
+    private final long[] starts;
+    private final int[] counts;
+    // the number of distinct values in each bucket other than the MCVs, or
+    // null if not known, in which case every value in it is assumed to occur
+    private final int[] distinct;
+    // the most common values, sorted, and their counts
+    private int[] mcvs;
+    private int[] mcvCounts;
+    private long total;
 
     /**
      * Create a new IntHistogram.
@@ -22,6 +51,80 @@ public class IntHistogram {
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        if (buckets < 1 || max < min)
+            throw new IllegalArgumentException("Need at least one bucket and min <= max");
+        this.min = min;
+        this.max = max;
+        // no bucket is narrower than a single value
+        int n = (int) Math.min(buckets, (long) max - min + 1);
+        this.starts = new long[n + 1];
+        for (int b = 0; b <= n; b++)
+            starts[b] = min + (long) b * ((long) max - min + 1) / n;
+        this.counts = new int[n];
+        this.distinct = null;
+        this.mcvs = new int[0];
+        this.mcvCounts = new int[0];
+    }
+
+    /**
+     * Create a histogram with given buckets and most common values.
+     *
+     * @param starts    the smallest value of each bucket, in increasing
+     *                  order, followed by the largest value of the last
+     *                  bucket plus one
+     * @param counts    the number of values in each bucket, not counting
+     *                  the most common values
+     * @param distinct  the number of distinct values in each bucket, not
+     *                  counting the most common values, or null if not known
+     * @param mcvs      the most common values, sorted
+     * @param mcvCounts the number of occurrences of each of mcvs
+     */
+    IntHistogram(long[] starts, int[] counts, int[] distinct, int[] mcvs, int[] mcvCounts) {
+        if (starts.length != counts.length + 1 || counts.length == 0 || mcvs.length != mcvCounts.length
+                || (distinct != null && distinct.length != counts.length))
+            throw new IllegalArgumentException("Need a start for each bucket and a count for each MCV");
+        this.min = (int) starts[0];
+        this.max = (int) (starts[counts.length] - 1);
+        this.starts = starts;
+        this.counts = counts;
+        this.distinct = distinct;
+        this.mcvs = mcvs;
+        this.mcvCounts = mcvCounts;
+        for (int c : counts)
+            total += c;
+        for (int c : mcvCounts)
+            total += c;
+    }
+
+    /** @return the smallest value in bucket b; for b == counts.length, max + 1 */
+    private long bucketStart(int b) {
+        return starts[b];
+    }
+
+    /** @return the bucket that holds v, which is between min and max */
+    private int bucketOf(int v) {
+        int b = Arrays.binarySearch(starts, v);
+        return b >= 0 ? b : -b - 2;
+    }
+
+    /** @return the number of values in bucket b */
+    private long bucketWidth(int b) {
+        return bucketStart(b + 1) - bucketStart(b);
+    }
+
+    /** @return the index of v in the MCV list, or a negative number */
+    private int mcvIndex(int v) {
+        return mcvs.length == 0 ? -1 : Arrays.binarySearch(mcvs, v);
+    }
+
+    /** @return the number of MCVs in bucket b */
+    private int mcvsIn(int b) {
+        if (mcvs.length == 0)
+            return 0;
+        int from = Arrays.binarySearch(mcvs, (int) bucketStart(b));
+        int to = bucketStart(b + 1) > Integer.MAX_VALUE ? mcvs.length
+                : Arrays.binarySearch(mcvs, (int) bucketStart(b + 1));
+        return (to >= 0 ? to : -to - 1) - (from >= 0 ? from : -from - 1);
     }
 
     /**
@@ -30,6 +133,93 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        addValue(v, 1);
+    }
+
+    /**
+     * Add count occurrences of a value; values outside of [min, max] are
+     * ignored.
+     */
+    void addValue(int v, int count) {
+        if (v < min || v > max)
+            return;
+        int m = mcvIndex(v);
+        if (m >= 0)
+            mcvCounts[m] += count;
+        else
+            counts[bucketOf(v)] += count;
+        total += count;
+    }
+
+    /**
+     * Remove an occurrence of a value added before; values outside of
+     * [min, max] are ignored.
+     */
+    void removeValue(int v) {
+        if (v < min || v > max)
+            return;
+        int m = mcvIndex(v);
+        int[] c = m >= 0 ? mcvCounts : counts;
+        int i = m >= 0 ? m : bucketOf(v);
+        if (c[i] > 0) {
+            c[i]--;
+            total--;
+        }
+    }
+
+    /**
+     * Create a histogram over a range that also covers v, holding the values
+     * of this one. If this histogram already has the number of buckets asked
+     * for, its first or last bucket is widened to cover v; otherwise the new
+     * histogram has buckets of a fixed width, and the values of each bucket
+     * of this histogram are put at its middle. The most common values are
+     * kept either way.
+     *
+     * @param v       the value the new histogram must cover
+     * @param buckets the number of buckets of the new histogram
+     * @return the new histogram
+     */
+    IntHistogram covering(int v, int buckets) {
+        if (counts.length >= buckets) {
+            long[] s = starts.clone();
+            s[0] = Math.min(s[0], v);
+            s[counts.length] = Math.max(s[counts.length], v + 1L);
+            return new IntHistogram(s, counts.clone(), distinct, mcvs, mcvCounts.clone());
+        }
+        IntHistogram h = new IntHistogram(buckets, Math.min(min, v), Math.max(max, v));
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0)
+                h.addValue((int) (bucketStart(b) + (bucketWidth(b) - 1) / 2), counts[b]);
+        }
+        h.mcvs = mcvs;
+        h.mcvCounts = mcvCounts.clone();
+        for (int c : mcvCounts)
+            h.total += c;
+        return h;
+    }
+
+    /**
+     * Add the values of another histogram with the same buckets and most
+     * common values to this one, e.g. a histogram built by another thread
+     * over a different part of a table.
+     *
+     * @param other the histogram to add
+     */
+    public void combine(IntHistogram other) {
+        if (!Arrays.equals(other.starts, starts) || !Arrays.equals(other.mcvs, mcvs))
+            throw new IllegalArgumentException("Histograms have different buckets");
+        for (int b = 0; b < counts.length; b++)
+            counts[b] += other.counts[b];
+        for (int m = 0; m < mcvs.length; m++)
+            mcvCounts[m] += other.mcvCounts[m];
+        total += other.total;
+    }
+
+    /**
+     * @return the number of values added to this histogram
+     */
+    public long numValues() {
+        return total;
     }
 
     /**
@@ -45,7 +235,98 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return equalFraction(v);
+            case NOT_EQUALS:
+                return 1.0 - equalFraction(v);
+            case GREATER_THAN:
+                return greaterFraction(v);
+            case GREATER_THAN_OR_EQ:
+                return greaterFraction(v) + equalFraction(v);
+            case LESS_THAN:
+                return lessFraction(v);
+            case LESS_THAN_OR_EQ:
+                return lessFraction(v) + equalFraction(v);
+        }
+        throw new IllegalArgumentException("Unknown operator " + op);
+    }
+
+    /**
+     * @return the estimated fraction of the values equal to v: the share of
+     * an MCV, or else of the bucket of v divided among the distinct values
+     * in it
+     */
+    private double equalFraction(int v) {
+        if (total == 0 || v < min || v > max)
+            return 0.0;
+        int m = mcvIndex(v);
+        if (m >= 0)
+            return (double) mcvCounts[m] / total;
+        int b = bucketOf(v);
+        return counts[b] / distinctIn(b) / total;
+    }
+
+    /**
+     * @return the estimated number of distinct values in bucket b, other
+     * than the MCVs in it
+     */
+    private double distinctIn(int b) {
+        double width = Math.max(1, bucketWidth(b) - mcvsIn(b));
+        if (distinct == null)
+            return width;
+        return Math.max(1.0, Math.min(width, distinct[b]));
+    }
+
+    /**
+     * @return the number of values of bucket b, which holds v, that its
+     * values are spread over when split at v: all of them but v if v is an
+     * MCV, which is counted apart
+     */
+    private double widthAround(int b, int v) {
+        return Math.max(1, bucketWidth(b) - (mcvIndex(v) >= 0 ? 1 : 0));
+    }
+
+    /**
+     * @return the estimated fraction of the values from lo to hi, inclusive
+     */
+    double rangeSelectivity(long lo, long hi) {
+        if (total == 0 || lo > hi || hi < min || lo > max)
+            return 0.0;
+        int from = (int) Math.max(lo, min);
+        int to = (int) Math.min(hi, max);
+        return Math.max(0.0, lessFraction(to) + equalFraction(to) - lessFraction(from));
+    }
+
+    /** @return the estimated fraction of the values greater than v */
+    private double greaterFraction(int v) {
+        if (total == 0 || v >= max)
+            return 0.0;
+        if (v < min)
+            return 1.0;
+        int b = bucketOf(v);
+        double n = counts[b] * (bucketStart(b + 1) - 1 - v) / widthAround(b, v);
+        for (int i = b + 1; i < counts.length; i++)
+            n += counts[i];
+        for (int m = mcvs.length - 1; m >= 0 && mcvs[m] > v; m--)
+            n += mcvCounts[m];
+        return n / total;
+    }
+
+    /** @return the estimated fraction of the values less than v */
+    private double lessFraction(int v) {
+        if (total == 0 || v <= min)
+            return 0.0;
+        if (v > max)
+            return 1.0;
+        int b = bucketOf(v);
+        double n = counts[b] * (v - bucketStart(b)) / widthAround(b, v);
+        for (int i = 0; i < b; i++)
+            n += counts[i];
+        for (int m = 0; m < mcvs.length && mcvs[m] < v; m++)
+            n += mcvCounts[m];
+        return n / total;
     }
     
     /**
@@ -59,7 +340,19 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        if (total == 0)
+            return 1.0;
+        // the selectivity of equality with a value drawn from the histogram
+        double sel = 0.0;
+        for (int c : mcvCounts) {
+            double f = (double) c / total;
+            sel += f * f;
+        }
+        for (int b = 0; b < counts.length; b++) {
+            double f = (double) counts[b] / total;
+            sel += f * f / distinctIn(b);
+        }
+        return sel;
     }
     
     /**
@@ -67,6 +360,16 @@ public class IntHistogram {
      */
     public String toString() {
         // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ".." + max + ", " + total + " values:");
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0)
+                sb.append(" ").append(bucketStart(b)).append("=").append(counts[b]);
+        }
+        if (mcvs.length > 0) {
+            sb.append("; MCVs:");
+            for (int m = 0; m < mcvs.length; m++)
+                sb.append(" ").append(mcvs[m]).append("=").append(mcvCounts[m]);
+        }
+        return sb.append("]").toString();
     }
 }
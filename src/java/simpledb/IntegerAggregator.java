@@ -17,7 +17,8 @@ public class IntegerAggregator implements Aggregator {
     private final TupleDesc td;
     private final Op operator;
     private Map<Field, Integer> groupMap;
-    private Map<Field, List<Integer>> avgMap;
+    // for AVG, groupMap holds the sum of each group and countMap its count
+    private Map<Field, Integer> countMap;
 
     /**
      * Aggregate constructor
@@ -39,7 +40,7 @@ public class IntegerAggregator implements Aggregator {
         td = gbfield == NO_GROUPING ? new TupleDesc(new Type[]{Type.INT_TYPE})
                 : new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
         this.groupMap = new HashMap<>();
-        this.avgMap = new HashMap<>();
+        this.countMap = new HashMap<>();
     }
 
     /**
@@ -58,6 +59,25 @@ public class IntegerAggregator implements Aggregator {
         } else {
             groupField = tup.getField(gbfield);
         }
+        merge(groupField, value);
+    }
+
+    /**
+     * Merge every selected row of a batch, reading the aggregate field
+     * straight from its int column.
+     *
+     * @param batch the rows to merge
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        int[] values = batch.intColumn(afield);
+        for (int i = 0; i < batch.numRows(); i++) {
+            int r = batch.rowIndex(i);
+            merge(gbfield == NO_GROUPING ? null : batch.getField(gbfield, r), values[r]);
+        }
+    }
+
+    private void merge(Field groupField, int value) {
         if (groupField != null && groupField.getType() != gbfieldtype && gbfieldtype != null) {
             throw new IllegalArgumentException("Wrong Type!");
         }
@@ -91,19 +111,35 @@ public class IntegerAggregator implements Aggregator {
                 }
                 break;
             case AVG:
-                if (!avgMap.containsKey(groupField)) {
-                    List<Integer> list = new ArrayList<>();
-                    list.add(value);
-                    avgMap.put(groupField, list);
-                } else {
-                    avgMap.get(groupField).add(value);
-                }
+                groupMap.merge(groupField, value, Integer::sum);
+                countMap.merge(groupField, 1, Integer::sum);
                 break;
             default:
                 throw new IllegalArgumentException("Wrong Operator!");
         }
     }
 
+    @Override
+    public void combine(Aggregator partial) {
+        if (!(partial instanceof IntegerAggregator) || ((IntegerAggregator) partial).operator != operator)
+            throw new IllegalArgumentException("Cannot combine with " + partial);
+        IntegerAggregator other = (IntegerAggregator) partial;
+        for (Map.Entry<Field, Integer> e : other.groupMap.entrySet()) {
+            switch (operator) {
+                case MAX:
+                    groupMap.merge(e.getKey(), e.getValue(), Math::max);
+                    break;
+                case MIN:
+                    groupMap.merge(e.getKey(), e.getValue(), Math::min);
+                    break;
+                default:
+                    groupMap.merge(e.getKey(), e.getValue(), Integer::sum);
+            }
+        }
+        for (Map.Entry<Field, Integer> e : other.countMap.entrySet())
+            countMap.merge(e.getKey(), e.getValue(), Integer::sum);
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
@@ -115,34 +151,18 @@ public class IntegerAggregator implements Aggregator {
     public OpIterator iterator() {
         // some code goes here
         List<Tuple> list = new ArrayList<>();
-        if (operator == Op.AVG) {
-            for (Field f : avgMap.keySet()) {
-                List<Integer> l = avgMap.get(f);
-                int sum = 0, average;
-                for (int i : l) {
-                    sum += i;
-                }
-                average = sum / l.size();
-                Tuple t = new Tuple(td);
-                if (gbfield != NO_GROUPING) {
-                    t.setField(0, f);
-                    t.setField(1, new IntField(average));
-                } else {
-                    t.setField(0, new IntField(average));
-                }
-                list.add(t);
-            }
-        } else {
-            for (Field f : groupMap.keySet()) {
-                Tuple t = new Tuple(td);
-                if (gbfield != NO_GROUPING) {
-                    t.setField(0, f);
-                    t.setField(1, new IntField(groupMap.get(f)));
-                } else {
-                    t.setField(0, new IntField(groupMap.get(f)));
-                }
-                list.add(t);
+        for (Field f : groupMap.keySet()) {
+            int value = groupMap.get(f);
+            if (operator == Op.AVG)
+                value /= countMap.get(f);
+            Tuple t = new Tuple(td);
+            if (gbfield != NO_GROUPING) {
+                t.setField(0, f);
+                t.setField(1, new IntField(value));
+            } else {
+                t.setField(0, new IntField(value));
             }
+            list.add(t);
         }
         return new TupleIterator(td, list);
     }
@@ -155,5 +175,6 @@ public class IntegerAggregator implements Aggregator {
     @Override
     public void clear() {
         groupMap.clear();
+        countMap.clear();
     }
 }
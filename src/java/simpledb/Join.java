@@ -11,6 +11,7 @@ public class Join extends Operator {
     private JoinPredicate p;
     private OpIterator child1;
     private OpIterator child2;
+    private TupleDesc comboTD;
     private Tuple t;
 
     /**
@@ -26,6 +27,7 @@ public class Join extends Operator {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -57,7 +59,7 @@ public class Join extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return comboTD;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -109,18 +111,7 @@ public class Join extends Operator {
                 while (child2.hasNext()) {
                     tt = child2.next();
                     if (p.filter(t, tt)) {
-                        TupleDesc td1 = child1.getTupleDesc();
-                        TupleDesc td2 = child2.getTupleDesc();
-                        TupleDesc td = TupleDesc.merge(td1, td2);
-                        Tuple new_t = new Tuple(td);
-                        new_t.setRecordId(t.getRecordId());
-                        int i = 0, j = 0;
-                        for (; i < td1.numFields(); i++) {
-                            new_t.setField(i, t.getField(i));
-                        }
-                        for (; j < td2.numFields(); j++) {
-                            new_t.setField(i + j, tt.getField(j));
-                        }
+                        Tuple new_t = new JoinedTuple(comboTD, t, tt);
                         if (!child2.hasNext()) {
                             child2.rewind();
                             t = null;
@@ -146,6 +137,7 @@ public class Join extends Operator {
         // some code goes here
         child1 = children[0];
         child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.awt.GraphicsEnvironment;
 import java.util.*;
 
 import javax.swing.*;
@@ -14,6 +15,21 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** The default for {@link #setSearchThreshold}. */
+    public static final int DEFAULT_SEARCH_THRESHOLD = 12;
+    /** The default for {@link #setSearchMillis}. */
+    public static final long DEFAULT_SEARCH_MILLIS = 50;
+
+    private static volatile int searchThreshold = DEFAULT_SEARCH_THRESHOLD;
+    private static volatile long searchMillis = DEFAULT_SEARCH_MILLIS;
+
+    // the most orders the randomized search tries, whatever its time budget
+    private static final int MAX_SEARCH_STEPS = 20000;
+    // simulated annealing accepts an order that costs a fraction d more than
+    // the current one with probability exp(-d / temperature)
+    private static final double INITIAL_TEMPERATURE = 0.1;
+    private static final double COOLING = 0.999;
+
     /**
      * Constructor
      * 
@@ -27,6 +43,34 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Set the number of tables joined together above which {@link
+     * #orderJoins} no longer tries every order, whose number grows
+     * exponentially with the number of tables, but starts from a greedy
+     * order and improves it by a randomized search.
+     *
+     * @param tables the most tables ordered exhaustively, {@link
+     *               #DEFAULT_SEARCH_THRESHOLD} by default
+     */
+    public static void setSearchThreshold(int tables) {
+        if (tables < 1)
+            throw new IllegalArgumentException("threshold must be positive");
+        searchThreshold = tables;
+    }
+
+    /**
+     * Set how long the randomized search of {@link #setSearchThreshold} may
+     * look for a better order of the joins of a query.
+     *
+     * @param millis the time budget, {@link #DEFAULT_SEARCH_MILLIS} by
+     *               default; 0 to keep the greedy order
+     */
+    public static void setSearchMillis(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("time budget must not be negative");
+        searchMillis = millis;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -68,7 +112,12 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // an equality join is evaluated by hashing rather than by rescanning
+        // the inner input for every outer tuple
+        if (lj.p == Predicate.Op.EQUALS)
+            j = new HashEquiJoin(p,plan1,plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -106,12 +155,20 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // a hash join (see instantiateJoin) hashes the left side a chunk
+            // at a time and reads the right side once per chunk; after the
+            // first, its pages may still be in the buffer pool
+            int passes = 1 + Math.max(0, card1 - 1) / HashEquiJoin.MAP_SIZE;
+            return cost1 + card1 + cost2 + (passes - 1) * TableStats.estimateRescanCost(cost2)
+                    + passes * (double) card2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // a nested loops join reads the right side once per left tuple and
+            // applies the predicate to every pair
+            if (card1 == 0)
+                return cost1;
+            return cost1 + cost2 + (card1 - 1) * TableStats.estimateRescanCost(cost2)
+                    + (double) card1 * card2;
         }
     }
 
@@ -147,17 +204,121 @@ public class JoinOptimizer {
         }
     }
 
+    /** Selectivity assumed for a join on anything but equality. */
+    private static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equality join on a primary key produces one tuple for each tuple
+     * of the other side. Otherwise each value of the join field on the side
+     * with fewer distinct values is assumed to match one on the other side,
+     * so the join produces card1 * card2 / max(V1, V2) tuples, where V1 and
+     * V2 are the numbers of distinct values of the join fields (from the
+     * {@link TableStats#numDistinct sketches} of the tables, capped by the
+     * cardinality of each side). If the join has been run before, the
+     * estimate is corrected by what was seen then, see {@link
+     * CardinalityFeedback}.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double card = rawJoinCardinality(joinOp, table1Alias, table2Alias,
+                field1PureName, field2PureName, card1, card2, t1pkey, t2pkey,
+                stats, tableAliasToId);
+        card *= feedbackRatio(joinOp, table1Alias, table2Alias, field1PureName,
+                field2PureName, stats, tableAliasToId);
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card < 1 ? 1 : (int) card;
+    }
+
+    /**
+     * @return the cardinality of a join estimated from the statistics alone,
+     * as {@link #estimateTableJoinCardinality} does before correcting it
+     */
+    static double rawJoinCardinality(Predicate.Op joinOp,
+            String table1Alias, String table2Alias, String field1PureName,
+            String field2PureName, int card1, int card2, boolean t1pkey,
+            boolean t2pkey, Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId) {
+        double card;
+        if (joinOp == Predicate.Op.EQUALS) {
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else {
+                long v1 = numDistinct(table1Alias, field1PureName, card1, stats, tableAliasToId);
+                long v2 = numDistinct(table2Alias, field2PureName, card2, stats, tableAliasToId);
+                card = Math.max(v1, v2) <= 0 ? Math.max(card1, card2)
+                        : (double) card1 * card2 / Math.max(v1, v2);
+            }
+        } else {
+            card = RANGE_JOIN_SELECTIVITY * card1 * card2;
+        }
+        return card < 1 ? 1 : card;
+    }
+
+    /**
+     * @return the ratio of the actual to the estimated cardinality of the
+     * join recorded by {@link CardinalityFeedback}, or 1 if there is none
+     */
+    private static double feedbackRatio(Predicate.Op joinOp, String table1Alias,
+            String table2Alias, String field1PureName, String field2PureName,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        TableStats s1 = tableStats(table1Alias, stats, tableAliasToId);
+        TableStats s2 = tableStats(table2Alias, stats, tableAliasToId);
+        if (s1 == null || s2 == null || field1PureName == null || field2PureName == null)
+            return 1.0;
+        int f1 = fieldIndex(s1.getTupleDesc(), field1PureName);
+        int f2 = fieldIndex(s2.getTupleDesc(), field2PureName);
+        if (f1 < 0 || f2 < 0)
+            return 1.0;
+        return CardinalityFeedback.joinRatio(s1, f1, joinOp, s2, f2);
+    }
+
+    /**
+     * @return the statistics of the table a join refers to by an alias, or
+     * null if there are none
+     */
+    private static TableStats tableStats(String tableAlias,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId == null ? null : tableAliasToId.get(tableAlias);
+        if (tableId == null)
+            return null;
+        try {
+            return stats.get(Database.getCatalog().getTableName(tableId));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /** @return the index of a field of a table, or -1 if it has none of that name */
+    private static int fieldIndex(TupleDesc td, String fieldPureName) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (fieldPureName.equals(td.getFieldName(i)))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of distinct values of a field of a table on one
+     * side of a join, at most the cardinality of that side, or -1 if there
+     * are no statistics for the field
+     */
+    private static long numDistinct(String tableAlias, String fieldPureName,
+            int card, Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId) {
+        TableStats s = tableStats(tableAlias, stats, tableAliasToId);
+        if (s == null)
+            return -1;
+        int field = fieldIndex(s.getTupleDesc(), fieldPureName);
+        return field < 0 ? -1 : Math.min(s.numDistinct(field), card);
     }
 
     /**
@@ -170,32 +331,45 @@ public class JoinOptimizer {
      *            The size of the subsets of interest
      * @return a set of all subsets of the specified size
      */
-    @SuppressWarnings("unchecked")
     public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
         Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+        if (size < 0 || size > v.size())
+            return els;
+
+        // walk the combinations of indexes i[0] < i[1] < ... < i[size-1] in
+        // lexicographic order, building each subset only once
+        int[] idx = new int[size];
+        for (int i = 0; i < size; i++)
+            idx[i] = i;
+        while (true) {
+            Set<T> s = new HashSet<T>();
+            for (int i : idx)
+                s.add(v.get(i));
+            els.add(s);
+
+            int i = size - 1;
+            while (i >= 0 && idx[i] == v.size() - size + i)
+                i--;
+            if (i < 0)
+                break;
+            idx[i]++;
+            for (int k = i + 1; k < size; k++)
+                idx[k] = idx[k - 1] + 1;
         }
-
         return els;
-
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The tables are numbered and sets of them are bitmasks. For every set of
+     * tables connected by joins, smallest sets first, the cheapest left-deep
+     * plan is found by trying each table of the set as the one joined last
+     * to the best plan of the others; sets that could only be joined by a
+     * cross product are never built. Past {@link #setSearchThreshold} tables,
+     * a greedy order is improved by simulated annealing instead. Joins with a
+     * subquery are done last, in the order given.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -217,175 +391,429 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
+        Vector<LogicalJoinNode> subplanJoins = new Vector<LogicalJoinNode>();
+        JoinGraph g = joinGraph(stats, filterSelectivities, subplanJoins);
+
+        PlanCache pc = new PlanCache(g.n * g.n);
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        long done = 0;
+        for (int r = 0; r < g.n; r++) {
+            if ((done & (1L << r)) != 0)
+                continue;
+            long c = g.component(r);
+            done |= c;
+            if (Long.bitCount(c) <= searchThreshold)
+                enumeratePlans(g, c, stats, pc);
+            else
+                searchPlan(g, c, stats, pc);
+            appendPlan(g, c, pc, order);
+        }
+        order.addAll(subplanJoins);
+
+        if (explain)
+            printJoins(order, pc, g.relations, stats, filterSelectivities);
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * The tables of a query and the joins between them, with what is known
+     * about each before any of them are joined. Tables are numbered in the
+     * order in which the joins first mention them, and a set of tables is a
+     * bitmask of their numbers.
+     */
+    private static class JoinGraph {
+        /** The number of tables. */
+        int n;
+        /** The number of each table alias. */
+        HashMap<String, Integer> relations = new HashMap<String, Integer>();
+        /** The joins between two tables, and each with its sides swapped. */
+        Vector<LogicalJoinNode> edges = new Vector<LogicalJoinNode>();
+        LogicalJoinNode[] swapped;
+        /** The tables on the two sides of each join. */
+        int[] t1, t2;
+        /** Whether each side of each join is on a primary key. */
+        boolean[] pkey1, pkey2;
+        /** The fraction of the cross product of its tables each join keeps. */
+        double[] selectivity;
+        /** The cost of a scan of each table and the number of tuples it returns. */
+        double[] scanCost;
+        int[] scanCard;
+        /** The tables each table is joined with, and the joins it is in. */
+        long[] adjacent;
+        int[][] incident;
+
+        /** @return the tables joined with a table of s, but not in s */
+        long neighbours(long s) {
+            long reachable = 0;
+            for (long m = s; m != 0; m &= m - 1)
+                reachable |= adjacent[Long.numberOfTrailingZeros(m)];
+            return reachable & ~s;
+        }
+
+        /** @return the tables joined, directly or not, with table r */
+        long component(int r) {
+            long c = 1L << r;
+            for (long grown = neighbours(c); grown != 0; grown = neighbours(c))
+                c |= grown;
+            return c;
+        }
+
+        /**
+         * @return true if every table of order but the first is joined with
+         *         one before it
+         */
+        boolean isConnectedOrder(int[] order) {
+            long s = 1L << order[0];
+            for (int i = 1; i < order.length; i++) {
+                if ((adjacent[order[i]] & s) == 0)
+                    return false;
+                s |= 1L << order[i];
+            }
+            return true;
+        }
+
+        /** @return true if join e of table r is with a table of s */
+        boolean connects(int e, long s, int r) {
+            return (s & (1L << (t1[e] == r ? t2[e] : t1[e]))) != 0;
+        }
+    }
+
+    /**
+     * Number the tables of the joins of this query and collect what is known
+     * about them and the joins between them.
      * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
+     * @param subplanJoins
+     *            receives the joins with a subquery, which are not part of
+     *            the graph
      * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *             when stats or filterSelectivities is missing a table in the
+     *             join, or there are more tables than fit in a long
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
+    private JoinGraph joinGraph(HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+            Vector<LogicalJoinNode> subplanJoins) throws ParsingException {
+        JoinGraph g = new JoinGraph();
+        Vector<String> aliases = new Vector<String>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode) {
+                subplanJoins.add(j);
+                continue;
+            }
+            g.edges.add(j);
+            for (String alias : new String[] { j.t1Alias, j.t2Alias }) {
+                if (!g.relations.containsKey(alias)) {
+                    if (aliases.size() == Long.SIZE)
+                        throw new ParsingException("Too many tables in join; at most " + Long.SIZE + " are supported");
+                    g.relations.put(alias, aliases.size());
+                    aliases.add(alias);
+                }
+            }
+        }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        g.n = aliases.size();
+        g.scanCost = new double[g.n];
+        g.scanCard = new int[g.n];
+        g.adjacent = new long[g.n];
+        for (int r = 0; r < g.n; r++) {
+            TableStats s = statsFor(aliases.get(r), stats);
+            Double sel = filterSelectivities.get(aliases.get(r));
+            if (sel == null)
+                throw new ParsingException("No filter selectivity for table " + aliases.get(r));
+            g.scanCost[r] = s.estimateScanCost(Database.getBufferPool().cachedPages(p.getTableId(aliases.get(r))));
+            g.scanCard[r] = s.estimateTableCardinality(sel);
+        }
+
+        int m = g.edges.size();
+        g.t1 = new int[m];
+        g.t2 = new int[m];
+        g.pkey1 = new boolean[m];
+        g.pkey2 = new boolean[m];
+        g.selectivity = new double[m];
+        g.swapped = new LogicalJoinNode[m];
+        int[] degree = new int[g.n];
+        for (int e = 0; e < m; e++) {
+            LogicalJoinNode j = g.edges.get(e);
+            g.swapped[e] = j.swapInnerOuter();
+            g.t1[e] = g.relations.get(j.t1Alias);
+            g.t2[e] = g.relations.get(j.t2Alias);
+            g.adjacent[g.t1[e]] |= 1L << g.t2[e];
+            g.adjacent[g.t2[e]] |= 1L << g.t1[e];
+            degree[g.t1[e]]++;
+            degree[g.t2[e]]++;
+            g.pkey1[e] = isPkey(j.t1Alias, j.f1PureName);
+            g.pkey2[e] = isPkey(j.t2Alias, j.f2PureName);
+            int card1 = g.scanCard[g.t1[e]], card2 = g.scanCard[g.t2[e]];
+            int card = estimateJoinCardinality(j, card1, card2, g.pkey1[e], g.pkey2[e], stats);
+            g.selectivity[e] = card1 == 0 || card2 == 0 ? 1.0
+                    : Math.min(1.0, card / ((double) card1 * card2));
+        }
+        g.incident = new int[g.n][];
+        for (int r = 0; r < g.n; r++)
+            g.incident[r] = new int[degree[r]];
+        for (int e = m - 1; e >= 0; e--) {
+            g.incident[g.t1[e]][--degree[g.t1[e]]] = e;
+            g.incident[g.t2[e]][--degree[g.t2[e]]] = e;
+        }
+        return g;
+    }
+
+    /**
+     * @return the statistics of the table with the specified alias
+     * @throws ParsingException
+     *             if the alias or its statistics are unknown
+     */
+    private TableStats statsFor(String alias, Map<String, TableStats> stats)
+            throws ParsingException {
+        Integer tableId = p.getTableId(alias);
+        if (tableId == null)
+            throw new ParsingException("Unknown table " + alias);
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            throw new ParsingException("No statistics for table " + alias);
+        return s;
+    }
+
+    /**
+     * Find the best plan for the set of tables c by trying every order in
+     * which they can be joined without a cross product, and store it in pc
+     * with the best plans for the subsets it is built from.
+     */
+    private void enumeratePlans(JoinGraph g, long c,
+            Map<String, TableStats> stats, PlanCache pc) {
+        long[] level = new long[Long.bitCount(c)];
+        int levelSize = 0;
+        for (long m = c; m != 0; m &= m - 1) {
+            int r = Long.numberOfTrailingZeros(m);
+            pc.addPlan(1L << r, g.scanCost[r], g.scanCard[r], r, -1);
+            level[levelSize++] = 1L << r;
+        }
+
+        while (levelSize > 0) {
+            long[] next = new long[16];
+            int nextSize = 0;
+            for (int i = 0; i < levelSize; i++) {
+                long s = level[i];
+                for (long m = g.neighbours(s); m != 0; m &= m - 1) {
+                    int r = Long.numberOfTrailingZeros(m);
+                    long bigger = s | (1L << r);
+                    boolean isNew = !pc.contains(bigger);
+                    addBestPlan(g, s, r, stats, pc);
+                    if (isNew && pc.contains(bigger)) {
+                        if (nextSize == next.length)
+                            next = Arrays.copyOf(next, next.length * 2);
+                        next[nextSize++] = bigger;
+                    }
+                }
             }
+            level = next;
+            levelSize = nextSize;
+        }
+    }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+    /**
+     * Find a good plan for the set of tables c, too many to try every order
+     * of, and store it in pc with the plans for its prefixes.
+     * <p>
+     * The search starts from a greedy order: the two tables whose join is
+     * smallest, then at each step the table that keeps the intermediate
+     * result smallest. Simulated annealing then moves single tables to other
+     * positions, keeping every move that lowers the cost and some that raise
+     * it, fewer as the search cools, until it has tried {@link
+     * #MAX_SEARCH_STEPS} orders or run out of time.
+     */
+    private void searchPlan(JoinGraph g, long c,
+            Map<String, TableStats> stats, PlanCache pc) {
+        long deadline = System.nanoTime() + searchMillis * 1000000L;
+        PlanCache scratch = new PlanCache(2 * g.n);
+        int[] current = greedyOrder(g, c, stats, scratch);
+        scratch.clear();
+        double currentCost = planOrder(g, current, stats, scratch);
+        int[] best = current.clone();
+        double bestCost = currentCost;
+
+        // a fixed seed, so that a query gets the same plan every time
+        Random rand = new Random(c);
+        int[] candidate = new int[current.length];
+        double temperature = INITIAL_TEMPERATURE;
+        for (int step = 0; step < MAX_SEARCH_STEPS && searchMillis > 0
+                && System.nanoTime() < deadline; step++, temperature *= COOLING) {
+            int from = rand.nextInt(current.length);
+            int to = rand.nextInt(current.length - 1);
+            if (to >= from)
+                to++;
+            moveTable(current, from, to, candidate);
+            if (!g.isConnectedOrder(candidate))
+                continue;
+
+            scratch.clear();
+            double cost = planOrder(g, candidate, stats, scratch);
+            if (cost < currentCost || rand.nextDouble() < Math.exp(
+                    (currentCost - cost) / (currentCost * temperature))) {
+                int[] tmp = current;
+                current = candidate;
+                candidate = tmp;
+                currentCost = cost;
+                if (cost < bestCost) {
+                    best = current.clone();
+                    bestCost = cost;
+                }
+            }
+        }
+        planOrder(g, best, stats, pc);
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+    /**
+     * @return the tables of c in the order the greedy search of {@link
+     *         #searchPlan} joins them; scratch is used to estimate the joins
+     */
+    private int[] greedyOrder(JoinGraph g, long c,
+            Map<String, TableStats> stats, PlanCache scratch) {
+        int[] order = new int[Long.bitCount(c)];
+        scratch.clear();
+
+        int bestEdge = -1;
+        double bestCard = Double.MAX_VALUE;
+        for (int e = 0; e < g.t1.length; e++) {
+            double card = g.selectivity[e] * g.scanCard[g.t1[e]] * g.scanCard[g.t2[e]];
+            if ((c & (1L << g.t1[e])) != 0 && card < bestCard) {
+                bestEdge = e;
+                bestCard = card;
             }
         }
+        // the smaller table of the first join is the one scanned first
+        boolean smallFirst = g.scanCard[g.t1[bestEdge]] <= g.scanCard[g.t2[bestEdge]];
+        order[0] = smallFirst ? g.t1[bestEdge] : g.t2[bestEdge];
+        long s = 1L << order[0];
+        scratch.addPlan(s, g.scanCost[order[0]], g.scanCard[order[0]], order[0], -1);
+
+        for (int i = 1; i < order.length; i++) {
+            int next = -1;
+            for (long m = g.neighbours(s); m != 0; m &= m - 1) {
+                int r = Long.numberOfTrailingZeros(m);
+                long bigger = s | (1L << r);
+                addBestPlan(g, s, r, stats, scratch);
+                if (next < 0 || scratch.getCard(bigger) < scratch.getCard(s | (1L << next))
+                        || (scratch.getCard(bigger) == scratch.getCard(s | (1L << next))
+                                && scratch.getCost(bigger) < scratch.getCost(s | (1L << next))))
+                    next = r;
+            }
+            order[i] = next;
+            s |= 1L << next;
+        }
+        return order;
+    }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+    /**
+     * Store in pc the plans for the prefixes of a connected order of tables,
+     * each joining the last table of the prefix to the plan for the rest; pc
+     * must not have plans for any of them yet.
+     *
+     * @return the cost of the plan for the whole order
+     */
+    private double planOrder(JoinGraph g, int[] order,
+            Map<String, TableStats> stats, PlanCache pc) {
+        long s = 1L << order[0];
+        pc.addPlan(s, g.scanCost[order[0]], g.scanCard[order[0]], order[0], -1);
+        for (int i = 1; i < order.length; i++) {
+            addBestPlan(g, s, order[i], stats, pc);
+            s |= 1L << order[i];
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
+        return pc.getCost(s);
+    }
 
-        CostCard cc = new CostCard();
+    /**
+     * Copy order to moved, with the table at position from moved to
+     * position to.
+     */
+    private static void moveTable(int[] order, int from, int to, int[] moved) {
+        System.arraycopy(order, 0, moved, 0, order.length);
+        int r = order[from];
+        if (from < to)
+            System.arraycopy(order, from + 1, moved, from, to - from);
+        else
+            System.arraycopy(order, to, moved, to + 1, from - to);
+        moved[to] = r;
+    }
+
+    /**
+     * Consider joining table r last to the best plan for the set s, which
+     * must be in pc and have a join with r, and store the plan for s and r
+     * in pc if it is the best one found so far. Each join between r and s
+     * may be the one that joins r, with either side as the outer input; the
+     * others are applied to its output.
+     */
+    private void addBestPlan(JoinGraph g, long s, int r,
+            Map<String, TableStats> stats, PlanCache pc) {
+        long bigger = s | (1L << r);
+        double bestCost = pc.contains(bigger) ? pc.getCost(bigger) : Double.MAX_VALUE;
+        int bestJoin = 0;
+        int bestCard = 0;
+        boolean found = false;
+        double leftCost = pc.getCost(s);
+        int leftCard = pc.getCard(s);
+        boolean single = Long.bitCount(s) == 1;
+
+        for (int e : g.incident[r]) {
+            if (!g.connects(e, s, r))
+                continue;
+            // j joins s (as t1) to r (as t2)
+            boolean forward = g.t2[e] == r;
+            LogicalJoinNode j = forward ? g.edges.get(e) : g.swapped[e];
+
+            double cost = estimateJoinCost(j, leftCard, g.scanCard[r], leftCost, g.scanCost[r]);
+            double swappedCost = estimateJoinCost(j, g.scanCard[r], leftCard, g.scanCost[r], leftCost);
+            boolean swap = swappedCost < cost;
+            if (swap)
+                cost = swappedCost;
+            if (cost >= bestCost)
+                continue;
+
+            double card = estimateJoinCardinality(j, leftCard, g.scanCard[r],
+                    single && (forward ? g.pkey1[e] : g.pkey2[e]),
+                    forward ? g.pkey2[e] : g.pkey1[e], stats);
+            for (int f : g.incident[r]) {
+                if (f != e && g.connects(f, s, r))
+                    card *= g.selectivity[f];
+            }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
+            bestCost = cost;
+            bestCard = (int) Math.max(1, Math.min(card, Integer.MAX_VALUE));
+            // the join as seen from s; the swapped orientation as its complement
+            bestJoin = e << 1 | (forward ? 0 : 1);
+            if (swap)
+                bestJoin = ~bestJoin;
+            found = true;
+        }
+        if (found)
+            pc.addPlan(bigger, bestCost, bestCard, r, bestJoin);
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Append the joins of the best plan in pc for the set s to order, in the
+     * order in which they should be executed.
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private void appendPlan(JoinGraph g, long s, PlanCache pc,
+            Vector<LogicalJoinNode> order) {
+        if (Long.bitCount(s) == 1)
+            return;
+        int r = pc.getLast(s);
+        long rest = s & ~(1L << r);
+        appendPlan(g, rest, pc, order);
+
+        int join = pc.getJoin(s);
+        boolean swap = join < 0;
+        if (swap)
+            join = ~join;
+        int e = join >>> 1;
+        // a join swapped twice is the join as given
+        order.add(((join & 1) == 0) != swap ? g.edges.get(e) : g.swapped[e]);
+        for (int f : g.incident[r]) {
+            if (f != e && g.connects(f, rest, r))
+                order.add(g.edges.get(f));
         }
-        return false;
     }
 
     /**
@@ -404,20 +832,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -427,6 +841,8 @@ public class JoinOptimizer {
      *            the join plan to visualize
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
+     * @param relations
+     *            the number of each table alias in the sets of tables in pc
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -435,44 +851,32 @@ public class JoinOptimizer {
      *            alias is given)
      */
     private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
-            HashMap<String, TableStats> stats,
+            Map<String, Integer> relations, HashMap<String, TableStats> stats,
             HashMap<String, Double> selectivities) {
 
-        JFrame f = new JFrame("Join Plan for " + p.getQuery());
-
-        // Set the default close operation for the window,
-        // or else the program won't exit when clicking close button
-        f.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-
-        f.setVisible(true);
-
-        f.setSize(300, 500);
-
         HashMap<String, DefaultMutableTreeNode> m = new HashMap<String, DefaultMutableTreeNode>();
+        long pathSoFar = 0;
 
-        // int numTabs = 0;
-
-        // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
         boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            if (j.t2Alias != null)
+                pathSoFar |= 1L << relations.get(j.t1Alias) | 1L << relations.get(j.t2Alias);
+            System.out.println("PATH SO FAR = " + Long.toBinaryString(pathSoFar));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
+            String table2Name = j.t2Alias == null ? null : Database
+                    .getCatalog().getTableName(this.p.getTableId(j.t2Alias));
 
-            // Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+            root = new DefaultMutableTreeNode("Join " + j
+                    + (pc.contains(pathSoFar) ? " (Cost ="
+                            + pc.getCost(pathSoFar) + ", card = "
+                            + pc.getCard(pathSoFar) + ")" : ""));
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
@@ -522,6 +926,20 @@ public class JoinOptimizer {
             treetop = root;
         }
 
+        // there is no window to show the tree in
+        if (GraphicsEnvironment.isHeadless())
+            return;
+
+        JFrame f = new JFrame("Join Plan for " + p.getQuery());
+
+        // Set the default close operation for the window,
+        // or else the program won't exit when clicking close button
+        f.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+
+        f.setVisible(true);
+
+        f.setSize(300, 500);
+
         JTree tree = new JTree(treetop);
         JScrollPane treeView = new JScrollPane(tree);
 
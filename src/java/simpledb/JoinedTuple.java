@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * JoinedTuple is the concatenation of a tuple of the left input and a tuple
+ * of the right input of a join. It refers to the two tuples instead of
+ * copying their fields, so a join only pays for the fields that are actually
+ * read; the fields are copied into the tuple only if one of them is changed.
+ */
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple left;
+    private final Tuple right;
+    private final int leftFields;
+    // the fields of this tuple once one of them has been set
+    private Field[] copy;
+
+    /**
+     * Constructor.
+     *
+     * @param td    the schema of the joined tuple, the merge of the schemas
+     *              of left and right; computed once by the join
+     * @param left  the tuple supplying the first fields
+     * @param right the tuple supplying the remaining fields
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.leftFields = left.getTupleDesc().numFields();
+        setRecordId(left.getRecordId());
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (copy != null)
+            return copy[i];
+        return i < leftFields ? left.getField(i) : right.getField(i - leftFields);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        if (copy == null) {
+            Field[] all = new Field[getTupleDesc().numFields()];
+            for (int j = 0; j < all.length; j++)
+                all[j] = getField(j);
+            copy = all;
+        }
+        copy[i] = f;
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        Field[] all = new Field[getTupleDesc().numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = getField(i);
+        return Arrays.asList(all).iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getField(0).toString());
+        for (int i = 1; i < getTupleDesc().numFields(); ++i)
+            sb.append("\t").append(getField(i));
+        return sb.toString();
+    }
+}
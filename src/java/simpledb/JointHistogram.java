@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * A histogram of the joint distribution of two columns of a table, kept by
+ * {@link TableStats} for the pairs of columns declared correlated with {@link
+ * Catalog#addColumnGroup}.
+ * <p>
+ * The values of the two columns, mapped to integers as by {@link
+ * StatsCollector} (see {@link StringHistogram#stringToInt} for strings), are
+ * counted in the cells of a grid, of which only those holding values are
+ * kept. A cell spans 2^shift integers along each column, starting with a
+ * single one, so that columns with few distinct pairs of values, such as a
+ * city and its zip code, are counted exactly. Whenever more than {@link
+ * #MAX_CELLS} cells hold values, the cells are doubled in width along the
+ * column whose values they are spread over the most, merging them in pairs.
+ * <p>
+ * The grid only tells which cells the tuples satisfying a conjunction fall
+ * in; how the values spread within a cell is left to the histograms of the
+ * single columns, which know their most common values. The selectivity of a
+ * conjunction is thus the sum over the cells of the share of the tuples in
+ * the cell times, for each column, the fraction of the values of the column
+ * within the range of the cell that satisfy the predicates on it.
+ */
+public class JointHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of cells holding values. */
+    static final int MAX_CELLS = 4096;
+
+    /**
+     * The distribution of the values of one column within a range, for
+     * {@link #estimateSelectivity}.
+     */
+    interface Marginal {
+        /**
+         * @return the estimated fraction of the values of the column from lo
+         * to hi, inclusive, that satisfy the predicates on it
+         */
+        double fraction(long lo, long hi);
+    }
+
+    private final int field1;
+    private final int field2;
+    // the count of each cell holding values, by the cell's index along the
+    // first column in the high half of the key and along the second in the
+    // low half; cell i along column d covers the integers i << shift[d] to
+    // ((i + 1) << shift[d]) - 1
+    private final HashMap<Long, Integer> cells = new HashMap<>();
+    private final int[] shift = new int[2];
+    private long total;
+
+    /**
+     * Create an empty histogram.
+     *
+     * @param field1 the index of one column in its table
+     * @param field2 the index of the other column
+     */
+    JointHistogram(int field1, int field2) {
+        this.field1 = field1;
+        this.field2 = field2;
+    }
+
+    /** @return the index of the first column in its table */
+    public int getField1() {
+        return field1;
+    }
+
+    /** @return the index of the second column in its table */
+    public int getField2() {
+        return field2;
+    }
+
+    /** @return the number of pairs of values counted */
+    public long numValues() {
+        return total;
+    }
+
+    /**
+     * @return the integer a value is counted under: an integer itself, a
+     * string as mapped by {@link StringHistogram#stringToInt}
+     */
+    static int codeOf(Field f) {
+        if (f.getType() == Type.INT_TYPE)
+            return ((IntField) f).getValue();
+        return StringHistogram.stringToInt(((StringField) f).getValue());
+    }
+
+    /** Count the values of the two columns in a tuple of the table. */
+    void addTuple(Tuple t) {
+        addValue(codeOf(t.getField(field1)), codeOf(t.getField(field2)));
+    }
+
+    /** Forget the values of the two columns in a tuple counted before. */
+    void removeTuple(Tuple t) {
+        removeValue(codeOf(t.getField(field1)), codeOf(t.getField(field2)));
+    }
+
+    /**
+     * Count the values of the two columns in a tuple.
+     *
+     * @param code1 the integer the value of the first column maps to
+     * @param code2 the integer the value of the second column maps to
+     */
+    void addValue(int code1, int code2) {
+        cells.merge(key(code1 >> shift[0], code2 >> shift[1]), 1, Integer::sum);
+        total++;
+        if (cells.size() > MAX_CELLS)
+            shrink();
+    }
+
+    /** Forget the values of the two columns in a tuple counted before. */
+    void removeValue(int code1, int code2) {
+        long k = key(code1 >> shift[0], code2 >> shift[1]);
+        Integer c = cells.get(k);
+        if (c == null)
+            return;
+        if (c == 1)
+            cells.remove(k);
+        else
+            cells.put(k, c - 1);
+        total--;
+    }
+
+    /**
+     * Add the values counted by another histogram of the same columns, e.g.
+     * one built by another thread over a different part of the table.
+     */
+    void combine(JointHistogram other) {
+        for (int d = 0; d < 2; d++) {
+            while (shift[d] < other.shift[d])
+                widen(d);
+        }
+        int by1 = shift[0] - other.shift[0];
+        int by2 = shift[1] - other.shift[1];
+        for (Map.Entry<Long, Integer> e : other.cells.entrySet())
+            cells.merge(key(first(e.getKey()) >> by1, second(e.getKey()) >> by2), e.getValue(), Integer::sum);
+        total += other.total;
+        if (cells.size() > MAX_CELLS)
+            shrink();
+    }
+
+    /**
+     * Multiply the count of every cell, e.g. to scale a histogram built
+     * from a sample up to the size of the table.
+     *
+     * @param weight the number of tuples each tuple counted stands for
+     */
+    void scale(double weight) {
+        total = 0;
+        for (Map.Entry<Long, Integer> e : cells.entrySet()) {
+            e.setValue((int) Math.max(1, Math.round(e.getValue() * weight)));
+            total += e.getValue();
+        }
+    }
+
+    /**
+     * Estimate the selectivity of a conjunction of predicates on the two
+     * columns.
+     *
+     * @param m1 the distribution of the first column within a range, and
+     *           the fraction of it satisfying the predicates on the column
+     * @param m2 the same for the second column
+     * @return the estimated fraction of the tuples satisfying the predicates
+     *         on both columns
+     */
+    double estimateSelectivity(Marginal m1, Marginal m2) {
+        if (total == 0)
+            return 0.0;
+        // the fraction of each row and column of cells is computed once
+        HashMap<Integer, Double> f1 = new HashMap<>();
+        HashMap<Integer, Double> f2 = new HashMap<>();
+        double n = 0;
+        for (Map.Entry<Long, Integer> e : cells.entrySet()) {
+            double a = fraction(f1, first(e.getKey()), shift[0], m1);
+            if (a == 0)
+                continue;
+            n += e.getValue() * a * fraction(f2, second(e.getKey()), shift[1], m2);
+        }
+        return Math.min(1.0, n / total);
+    }
+
+    private static double fraction(Map<Integer, Double> known, int cell, int shift, Marginal m) {
+        Double f = known.get(cell);
+        if (f == null) {
+            long lo = (long) cell << shift;
+            f = m.fraction(lo, lo + (1L << shift) - 1);
+            known.put(cell, f);
+        }
+        return f;
+    }
+
+    private static long key(int cell1, int cell2) {
+        return ((long) cell1 << 32) | (cell2 & 0xFFFFFFFFL);
+    }
+
+    private static int first(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int second(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Widen the cells until at most {@link #MAX_CELLS} hold values, each
+     * time along the column more of them are spread over.
+     */
+    private void shrink() {
+        while (cells.size() > MAX_CELLS) {
+            HashSet<Integer> along1 = new HashSet<>();
+            HashSet<Integer> along2 = new HashSet<>();
+            for (long k : cells.keySet()) {
+                along1.add(first(k));
+                along2.add(second(k));
+            }
+            widen(along1.size() >= along2.size() ? 0 : 1);
+        }
+    }
+
+    /** Double the width of the cells along column d, merging them in pairs. */
+    private void widen(int d) {
+        HashMap<Long, Integer> old = new HashMap<>(cells);
+        cells.clear();
+        for (Map.Entry<Long, Integer> e : old.entrySet()) {
+            int c1 = first(e.getKey()), c2 = second(e.getKey());
+            long k = d == 0 ? key(c1 >> 1, c2) : key(c1, c2 >> 1);
+            cells.merge(k, e.getValue(), Integer::sum);
+        }
+        shift[d]++;
+    }
+}
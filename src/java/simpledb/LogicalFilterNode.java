@@ -15,6 +15,10 @@ public class LogicalFilterNode {
     
     /* The constant on the right side of the filter */
     public String c;
+
+    /** The number of the parameter of a prepared query that c is bound to,
+     *  counting from 0, or -1 if c is given in the query */
+    public int param = -1;
     
     /** The field from t which is in the filter. The pure name, without alias or tablename*/
     public String fieldPureName;
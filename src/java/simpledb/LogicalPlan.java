@@ -5,16 +5,18 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Collections;
 
 /**
  * LogicalPlan represents a logical query plan that has been through
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * All aggregate expressions of a query are computed together by a
+ * single {@link Aggregate} operator.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -28,14 +30,20 @@ public class LogicalPlan {
     private HashMap<String, OpIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
 
+    /** Estimated number of input tuples above which a scan, a hash join or an aggregation
+     *  is run in parallel by the threads of the {@link WorkerPool}. */
+    public static final int PARALLEL_THRESHOLD = 50000;
+
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
+    private Vector<LogicalSelectListNode> aggregates;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    private int numParams = 0;
+    // set once the joins are in the order they are to be executed in
+    private boolean joinsOrdered = false;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -47,6 +55,8 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggregates = new Vector<LogicalSelectListNode>();
         this.query = "";
     }
 
@@ -105,6 +115,149 @@ public class LogicalPlan {
         filters.addElement(lf);
     }
 
+    /** Add a filter comparing a field with a parameter of a prepared query, see
+     *   {@link Parser#prepare}.  Parameters are numbered in the order their filters are added.
+     *   @param field The name of the over which the filter applies, as for {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @throws ParsingException if field is not in one of the tables
+     *   added via {@link #addScan} or if field is ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        LogicalFilterNode lf = new LogicalFilterNode(table, field.split("[.]")[1], p, null);
+        lf.param = numParams++;
+        filters.addElement(lf);
+    }
+
+    /** @return true if a field is joined with a subquery, see {@link #addJoin(String, OpIterator, Predicate.Op)} */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
+    /** @return the number of parameters added via {@link #addParameterFilter} */
+    public int getParameterCount() {
+        return numParams;
+    }
+
+    /** @return the types of the fields the parameters of this plan are compared with, by
+     *   parameter number
+     *  @throws ParsingException if a field is unknown
+     */
+    Type[] getParameterTypes() throws ParsingException {
+        Type[] types = new Type[numParams];
+        for (LogicalFilterNode lf : filters) {
+            if (lf.param >= 0)
+                types[lf.param] = fieldType(lf);
+        }
+        return types;
+    }
+
+    /** @return the type of the field a filter applies to */
+    private Type fieldType(LogicalFilterNode lf) throws ParsingException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableMap.get(lf.tableAlias));
+        try {
+            return td.getFieldType(td.fieldNameToIndex(lf.fieldPureName));
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+    }
+
+    /** @return the constant a filter compares its field with, as a field of type ftyp
+     *  @throws ParsingException if the filter is on a parameter with no value bound to it, or the
+     *   constant is not of type ftyp
+     */
+    private static Field filterConstant(LogicalFilterNode lf, Type ftyp) throws ParsingException {
+        if (lf.c == null)
+            throw new ParsingException("No value bound to parameter " + (lf.param + 1));
+        if (ftyp == Type.STRING_TYPE)
+            return new StringField(lf.c, Type.STRING_LEN);
+        try {
+            return new IntField(Integer.parseInt(lf.c));
+        } catch (NumberFormatException e) {
+            throw new ParsingException("Value " + lf.c + " of " + lf.fieldQuantifiedName + " is not an integer");
+        }
+    }
+
+    /** Order the joins of this plan now, so that {@link #physicalPlan} executes them in that order
+     *   rather than ordering them itself.  Filters on parameters, whose constants are not known
+     *   yet, are assumed to be as selective as they are on average over the values of their fields.
+     *  @param baseTableStats the statistics of the tables of the plan, as for {@link #physicalPlan}
+     *  @throws ParsingException if the logical plan is not valid
+     */
+    void orderJoins(Map<String,TableStats> baseTableStats) throws ParsingException {
+        HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
+        HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        for (LogicalScanNode table : tables) {
+            String baseTableName = Database.getCatalog().getTableName(table.t);
+            statsMap.put(baseTableName, baseTableStats.get(baseTableName));
+            filterSelectivities.put(table.alias, 1.0);
+        }
+        // the filters with constants on a table are estimated together, as
+        // physicalPlan estimates them
+        HashMap<String,List<Predicate>> constantPreds = new HashMap<String,List<Predicate>>();
+        for (LogicalFilterNode lf : filters) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableMap.get(lf.tableAlias)));
+            if (s == null)
+                continue;
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableMap.get(lf.tableAlias));
+            int field = td.fieldNameToIndex(lf.fieldPureName);
+            if (lf.c == null)
+                filterSelectivities.put(lf.tableAlias,
+                        filterSelectivities.get(lf.tableAlias) * s.avgSelectivity(field, lf.p));
+            else
+                constantPreds.computeIfAbsent(lf.tableAlias, a -> new ArrayList<Predicate>())
+                        .add(new Predicate(field, lf.p, filterConstant(lf, td.getFieldType(field))));
+        }
+        for (Map.Entry<String,List<Predicate>> e : constantPreds.entrySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableMap.get(e.getKey())));
+            filterSelectivities.put(e.getKey(), filterSelectivities.get(e.getKey())
+                    * s.estimateSelectivity(e.getValue().toArray(new Predicate[0])));
+        }
+        if (!joins.isEmpty())
+            joins = new JoinOptimizer(this, joins).orderJoins(statsMap, filterSelectivities, false);
+        joinsOrdered = true;
+    }
+
+    /** Copy this plan, with values bound to its parameters.  The copy shares everything but
+     *   its filters and joins with this plan, which is left as it is, so that it can be bound
+     *   again; neither may be changed by the caller.
+     *  @param values the constants to compare the fields of the filters on parameters with, by
+     *   parameter number
+     *  @return the bound plan, ready for {@link #physicalPlan}
+     */
+    LogicalPlan bind(String[] values) {
+        LogicalPlan lp = new LogicalPlan();
+        lp.joins = new Vector<LogicalJoinNode>(joins);
+        lp.tables = tables;
+        lp.tableMap = tableMap;
+        for (LogicalFilterNode lf : filters) {
+            if (lf.param < 0) {
+                lp.filters.add(lf);
+            } else {
+                LogicalFilterNode bound = new LogicalFilterNode(lf.tableAlias, lf.fieldPureName, lf.p, values[lf.param]);
+                bound.param = lf.param;
+                lp.filters.add(bound);
+            }
+        }
+        lp.selectList = selectList;
+        lp.groupByFields = groupByFields;
+        lp.aggregates = aggregates;
+        lp.hasAgg = hasAgg;
+        lp.oByAsc = oByAsc;
+        lp.hasOrderBy = hasOrderBy;
+        lp.oByField = oByField;
+        lp.query = query;
+        lp.numParams = numParams;
+        lp.joinsOrdered = joinsOrdered;
+        return lp;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -186,23 +339,36 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  May be called once for every aggregate expression in
+        the query; all of them are computed in a single pass.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield a field to group by, or null; see {@link #addGroupByField}
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupByField(gfield);
+        for (LogicalSelectListNode agg : aggregates) {
+            if (agg.aggOp.equalsIgnoreCase(op) && agg.fname.equals(afield))
+                return;
+        }
+        aggregates.addElement(new LogicalSelectListNode(op, afield));
         hasAgg = true;
     }
 
+    /** Add a field to the GROUP BY list of the query.  Groups are formed over
+        the combination of all fields added, in the order they were added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -271,8 +437,135 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Choose an index scan for a table stored in a {@link BTreeFile} with a filter on its key, if
+     *   reading the matching leaves costs less than scanning the whole table.  The most selective
+     *   equality or range filter on the key becomes the {@link IndexPredicate} of a {@link BTreeScan},
+     *   and the other filters are applied by a {@link Filter} above it.
+     *  @param t the transaction the scan runs as a part of
+     *  @param table the table to scan
+     *  @param preds the filters on the table, or null if there are none
+     *  @param predSelectivities the estimated selectivity of each filter
+     *  @param s the statistics of the table, or null if there are none
+     *  @return the index scan, or null if the table should be scanned sequentially
+     */
+    private static OpIterator indexScan(TransactionId t, LogicalScanNode table, Predicate[] preds,
+            Map<Predicate,Double> predSelectivities, TableStats s) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof BTreeFile) || preds == null || s == null)
+            return null;
+        int key = ((BTreeFile) file).keyField();
+        Predicate best = null;
+        for (Predicate p : preds) {
+            if (p.getField() != key || p.getOp() == Predicate.Op.NOT_EQUALS || p.getOp() == Predicate.Op.LIKE)
+                continue;
+            if (best == null || predSelectivities.get(p) < predSelectivities.get(best))
+                best = p;
+        }
+        if (best == null)
+            return null;
+        int cached = Database.getBufferPool().cachedPages(file.getId());
+        if (s.estimateIndexScanCost(key, predSelectivities.get(best), cached) >= s.estimateScanCost(cached))
+            return null;
+
+        OpIterator scan = new BTreeScan(t, file.getId(), table.alias,
+                new IndexPredicate(best.getOp(), best.getOperand()));
+        if (preds.length == 1)
+            return scan;
+        Predicate[] rest = new Predicate[preds.length - 1];
+        int i = 0;
+        for (Predicate p : preds) {
+            if (p != best)
+                rest[i++] = p;
+        }
+        return new Filter(rest, scan);
+    }
+
+    /** Find the fields of a table that the query reads above the scan of the table: those in the
+     *   select list, the GROUP BY and ORDER BY clauses, the aggregates and the joins.  Fields that are
+     *   only used in filters are not included, since filters are evaluated by the scan.
+     *  @param alias the alias of the table in the query
+     *  @param td the TupleDesc of the table
+     *  @return the indices of the fields in td, in increasing order, or null if every field is read
+     */
+    private int[] requiredFields(String alias, TupleDesc td) {
+        Vector<String> names = new Vector<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            names.add(si.fname);
+        }
+        names.addAll(groupByFields);
+        for (LogicalSelectListNode agg : aggregates)
+            names.add(agg.fname);
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (lj.f2QuantifiedName != null)
+                names.add(lj.f2QuantifiedName);
+        }
+
+        boolean[] required = new boolean[td.numFields()];
+        int count = 0;
+        for (String name : names) {
+            if (name == null || !name.startsWith(alias + "."))
+                continue;
+            try {
+                int i = td.fieldNameToIndex(name.substring(alias.length() + 1));
+                if (!required[i]) {
+                    required[i] = true;
+                    count++;
+                }
+            } catch (NoSuchElementException e) {
+                // reported when the plan above the scan is built
+            }
+        }
+        if (count == td.numFields())
+            return null;
+        // the scan has to return something for each tuple, even if no field is read
+        if (count == 0)
+            return new int[]{0};
+        int[] fields = new int[count];
+        for (int i = 0, k = 0; i < required.length; i++) {
+            if (required[i])
+                fields[k++] = i;
+        }
+        return fields;
+    }
+
+    /** @return true if field is the primary key of the table scanned as alias */
+    private boolean isPrimaryKey(String alias, String field) {
+        Integer id = tableMap.get(alias);
+        return id != null && field != null && field.equals(Database.getCatalog().getPrimaryKey(id));
+    }
+
+    /** @return the pipelines that produce the tuples of it: the children of a {@link Gather}, so that
+     *   they can feed a parallel operator directly, the parts of a scan split into partitions,
+     *   or it itself
+     */
+    private static OpIterator[] parallelInputs(OpIterator it, int partitions) {
+        if (it instanceof Gather)
+            return ((Gather) it).getChildren();
+        if (it instanceof SeqScan)
+            return ((SeqScan) it).split(partitions);
+        return new OpIterator[]{it};
+    }
+
+    /** Run a hash join in parallel.  Each input of the join is read by as many threads as it has
+     *   parallel pipelines, which build and probe a radix-partitioned hash table.
+     *  @param j the join to run in parallel
+     *  @param partitions the number of parts large scans are split into
+     *  @return a {@link ParallelHashJoin} computing the same join as j
+     */
+    private static OpIterator parallelHashJoin(HashEquiJoin j, int partitions) {
+        OpIterator[] children = j.getChildren();
+        return new ParallelHashJoin(j.getJoinPredicate(), parallelInputs(children[0], partitions),
+                parallelInputs(children[1], partitions));
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
-     *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan,
+     *   unless they were ordered already by {@link #orderJoins}.
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -287,6 +580,8 @@ public class LogicalPlan {
     public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         HashMap<String,String> equivMap = new HashMap<String,String>();
+        HashMap<String,Integer> subplanCards = new HashMap<String,Integer>();
+        int parallelism = Database.getWorkerPool().getParallelism();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
@@ -307,6 +602,8 @@ public class LogicalPlan {
         }
 
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
+        HashMap<String,Vector<Predicate>> tablePreds = new HashMap<String,Vector<Predicate>>();
+        HashMap<Predicate,Double> predSelectivities = new HashMap<Predicate,Double>();
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
             OpIterator subplan = subplanMap.get(lf.tableAlias);
@@ -323,10 +620,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = filterConstant(lf, ftyp);
 
             Predicate p = null;
             try {
@@ -334,20 +628,48 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
+
+            if (!tablePreds.containsKey(lf.tableAlias))
+                tablePreds.put(lf.tableAlias, new Vector<Predicate>());
+            tablePreds.get(lf.tableAlias).add(p);
+            predSelectivities.put(p, sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // all conditions on a table are pushed into its scan, most selective
+        // first, and the scan only returns the fields the rest of the plan reads
+        for (LogicalScanNode table : tables) {
+            Predicate[] pushed = null;
+            Vector<Predicate> preds = tablePreds.get(table.alias);
+            if (preds != null) {
+                Collections.sort(preds, (a, b) -> Double.compare(predSelectivities.get(a), predSelectivities.get(b)));
+                pushed = preds.toArray(new Predicate[0]);
+            }
+            int tableId = Database.getCatalog().getDatabaseFile(table.t).getId();
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            // estimated for the conditions together, so that feedback on
+            // them from earlier runs is used
+            if (pushed != null)
+                filterSelectivities.put(table.alias, s.estimateSelectivity(pushed));
+            OpIterator scan = indexScan(t, table, pushed, predSelectivities, s);
+            if (scan == null) {
+                int[] fields = requiredFields(table.alias, Database.getCatalog().getTupleDesc(tableId));
+                scan = new SeqScan(t, tableId, table.alias, fields, pushed);
+            }
+            subplanMap.put(table.alias, scan);
+            subplanCards.put(table.alias, s == null ? 0 : s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
         
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            if (!joinsOrdered)
+                joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
             Iterator<LogicalJoinNode> joinIt = joins.iterator();
             while (joinIt.hasNext()) {
@@ -384,7 +706,14 @@ public class LogicalPlan {
                 
                 OpIterator j;
                 j = jo.instantiateJoin(lj,plan1,plan2);
+                int card1 = subplanCards.get(t1name);
+                int card2 = isSubqueryJoin ? 0 : subplanCards.get(t2name);
+                if (j instanceof HashEquiJoin && parallelism > 1 && Math.max(card1, card2) >= PARALLEL_THRESHOLD)
+                    j = parallelHashJoin((HashEquiJoin) j, parallelism);
                 subplanMap.put(t1name, j);
+                subplanCards.put(t1name, jo.estimateJoinCardinality(lj, card1, card2,
+                        isPrimaryKey(lj.t1Alias, lj.f1PureName),
+                        !isSubqueryJoin && isPrimaryKey(lj.t2Alias, lj.f2PureName), statsMap));
 
                 if (!isSubqueryJoin) {
                     subplanMap.remove(t2name);
@@ -407,7 +736,14 @@ public class LogicalPlan {
             throw new ParsingException("Query does not include join expressions joining all nodes!");
         }
         
-        OpIterator node =  (OpIterator)(subplanMap.entrySet().iterator().next().getValue());
+        Map.Entry<String,OpIterator> last = subplanMap.entrySet().iterator().next();
+        OpIterator node = last.getValue();
+        int nodeCard = subplanCards.get(last.getKey());
+
+        // a large scan is shared out between worker threads, so that reading
+        // and decoding pages overlaps with the work done above it
+        if (node instanceof SeqScan && parallelism > 1 && nodeCard >= PARALLEL_THRESHOLD)
+            node = new Gather(parallelInputs(node, parallelism));
 
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
@@ -415,7 +751,6 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -424,19 +759,32 @@ public class LogicalPlan {
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
+                int aggIndex = -1;
+                for (int k = 0; k < aggregates.size(); k++) {
+                    LogicalSelectListNode agg = aggregates.elementAt(k);
+                    if (agg.aggOp.equalsIgnoreCase(si.aggOp) && agg.fname.equals(si.fname)) {
+                        aggIndex = k;
+                        break;
+                    }
+                }
+                if (aggIndex < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                }
+                outFields.add(groupByFields.size() + aggIndex);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int groupIndex = groupByFields.indexOf(si.fname);
+                    if (groupIndex < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(groupIndex);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,12 +809,30 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggregates.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggregates.size()];
+                for (int k = 0; k < afields.length; k++) {
+                    afields[k] = td.fieldNameToIndex(aggregates.elementAt(k).fname);
+                    aops[k] = getAggOp(aggregates.elementAt(k).aggOp);
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int k = 0; k < gfields.length; k++) {
+                    gfields[k] = td.fieldNameToIndex(groupByFields.elementAt(k));
+                }
+                // input that already arrives grouped can be aggregated one
+                // group at a time instead of building a hash table; a large
+                // input is aggregated per partition and the partial results
+                // combined
+                if (gfields.length == 1 && StreamingAggregate.isOrderedOn(node, gfields[0]))
+                    aggNode = new StreamingAggregate(node, afields, gfields, aops);
+                else if (parallelism > 1 && nodeCard >= PARALLEL_THRESHOLD)
+                    aggNode = new Aggregate(parallelInputs(node, parallelism), afields, gfields, aops);
+                else if (gfields.length == 0)
+                    aggNode = new StreamingAggregate(node, afields, gfields, aops);
+                else
+                    aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
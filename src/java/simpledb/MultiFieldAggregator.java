@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Knows how to compute several aggregates at once, grouped by any number of
+ * fields. Every input tuple is looked up once by its composite group key and
+ * folded into one {@link AggregateState} per aggregate expression, so all of
+ * the aggregates are computed in a single pass over the input.
+ */
+public class MultiFieldAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] gbfields;
+    private final int[] afields;
+    private final Op[] ops;
+    private final boolean[] intField;
+    private final TupleDesc td;
+    private final Map<List<Field>, AggregateState[]> groupMap;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param childTd  the TupleDesc of the tuples that will be merged
+     * @param gbfields the 0-based indices of the group-by fields in the tuple;
+     *                 empty if there is no grouping
+     * @param afields  the 0-based indices of the aggregate fields in the tuple
+     * @param ops      the aggregation operator for each entry of afields
+     * @throws IllegalArgumentException if afields and ops differ in length, or
+     *                                  if an operator other than COUNT is
+     *                                  applied to a non-integer field
+     */
+    public MultiFieldAggregator(TupleDesc childTd, int[] gbfields, int[] afields, Op[] ops) {
+        if (afields.length != ops.length || afields.length == 0) {
+            throw new IllegalArgumentException("Need one operator per aggregate field");
+        }
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.intField = new boolean[afields.length];
+
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = childTd.getFieldType(gbfields[i]);
+            names[i] = childTd.getFieldName(gbfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            switch (ops[i]) {
+                case MIN: case MAX: case SUM: case AVG: case COUNT:
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported aggregate " + ops[i]);
+            }
+            intField[i] = childTd.getFieldType(afields[i]) == Type.INT_TYPE;
+            if (!intField[i] && ops[i] != Op.COUNT) {
+                throw new IllegalArgumentException("Only COUNT is supported over string fields");
+            }
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = ops[i] + "(" + childTd.getFieldName(afields[i]) + ")";
+        }
+        this.td = new TupleDesc(types, names);
+        this.groupMap = new HashMap<>();
+    }
+
+    /**
+     * Merge a new tuple into the aggregates of its group, creating the group
+     * if its key has not been seen yet.
+     *
+     * @param tup the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        List<Field> groupKey = groupKey(tup);
+        AggregateState[] states = groupMap.get(groupKey);
+        if (states == null) {
+            states = newStates();
+            groupMap.put(groupKey, states);
+        }
+        mergeInto(states, tup);
+    }
+
+    /**
+     * Merge every selected row of a batch. Without grouping each aggregate
+     * folds its whole column in one loop; with grouping the group key is
+     * read from the columns, so no Tuple is built.
+     *
+     * @param batch the rows to merge
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        int rows = batch.numRows();
+        if (gbfields.length == 0) {
+            List<Field> groupKey = Collections.emptyList();
+            AggregateState[] states = groupMap.get(groupKey);
+            if (states == null) {
+                states = newStates();
+                groupMap.put(groupKey, states);
+            }
+            for (int a = 0; a < afields.length; a++) {
+                AggregateState state = states[a];
+                if (intField[a]) {
+                    int[] col = batch.intColumn(afields[a]);
+                    for (int i = 0; i < rows; i++)
+                        state.add(col[batch.rowIndex(i)]);
+                } else {
+                    for (int i = 0; i < rows; i++)
+                        state.addCount();
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < rows; i++) {
+            int r = batch.rowIndex(i);
+            Field[] key = new Field[gbfields.length];
+            for (int g = 0; g < gbfields.length; g++)
+                key[g] = batch.getField(gbfields[g], r);
+            List<Field> groupKey = Arrays.asList(key);
+            AggregateState[] states = groupMap.get(groupKey);
+            if (states == null) {
+                states = newStates();
+                groupMap.put(groupKey, states);
+            }
+            for (int a = 0; a < afields.length; a++) {
+                if (intField[a])
+                    states[a].add(batch.intColumn(afields[a])[r]);
+                else
+                    states[a].addCount();
+            }
+        }
+    }
+
+    @Override
+    public void combine(Aggregator partial) {
+        if (!(partial instanceof MultiFieldAggregator)
+                || !Arrays.equals(((MultiFieldAggregator) partial).ops, ops))
+            throw new IllegalArgumentException("Cannot combine with " + partial);
+        for (Map.Entry<List<Field>, AggregateState[]> e
+                : ((MultiFieldAggregator) partial).groupMap.entrySet()) {
+            AggregateState[] states = groupMap.get(e.getKey());
+            if (states == null) {
+                states = newStates();
+                groupMap.put(e.getKey(), states);
+            }
+            for (int i = 0; i < states.length; i++)
+                states[i].combine(e.getValue()[i]);
+        }
+    }
+
+    /**
+     * @return the values of the group-by fields of tup, in the order given to
+     * the constructor
+     */
+    List<Field> groupKey(Tuple tup) {
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            key[i] = tup.getField(gbfields[i]);
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * @return a fresh set of states, one per aggregate expression
+     */
+    AggregateState[] newStates() {
+        AggregateState[] states = new AggregateState[afields.length];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new AggregateState();
+        }
+        return states;
+    }
+
+    /**
+     * Fold the aggregate fields of tup into the given states.
+     */
+    void mergeInto(AggregateState[] states, Tuple tup) {
+        for (int i = 0; i < afields.length; i++) {
+            if (intField[i]) {
+                states[i].add(((IntField) tup.getField(afields[i])).getValue());
+            } else {
+                states[i].addCount();
+            }
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples hold the group-by values, in the order
+     * given to the constructor, followed by one value per aggregate
+     */
+    public OpIterator iterator() {
+        List<Tuple> list = new ArrayList<>();
+        for (Map.Entry<List<Field>, AggregateState[]> e : groupMap.entrySet()) {
+            list.add(makeTuple(e.getKey(), e.getValue()));
+        }
+        return new TupleIterator(td, list);
+    }
+
+    /**
+     * Build the output tuple for one group.
+     */
+    Tuple makeTuple(List<Field> key, AggregateState[] states) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < key.size(); i++) {
+            t.setField(i, key.get(i));
+        }
+        for (int i = 0; i < states.length; i++) {
+            t.setField(key.size() + i, new IntField(states[i].result(ops[i])));
+        }
+        return t;
+    }
+
+    @Override
+    public TupleDesc aggregatedTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void clear() {
+        groupMap.clear();
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * Turns any {@link OpIterator} into a {@link BatchIterator} by packing its
+ * tuples into batches. open, rewind and close are passed straight to the
+ * wrapped iterator, so an operator that already opens its child can pull
+ * batches through an adapter without opening the child twice.
+ */
+public class OpIteratorBatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+
+    /**
+     * Constructor.
+     *
+     * @param child the iterator whose tuples are packed into batches
+     */
+    public OpIteratorBatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @param it an iterator
+     * @return it itself if it produces batches natively, otherwise an adapter
+     * packing its tuples into batches
+     */
+    public static BatchIterator asBatches(OpIterator it) {
+        if (it instanceof BatchIterator)
+            return (BatchIterator) it;
+        return new OpIteratorBatchAdapter(it);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(child.getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        while (!b.isFull() && child.hasNext())
+            b.addTuple(child.next());
+        return b;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -1,6 +1,10 @@
 package simpledb;
 
 //import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,11 +31,37 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
+            HashEquiJoin j = (HashEquiJoin) o;
+            OpIterator[] children = j.getChildren();
+            return updateHashEquiJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    new OpIterator[]{children[0]},
+                    new OpIterator[]{children[1]}, tableAliasToId, tableStats);
+        } else if (o instanceof ParallelHashJoin) {
+            ParallelHashJoin j = (ParallelHashJoin) o;
+            OpIterator[] children = j.getChildren();
+            int n = j.numLeftInputs();
+            return updateHashEquiJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(),
+                    Arrays.copyOfRange(children, 0, n),
+                    Arrays.copyOfRange(children, n, children.length),
                     tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
-            return updateAggregateCardinality((Aggregate) o, tableAliasToId,
-                    tableStats);
+            Aggregate a = (Aggregate) o;
+            String[] groupFieldNames = new String[a.groupFields().length];
+            for (int i = 0; i < groupFieldNames.length; i++)
+                groupFieldNames[i] = a.groupFieldName(i);
+            return updateAggregateCardinality(a, groupFieldNames,
+                    tableAliasToId, tableStats);
+        } else if (o instanceof StreamingAggregate) {
+            StreamingAggregate a = (StreamingAggregate) o;
+            String[] groupFieldNames = new String[a.groupFields().length];
+            for (int i = 0; i < groupFieldNames.length; i++)
+                groupFieldNames[i] = a.groupFieldName(i);
+            return updateAggregateCardinality(a, groupFieldNames,
+                    tableAliasToId, tableStats);
+        } else if (o instanceof Gather) {
+            return updateExchangeCardinality(o, tableAliasToId, tableStats);
         } else {
             OpIterator[] children = o.getChildren();
             int childC = 1;
@@ -41,10 +71,8 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -56,20 +84,29 @@ public class OperatorCardinality {
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        Integer tableId = null;
+        // conjuncts on the same table are estimated together, those on
+        // different tables are assumed to be independent
+        Map<Integer, List<Predicate>> byTable = new LinkedHashMap<Integer, List<Predicate>>();
+        for (Predicate pred : f.getPredicates()) {
+            String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
+                    .split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null)
+                break;
+            byTable.computeIfAbsent(tableId, t -> new ArrayList<Predicate>())
+                    .add(new Predicate(Database.getCatalog().getTupleDesc(tableId)
+                            .fieldNameToIndex(pureFieldName), pred.getOp(), pred.getOperand()));
+        }
         double selectivity = 1.0;
+        for (Map.Entry<Integer, List<Predicate>> e : byTable.entrySet()) {
+            selectivity *= tableStats.get(
+                    Database.getCatalog().getTableName(e.getKey()))
+                    .estimateSelectivity(e.getValue().toArray(new Predicate[0]));
+        }
         if (tableId != null) {
-            selectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .estimateSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            pred.getOp(), pred.getOperand());
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -77,10 +114,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(
+                        child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -88,6 +124,28 @@ public class OperatorCardinality {
         return false;
     }
 
+    /**
+     * A Gather returns the tuples of all its children.
+     */
+    private static boolean updateExchangeCardinality(Operator o,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        boolean hasJoinPK = false;
+        long card = 0;
+        for (OpIterator child : o.getChildren()) {
+            if (child instanceof Operator) {
+                Operator oChild = (Operator) child;
+                hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
+                        tableStats) || hasJoinPK;
+                card += oChild.getEstimatedCardinality();
+            } else if (isScan(child)) {
+                card += scanCardinality(child, tableStats);
+            }
+        }
+        o.setEstimatedCardinality((int) Math.min(card, Integer.MAX_VALUE));
+        return hasJoinPK;
+    }
+
     private static boolean updateJoinCardinality(Join j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -120,9 +178,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -132,9 +189,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -144,20 +200,20 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
+    /**
+     * Estimate the output of a hash join whose sides are each read from one
+     * or more inputs.
+     */
+    private static boolean updateHashEquiJoinCardinality(Operator j,
+            JoinPredicate pred, String joinField1Name, String joinField2Name,
+            OpIterator[] inputs1, OpIterator[] inputs2,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
 
-        OpIterator[] children = j.getChildren();
-        OpIterator child1 = children[0];
-        OpIterator child2 = children[1];
-        int child1Card = 1;
-        int child2Card = 1;
-
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -170,78 +226,125 @@ public class OperatorCardinality {
                 .equals(pureFieldName2);
         ;
 
-        if (child1 instanceof Operator) {
-            Operator child1O = (Operator) child1;
-            boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
-                    tableStats);
-            child1HasJoinPK = pk || child1HasJoinPK;
-            child1Card = child1O.getEstimatedCardinality();
-            child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        int child1Card = 0;
+        for (OpIterator child1 : inputs1) {
+            if (child1 instanceof Operator) {
+                Operator child1O = (Operator) child1;
+                boolean pk = updateOperatorCardinality(child1O, tableAliasToId,
+                        tableStats);
+                child1HasJoinPK = pk || child1HasJoinPK;
+                child1Card += child1O.getEstimatedCardinality();
+            } else if (isScan(child1)) {
+                child1Card += scanCardinality(child1, tableStats);
+            }
         }
+        child1Card = child1Card > 0 ? child1Card : 1;
 
-        if (child2 instanceof Operator) {
-            Operator child2O = (Operator) child2;
-            boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
-                    tableStats);
-            child2HasJoinPK = pk || child2HasJoinPK;
-            child2Card = child2O.getEstimatedCardinality();
-            child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        int child2Card = 0;
+        for (OpIterator child2 : inputs2) {
+            if (child2 instanceof Operator) {
+                Operator child2O = (Operator) child2;
+                boolean pk = updateOperatorCardinality(child2O, tableAliasToId,
+                        tableStats);
+                child2HasJoinPK = pk || child2HasJoinPK;
+                child2Card += child2O.getEstimatedCardinality();
+            } else if (isScan(child2)) {
+                child2Card += scanCardinality(child2, tableStats);
+            }
         }
+        child2Card = child2Card > 0 ? child2Card : 1;
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(
+                pred.getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateAggregateCardinality(Aggregate a,
-            Map<String, Integer> tableAliasToId,
+    private static boolean updateAggregateCardinality(Operator a,
+            String[] groupFieldNames, Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
-        OpIterator child = a.getChildren()[0];
-        int childCard = 1;
+        // an aggregate over partitions of its input reads all of them
+        int childCard = 0;
         boolean hasJoinPK = false;
-        if (child instanceof Operator) {
-            Operator oChild = (Operator) child;
-            hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
-                    tableStats);
-            childCard = oChild.getEstimatedCardinality();
+        for (OpIterator child : a.getChildren()) {
+            if (child instanceof Operator) {
+                Operator oChild = (Operator) child;
+                hasJoinPK = updateOperatorCardinality(oChild, tableAliasToId,
+                        tableStats) || hasJoinPK;
+                childCard += oChild.getEstimatedCardinality();
+            } else if (isScan(child)) {
+                childCard += scanCardinality(child, tableStats);
+            } else {
+                childCard += 1;
+            }
         }
 
-        if (a.groupField() == Aggregator.NO_GROUPING) {
+        if (groupFieldNames.length == 0) {
             a.setEstimatedCardinality(1);
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
-        }
-
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        // assume the group-by fields are independent, so the number of
+        // groups is the product of their distinct counts, capped by the input
+        double groups = 1.0;
+        boolean haveStats = false;
+        for (int i = 0; i < groupFieldNames.length; i++) {
+            String[] tmp = groupFieldNames[i].split("[.]");
+            if (tmp.length < 2)
+                continue;
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
 
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .avgSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
+            if (tableId != null) {
+                double groupFieldAvgSelectivity = tableStats.get(
+                        Database.getCatalog().getTableName(tableId))
+                        .avgSelectivity(
+                                Database.getCatalog().getTupleDesc(tableId)
+                                        .fieldNameToIndex(pureFieldName),
+                                Predicate.Op.EQUALS);
+                groups *= 1.0 / groupFieldAvgSelectivity;
+                haveStats = true;
+            }
+        }
+        if (haveStats) {
+            a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
             return hasJoinPK;
         }
         a.setEstimatedCardinality(childCard);
         return hasJoinPK;
     }
+
+    /** @return true if o reads a table, see {@link #scanCardinality} */
+    private static boolean isScan(OpIterator o) {
+        return o instanceof SeqScan || o instanceof BTreeScan;
+    }
+
+    /**
+     * @return the estimated number of tuples returned by a scan, taking the
+     * predicates pushed into it, or the predicate on the index it reads,
+     * into account
+     */
+    private static int scanCardinality(OpIterator o,
+            Map<String, TableStats> tableStats) {
+        if (o instanceof BTreeScan) {
+            BTreeScan b = (BTreeScan) o;
+            TableStats stats = tableStats.get(b.getTableName());
+            IndexPredicate ipred = b.getIndexPredicate();
+            if (ipred == null)
+                return stats.estimateTableCardinality(1.0);
+            int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(b.getTableName()))).keyField();
+            return stats.estimateTableCardinality(stats.estimateSelectivity(
+                    key, ipred.getOp(), ipred.getField())) + 1;
+        }
+        SeqScan s = (SeqScan) o;
+        TableStats stats = tableStats.get(s.getTableName());
+        double selectivity = stats.estimateSelectivity(s.getPredicates());
+        // each scan of a split table reads an equal share of it
+        if (selectivity == 1.0)
+            return stats.estimateTableCardinality(1.0) / s.numPartitions();
+        return stats.estimateTableCardinality(selectivity) / s.numPartitions() + 1;
+    }
 }
@@ -0,0 +1,65 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageMorsels hands out the pages of a {@link HeapFile} in small ranges
+ * ("morsels") to the iterators of a parallel scan. Each iterator claims a
+ * new morsel when it is done with its last one, so a thread that is slowed
+ * down, e.g. by pages that are not in the buffer pool, simply claims fewer
+ * morsels; every page is read by exactly one iterator.
+ * <p>
+ * The iterators sharing a PageMorsels are opened and rewound together. The
+ * first of them to be opened (or rewound) starts a new pass over the file,
+ * and the others join it, so that a rewind of all of them reads the file
+ * once more rather than once per iterator.
+ *
+ * @Threadsafe
+ */
+class PageMorsels {
+
+    /** The number of pages claimed at once. */
+    static final int MORSEL_PAGES = 8;
+
+    private final HeapFile file;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile int numPages;
+    private int pass;
+
+    PageMorsels(HeapFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Called when an iterator is opened. Starts a new pass over the file
+     * unless another iterator has already started the next one.
+     *
+     * @param seen the pass the iterator took part in last, 0 if none
+     * @return the pass the iterator now takes part in
+     */
+    synchronized int open(int seen) {
+        if (seen == pass) {
+            pass++;
+            numPages = file.numPages();
+            next.set(0);
+        }
+        return pass;
+    }
+
+    /**
+     * @return the first page of an unclaimed morsel, or -1 if every page of
+     * this pass has been claimed
+     */
+    int claim() {
+        int start = next.getAndAdd(MORSEL_PAGES);
+        return start < numPages ? start : -1;
+    }
+
+    /**
+     * @param start the first page of a morsel returned by {@link #claim}
+     * @return one more than the last page of that morsel
+     */
+    int end(int start) {
+        return Math.min(start + MORSEL_PAGES, numPages);
+    }
+}
@@ -0,0 +1,281 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelHashJoin computes the same equi-join as {@link HashEquiJoin}, with
+ * both the build and the probe run by threads of the {@link WorkerPool}. Each
+ * side of the join is read from any number of inputs, typically the parts of
+ * a {@link SeqScan#split split scan}, each by its own thread:
+ * <ol>
+ * <li>every thread reading the left (build) side sorts its tuples into
+ * {@link #RADIX_PARTITIONS} partitions by the hash of their join field,
+ * without sharing anything with the other threads;</li>
+ * <li>the hash table of each partition is then built from the tuples all
+ * the threads sorted into it, again with every partition owned by one
+ * thread, so no table needs to be locked;</li>
+ * <li>every thread reading the right (probe) side looks its tuples up in the
+ * table of their partition, which is only read by then, and passes the
+ * joined tuples up through an {@link ExchangeQueue}.</li>
+ * </ol>
+ * The whole left side is held in memory. Rewinding only reads the right side
+ * again.
+ */
+public class ParallelHashJoin extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of partitions the build side is split into; a power of two. */
+    public static final int RADIX_PARTITIONS = 64;
+
+    private final JoinPredicate pred;
+    private OpIterator[] left;
+    private OpIterator[] right;
+    private final TupleDesc comboTD;
+    private transient HashMap<Field, ArrayList<Tuple>>[] tables;
+    private transient ExchangeQueue queue;
+    private transient WorkerPool.Job job;
+    // whether the left and the right inputs have been opened by the workers
+    private transient boolean leftOpen;
+    private transient boolean rightOpen;
+
+    /**
+     * Constructor.
+     *
+     * @param p     The predicate to use to join the children; its operator
+     *              must be EQUALS
+     * @param left  The inputs of the left (build) relation, each read by its
+     *              own thread; all of them have the same TupleDesc
+     * @param right The inputs of the right (probe) relation, each read by its
+     *              own thread; all of them have the same TupleDesc
+     */
+    public ParallelHashJoin(JoinPredicate p, OpIterator[] left, OpIterator[] right) {
+        if (left.length == 0 || right.length == 0)
+            throw new IllegalArgumentException("Need at least one input on each side");
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("Only equality joins can be hashed");
+        this.pred = p;
+        this.left = left.clone();
+        this.right = right.clone();
+        this.comboTD = TupleDesc.merge(left[0].getTupleDesc(), right[0].getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return left[0].getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return right[0].getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /**
+     * @return the number of inputs of the left relation; they come first in
+     * {@link #getChildren}, followed by the inputs of the right relation
+     */
+    public int numLeftInputs() {
+        return left.length;
+    }
+
+    @Override
+    public String getName() {
+        return "hash join(" + left.length + "x" + right.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        build();
+        startProbe(false);
+        super.open();
+    }
+
+    /**
+     * @return the partition of the build table that holds key
+     */
+    private static int partitionOf(Field key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (RADIX_PARTITIONS - 1);
+    }
+
+    /**
+     * Read the whole left side and build the hash table of every partition.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ArrayList<Tuple>[][] runs = newRuns(left.length);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < left.length; i++) {
+            OpIterator input = left[i];
+            ArrayList<Tuple>[] parts = runs[i];
+            for (int p = 0; p < RADIX_PARTITIONS; p++)
+                parts[p] = new ArrayList<>();
+            tasks.add(() -> {
+                try {
+                    input.open();
+                    while (input.hasNext()) {
+                        Tuple t = input.next();
+                        parts[partitionOf(t.getField(pred.getField1()))].add(t);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        leftOpen = true;
+        Database.getWorkerPool().submit(tasks).await();
+        rethrow(failure.get());
+
+        tables = newTables();
+        int builders = Math.min(RADIX_PARTITIONS, Database.getWorkerPool().getParallelism());
+        tasks.clear();
+        for (int b = 0; b < builders; b++) {
+            int first = b;
+            tasks.add(() -> {
+                try {
+                    for (int p = first; p < RADIX_PARTITIONS; p += builders) {
+                        HashMap<Field, ArrayList<Tuple>> table = new HashMap<>();
+                        for (ArrayList<Tuple>[] parts : runs) {
+                            for (Tuple t : parts[p])
+                                table.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+                        }
+                        tables[p] = table;
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        Database.getWorkerPool().submit(tasks).await();
+        rethrow(failure.get());
+    }
+
+    /** @return the runs of each left input, one per partition, not yet created */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayList<Tuple>[][] newRuns(int inputs) {
+        return new ArrayList[inputs][RADIX_PARTITIONS];
+    }
+
+    /** @return the hash tables of the partitions, not yet built */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static HashMap<Field, ArrayList<Tuple>>[] newTables() {
+        return new HashMap[RADIX_PARTITIONS];
+    }
+
+    private static void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e != null)
+            throw new DbException("hash join input failed: " + e);
+    }
+
+    /**
+     * Start the threads that probe the hash tables with the right side.
+     *
+     * @param rewind true if the right inputs have been read before and need
+     *               to be rewound rather than opened
+     */
+    private void startProbe(boolean rewind) {
+        queue = new ExchangeQueue(right.length, QUEUE_CAPACITY);
+        consume(queue);
+        List<Runnable> tasks = new ArrayList<>();
+        for (OpIterator input : right)
+            tasks.add(() -> probe(input, rewind));
+        rightOpen = true;
+        job = Database.getWorkerPool().submit(tasks);
+    }
+
+    private void probe(OpIterator input, boolean rewind) {
+        Throwable failure = null;
+        try {
+            if (rewind)
+                input.rewind();
+            else
+                input.open();
+            Tuple[] chunk = new Tuple[CHUNK_SIZE];
+            int n = 0;
+            while (input.hasNext()) {
+                Tuple t2 = input.next();
+                Field key = t2.getField(pred.getField2());
+                ArrayList<Tuple> matches = tables[partitionOf(key)].get(key);
+                if (matches == null)
+                    continue;
+                for (Tuple t1 : matches) {
+                    chunk[n++] = new JoinedTuple(comboTD, t1, t2);
+                    if (n == CHUNK_SIZE) {
+                        if (!queue.put(chunk))
+                            return;
+                        chunk = new Tuple[CHUNK_SIZE];
+                        n = 0;
+                    }
+                }
+            }
+            if (n > 0 && !queue.put(Arrays.copyOf(chunk, n)))
+                return;
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            queue.finish(failure);
+        }
+    }
+
+    /**
+     * Stop the probing threads and wait for them to return.
+     */
+    private void stopProbe() {
+        if (job != null) {
+            queue.stop();
+            job.await();
+            job = null;
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopProbe();
+        startProbe(true);
+        super.close();
+        super.open();
+    }
+
+    public void close() {
+        stopProbe();
+        if (leftOpen) {
+            for (OpIterator input : left)
+                input.close();
+            leftOpen = false;
+        }
+        if (rightOpen) {
+            for (OpIterator input : right)
+                input.close();
+            rightOpen = false;
+        }
+        tables = null;
+        super.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        OpIterator[] children = Arrays.copyOf(left, left.length + right.length);
+        System.arraycopy(right, 0, children, left.length, right.length);
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.left = Arrays.copyOfRange(children, 0, left.length);
+        this.right = Arrays.copyOfRange(children, left.length, children.length);
+    }
+}
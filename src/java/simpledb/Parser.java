@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -62,6 +64,19 @@ public class Parser {
             boolean isJoin = false;
             Predicate.Op op = getOp(wx.getOperator());
 
+            // a parameter of a prepared query, see prepare
+            boolean op1param = isParameter(ops.elementAt(0));
+            boolean op2param = isParameter(ops.elementAt(1));
+            if (op1param || op2param) {
+                ZExp other = ops.elementAt(op1param ? 1 : 0);
+                if (!(other instanceof ZConstant)
+                        || ((ZConstant) other).getType() != ZConstant.COLUMNNAME)
+                    throw new simpledb.ParsingException(
+                            "A parameter can only be compared with a field.");
+                lp.addParameterFilter(((ZConstant) other).getValue(), op);
+                return;
+            }
+
             boolean op1const = ops.elementAt(0) instanceof ZConstant; // otherwise
                                                                       // is a
                                                                       // Query
@@ -132,6 +147,13 @@ public class Parser {
 
     }
 
+    /** @return true if e is a ? standing for a constant of a prepared query */
+    private static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression
+                && ((ZExpression) e).getOperator().equals("?")
+                && ((ZExpression) e).nbOperands() == 0;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -182,23 +204,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (int i = 0; i < gbs.size(); i++) {
+                ZExp gbe = gbs.elementAt(i);
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
-                System.out.println("GROUP BY FIELD : " + groupByField);
+                String groupByField = ((ZConstant) gbe).getValue();
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -207,8 +225,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +236,16 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
-                System.out.println("Aggregate field is " + aggField
-                        + ", agg fun is : " + aggFun);
+                String aggFun = si.getAggregate();
+                aggFields.addElement(aggField);
+                aggFuns.addElement(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,12 +255,15 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (int i = 0; i < groupByFields.size(); i++) {
+            lp.addGroupByField(groupByFields.elementAt(i));
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.elementAt(i), aggFields.elementAt(i), null);
         }
         // sort the data
 
@@ -272,6 +289,8 @@ public class Parser {
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    // whether the statement being processed was prefixed with EXPLAIN ANALYZE
+    private boolean analyze = false;
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
@@ -284,6 +303,11 @@ public class Parser {
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
 
+        if (analyze) {
+            explainAnalyze(physicalPlan, lp);
+            return null;
+        }
+
         if (physicalPlan != null) {
             Class<?> c;
             try {
@@ -320,6 +344,30 @@ public class Parser {
         return query;
     }
 
+    /**
+     * Run a plan to completion, discarding its tuples, and print it with the
+     * actual figures of each operator, measured by an {@link
+     * InstrumentedOperator}, next to the estimates. The cardinalities seen
+     * are given to {@link CardinalityFeedback}.
+     */
+    private void explainAnalyze(OpIterator physicalPlan, LogicalPlan lp)
+            throws TransactionAbortedException, DbException {
+        if (physicalPlan instanceof Operator)
+            OperatorCardinality.updateOperatorCardinality((Operator) physicalPlan,
+                    lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+        OpIterator plan = InstrumentedOperator.instrument(physicalPlan);
+        plan.open();
+        try {
+            while (plan.hasNext())
+                plan.next();
+            CardinalityFeedback.record(plan, lp, TableStats.getStatsMap());
+        } finally {
+            plan.close();
+        }
+        System.out.println("The query plan is:");
+        new QueryPlanVisualizer().printQueryPlanTree(plan, System.out);
+    }
+
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
@@ -484,6 +532,81 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /** The most prepared queries kept by {@link #prepare}. */
+    public static final int PREPARED_CACHE_SIZE = 256;
+
+    // the prepared queries, by their normalized text, least recently used
+    // first
+    private static final LinkedHashMap<String, PreparedStatement> prepared = new LinkedHashMap<String, PreparedStatement>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, PreparedStatement> eldest) {
+            return size() > PREPARED_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Prepare a query to be run many times with different constants: each
+     * constant written as ? in the query is a parameter, bound to a value
+     * every time the query is run by {@link PreparedStatement#bind}.
+     * <p>
+     * The query is parsed and its joins are ordered only once. The prepared
+     * query is cached by its text, ignoring differences in white space, and
+     * is prepared again once the catalog or the statistics of a table have
+     * changed since it was.
+     *
+     * @param s
+     *            the text of a SELECT statement, without subqueries
+     * @return the prepared query
+     * @throws ParsingException
+     *             if the query is not valid or can't be prepared
+     */
+    public PreparedStatement prepare(String s)
+            throws simpledb.ParsingException {
+        String sql = PreparedStatement.normalize(s);
+        synchronized (prepared) {
+            PreparedStatement ps = prepared.get(sql);
+            if (ps != null && ps.isCurrent())
+                return ps;
+        }
+
+        // taken first, so that changes made while planning leave the plan
+        // stale
+        long catalogVersion = Database.getCatalog().getVersion();
+        long statsVersion = TableStats.getVersion();
+        LogicalPlan lp;
+        try {
+            ZStatement stmt = new ZqlParser(new ByteArrayInputStream(
+                    sql.getBytes("UTF-8"))).readStatement();
+            if (!(stmt instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "Only SELECT statements can be prepared.");
+            lp = parseQueryLogicalPlan(null, (ZQuery) stmt);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException(
+                    "Invalid SQL expression: \n \t " + e);
+        } catch (Zql.TokenMgrError e) {
+            throw new simpledb.ParsingException(
+                    "Invalid SQL expression: \n \t " + e);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException(e);
+        }
+        if (lp.hasSubqueries())
+            throw new simpledb.ParsingException(
+                    "Queries with subqueries can't be prepared.");
+        lp.orderJoins(TableStats.getStatsMap());
+
+        PreparedStatement ps = new PreparedStatement(sql, lp, catalogVersion,
+                statsVersion);
+        synchronized (prepared) {
+            prepared.put(sql, ps);
+        }
+        return ps;
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -501,10 +624,38 @@ public class Parser {
         }
     }
 
+    /**
+     * Consume the EXPLAIN ANALYZE before a statement, if there is one, and
+     * note whether there was.
+     *
+     * @return the rest of the statement
+     */
+    private InputStream stripExplainAnalyze(InputStream is) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(is);
+        byte[] head = new byte[EXPLAIN_ANALYZE_MAX_BYTES];
+        in.mark(head.length);
+        int n = 0, r;
+        while (n < head.length && (r = in.read(head, n, head.length - n)) > 0)
+            n += r;
+        in.reset();
+        Matcher m = EXPLAIN_ANALYZE.matcher(new String(head, 0, n, "UTF-8"));
+        analyze = m.lookingAt();
+        if (analyze) {
+            // the prefix is all ASCII, one byte a character
+            for (long left = m.end(); left > 0; )
+                left -= in.skip(left);
+        }
+        return in;
+    }
+
     public void processNextStatement(InputStream is) {
         try {
+            is = stripExplainAnalyze(is);
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
+            if (analyze && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "EXPLAIN ANALYZE is only supported for select statements");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -581,7 +732,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "explain analyze" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -596,6 +747,15 @@ public class Parser {
     }
 
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+
+    /**
+     * The prefix that runs a query and prints its plan with the actual figures
+     * of each operator
+     */
+    static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "\\s*EXPLAIN\\s+ANALYZE\\s+", Pattern.CASE_INSENSITIVE);
+    // the most of a statement read to look for EXPLAIN_ANALYZE
+    private static final int EXPLAIN_ANALYZE_MAX_BYTES = 256;
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -607,7 +767,10 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        File costs = new File(argv[0] + TableStats.COSTS_FILE_SUFFIX);
+        if (costs.exists())
+            TableStats.loadCosts(costs);
+        TableStats.loadStatistics(new File(argv[0] + TableStats.STATS_FILE_SUFFIX));
 
         String queryFile = null;
 
@@ -1,50 +1,141 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
+
+import java.util.Arrays;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of relations.
+ * <p>
+ * A set of relations is a bitmask, bit i standing for relation i of the
+ * query, and the plans are kept in an open-addressing hash table over these
+ * masks, so that looking a plan up allocates nothing. The best left-deep
+ * plan for a set is stored as its cost and cardinality, the relation it
+ * joins last and the join that joins it; the rest of the plan is the plan
+ * stored for the set without that relation.
+ */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    // the empty set is never stored, so it marks a free slot
+    private static final long FREE = 0L;
+
+    private long[] sets;
+    private double[] costs;
+    private int[] cards;
+    private int[] lasts;
+    private int[] joins;
+    private int size;
+
+    /**
+     * Create an empty cache.
+     *
+     * @param expected the number of plans expected to be added
+     */
+    PlanCache(int expected) {
+        int capacity = 16;
+        while (capacity < 2L * expected && capacity < (1 << 30))
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        sets = new long[capacity];
+        costs = new double[capacity];
+        cards = new int[capacity];
+        lasts = new int[capacity];
+        joins = new int[capacity];
+    }
+
+    /** @return the slot that holds s, or the free slot where it would go */
+    private int slot(long s) {
+        long h = s * 0x9E3779B97F4A7C15L;
+        int mask = sets.length - 1;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (sets[i] != FREE && sets[i] != s)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    /** Add a new cost, cardinality and ordering for a particular set of relations.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of relations for which a new plan is being added; not empty
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param last the relation the plan joins last
+        @param join the join that joins it, as the plan's caller numbers joins
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
-    */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    void addPlan(long s, double cost, int card, int last, int join) {
+        int i = slot(s);
+        if (sets[i] == FREE) {
+            if (2 * (size + 1) > sets.length) {
+                grow();
+                i = slot(s);
+            }
+            sets[i] = s;
+            size++;
+        }
+        costs[i] = cost;
+        cards[i] = card;
+        lasts[i] = last;
+        joins[i] = join;
+    }
+
+    private void grow() {
+        long[] oldSets = sets;
+        double[] oldCosts = costs;
+        int[] oldCards = cards;
+        int[] oldLasts = lasts;
+        int[] oldJoins = joins;
+        allocate(sets.length * 2);
+        for (int j = 0; j < oldSets.length; j++) {
+            if (oldSets[j] != FREE) {
+                int i = slot(oldSets[j]);
+                sets[i] = oldSets[j];
+                costs[i] = oldCosts[j];
+                cards[i] = oldCards[j];
+                lasts[i] = oldLasts[j];
+                joins[i] = oldJoins[j];
+            }
+        }
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Remove every plan from the cache. */
+    void clear() {
+        Arrays.fill(sets, FREE);
+        size = 0;
+    }
+
+    /** @return true if there is a plan for the specified set of relations */
+    boolean contains(long s) {
+        return sets[slot(s)] == s;
+    }
+
+    /** Find the cost of the best plan in the cache for the specified set of relations, which must be in the cache
+        @param s the set of relations to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(long s) {
+        return costs[slot(s)];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set of relations, which must be in the cache
+        @param s the set of relations to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(long s) {
+        return cards[slot(s)];
+    }
+
+    /** @return the relation the best plan for s joins last */
+    int getLast(long s) {
+        return lasts[slot(s)];
+    }
+
+    /** @return the join the best plan for s joins its last relation with */
+    int getJoin(long s) {
+        return joins[slot(s)];
+    }
+
+    /** @return the number of sets of relations with a plan */
+    int size() {
+        return size;
     }
 }
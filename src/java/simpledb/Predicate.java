@@ -101,6 +101,85 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * @return an evaluator specialized to this predicate's field type,
+     * operator and operand
+     * @see CompiledPredicate#compile
+     */
+    public CompiledPredicate compile() {
+        return CompiledPredicate.compile(this);
+    }
+
+    /**
+     * Evaluates the predicate on every selected row of a batch. For integer
+     * fields the operator is resolved once and the column is scanned in a
+     * plain loop; other fields are compared through Field.compare.
+     *
+     * @param b   the batch to evaluate
+     * @param out receives the positions of the rows that pass, in order
+     * @return the number of positions written to out
+     */
+    public int filter(TupleBatch b, int[] out) {
+        int rows = b.numRows();
+        int n = 0;
+        if (b.getTupleDesc().getFieldType(field) != Type.INT_TYPE) {
+            for (int i = 0; i < rows; i++) {
+                int r = b.rowIndex(i);
+                if (b.getField(field, r).compare(op, operand))
+                    out[n++] = r;
+            }
+            return n;
+        }
+        int[] col = b.intColumn(field);
+        int v = ((IntField) operand).getValue();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < rows; i++) {
+                    int r = b.rowIndex(i);
+                    if (col[r] == v)
+                        out[n++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < rows; i++) {
+                    int r = b.rowIndex(i);
+                    if (col[r] != v)
+                        out[n++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < rows; i++) {
+                    int r = b.rowIndex(i);
+                    if (col[r] > v)
+                        out[n++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < rows; i++) {
+                    int r = b.rowIndex(i);
+                    if (col[r] >= v)
+                        out[n++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < rows; i++) {
+                    int r = b.rowIndex(i);
+                    if (col[r] < v)
+                        out[n++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < rows; i++) {
+                    int r = b.rowIndex(i);
+                    if (col[r] <= v)
+                        out[n++] = r;
+                }
+                break;
+        }
+        return n;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
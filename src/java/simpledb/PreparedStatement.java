@@ -0,0 +1,136 @@
+package simpledb;
+
+/**
+ * A query prepared by {@link Parser#prepare}: parsed, and with its joins
+ * ordered, once, to be run many times with different constants. Each
+ * constant written as ? in the query is a parameter, numbered from 0 in the
+ * order the filters on parameters appear in the WHERE clause, and bound to
+ * a value each time the query is run.
+ * <p>
+ * A prepared query is not tied to a transaction; {@link #bind} builds the
+ * operators of one run of the query for the transaction running it.
+ */
+public class PreparedStatement {
+
+    private final String sql;
+    private final LogicalPlan template;
+    private final Type[] parameterTypes;
+    private final long catalogVersion;
+    private final long statsVersion;
+
+    /**
+     * @param sql
+     *            the normalized text of the query, see {@link #normalize}
+     * @param template
+     *            the logical plan of the query, with its joins ordered
+     * @param catalogVersion
+     *            the version of the catalog the plan was made with
+     * @param statsVersion
+     *            the version of the table statistics the plan was made with
+     * @throws ParsingException
+     *             if a parameter is compared with an unknown field
+     */
+    PreparedStatement(String sql, LogicalPlan template, long catalogVersion,
+            long statsVersion) throws ParsingException {
+        this.sql = sql;
+        this.template = template;
+        this.parameterTypes = template.getParameterTypes();
+        this.catalogVersion = catalogVersion;
+        this.statsVersion = statsVersion;
+    }
+
+    /** @return the text of the query, with its white space normalized */
+    public String getSql() {
+        return sql;
+    }
+
+    /** @return the number of parameters of the query */
+    public int getParameterCount() {
+        return parameterTypes.length;
+    }
+
+    /**
+     * @param i
+     *            the number of a parameter, counting from 0
+     * @return the type of the field parameter i is compared with
+     */
+    public Type getParameterType(int i) {
+        return parameterTypes[i];
+    }
+
+    /**
+     * Bind values to the parameters of the query, and build the operators
+     * to run it with.
+     *
+     * @param tid
+     *            the transaction that will run the query
+     * @param values
+     *            the value of each parameter: an Integer for parameters
+     *            compared with INT_TYPE fields, a String for STRING_TYPE
+     *            ones
+     * @return the query, ready to be started
+     * @throws ParsingException
+     *             if the number or the types of the values don't match the
+     *             parameters
+     */
+    public Query bind(TransactionId tid, Object... values)
+            throws ParsingException {
+        if (values.length != parameterTypes.length)
+            throw new ParsingException("Query has " + parameterTypes.length
+                    + " parameters, but " + values.length + " values given");
+        String[] strings = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Class<?> expected = parameterTypes[i] == Type.INT_TYPE ? Integer.class
+                    : String.class;
+            if (!expected.isInstance(values[i]))
+                throw new ParsingException("Parameter " + (i + 1) + " must be "
+                        + expected.getSimpleName() + ", not " + values[i]);
+            strings[i] = values[i].toString();
+        }
+
+        LogicalPlan lp = template.bind(strings);
+        Query query = new Query(tid);
+        query.setPhysicalPlan(lp.physicalPlan(tid, TableStats.getStatsMap(),
+                Parser.explain));
+        query.setLogicalPlan(lp);
+        return query;
+    }
+
+    /**
+     * @return true if neither the catalog nor the table statistics have
+     *         changed since the query was prepared
+     */
+    boolean isCurrent() {
+        return catalogVersion == Database.getCatalog().getVersion()
+                && statsVersion == TableStats.getVersion();
+    }
+
+    /**
+     * Normalize the text of a query, so that queries differing only in white
+     * space outside of quoted strings have the same text: runs of white
+     * space become one space, and the query ends with a semicolon.
+     */
+    static String normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 1);
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0)
+                sb.append(' ');
+            space = false;
+            if (quote == 0 && (c == '\'' || c == '"'))
+                quote = c;
+            else if (c == quote)
+                quote = 0;
+            sb.append(c);
+        }
+        if (sb.length() == 0 || sb.charAt(sb.length() - 1) != ';')
+            sb.append(';');
+        return sb.toString();
+    }
+}
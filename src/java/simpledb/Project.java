@@ -5,12 +5,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
+    private BatchIterator childBatches;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    private int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -31,7 +33,11 @@ public class Project extends Operator {
     public Project(ArrayList<Integer> fieldList, Type[] types,
             OpIterator child) {
         this.child = child;
+        this.childBatches = OpIteratorBatchAdapter.asBatches(child);
         outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -80,6 +86,19 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child, restricted to the projected
+     * fields. No column is copied.
+     *
+     * @return The next batch, or null if there are no more rows
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch b = childBatches.nextBatch();
+        if (b == null)
+            return null;
+        return b.project(outFields, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -90,6 +109,7 @@ public class Project extends Operator {
 	if (this.child!=children[0])
 	{
 	    this.child = children[0];
+	    this.childBatches = OpIteratorBatchAdapter.asBatches(child);
 	}
     }
     
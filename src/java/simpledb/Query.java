@@ -8,6 +8,10 @@ import java.util.*;
  * plan in the form of a high level OpIterator (built by initiating the
  * constructors of query plans) and runs it as a part of a specified
  * transaction.
+ * <p>
+ * The plan of a query built from a {@link LogicalPlan} is measured as it
+ * runs, and the cardinalities seen are given to {@link CardinalityFeedback}
+ * when it is closed, unless that is turned off.
  * 
  * @author Sam Madden
  */
@@ -20,6 +24,8 @@ public class Query implements Serializable {
     transient private LogicalPlan logicalPlan;
     TransactionId tid;
     transient private boolean started = false;
+    // whether op counts the tuples of its operators for CardinalityFeedback
+    transient private boolean measured = false;
 
     public TransactionId getTransactionId() {
         return this.tid;
@@ -52,6 +58,10 @@ public class Query implements Serializable {
 
     public void start() throws IOException, DbException,
             TransactionAbortedException {
+        if (logicalPlan != null && CardinalityFeedback.isEnabled()) {
+            op = InstrumentedOperator.instrument(op, false);
+            measured = true;
+        }
         op.open();
 
         started = true;
@@ -88,6 +98,8 @@ public class Query implements Serializable {
 
     /** Close the iterator */
     public void close() throws IOException {
+        if (measured)
+            CardinalityFeedback.record(op, logicalPlan, TableStats.getStatsMap());
         op.close();
         started = false;
     }
@@ -13,13 +13,17 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "scan(index)";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String STREAM_GROUPBY = "g(stream)";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
         if (root == null)
             return 0;
+        while (root instanceof InstrumentedOperator)
+            root = ((InstrumentedOperator) root).getOperator();
 
         if (!(root instanceof Operator))
             return 2;
@@ -31,6 +35,12 @@ public class QueryPlanVisualizer {
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
         }
+        else if (o instanceof ParallelHashJoin) {
+            int d1 = this.calculateQueryPlanTreeDepth(children[0]);
+            int d2 = this.calculateQueryPlanTreeDepth(
+                    children[((ParallelHashJoin) o).numLeftInputs()]);
+            return Math.max(d1, d2) + 3;
+        }
         else
         {
             if (children!=null && children[0]!=null)
@@ -46,6 +56,8 @@ public class QueryPlanVisualizer {
         SubTreeDescriptor rightChild;
         int textStartPosition;
         String text;
+        // shown after text, such as the actual figures of an operator run by EXPLAIN ANALYZE
+        String note = "";
         int height;
 
         SubTreeDescriptor(SubTreeDescriptor leftChild,
@@ -54,6 +66,45 @@ public class QueryPlanVisualizer {
             this.rightChild = rightChild;
         }
 
+        String label() {
+            return text + note;
+        }
+
+    }
+
+    /**
+     * Place the node of a scan, a leaf of the tree, and the bars above it
+     * that bring it level with the other leaves.
+     */
+    private SubTreeDescriptor scanNode(SubTreeDescriptor thisNode,
+            int queryPlanDepth, int currentDepth, int currentStartPosition,
+            int parentUpperBarStartShift) {
+        if (SCAN.length() / 2 < parentUpperBarStartShift) {
+            thisNode.upBarPosition = currentStartPosition
+                    + parentUpperBarStartShift;
+            thisNode.textStartPosition = thisNode.upBarPosition
+                    - SCAN.length() / 2;
+        } else {
+            thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                    / 2;
+            thisNode.textStartPosition = currentStartPosition;
+        }
+        thisNode.width = thisNode.textStartPosition - currentStartPosition
+                + thisNode.label().length();
+        int embedHeight = (queryPlanDepth - currentDepth) / 2 - 1;
+        thisNode.height = currentDepth + 2 * embedHeight;
+        int currentHeight = thisNode.height;
+        SubTreeDescriptor parentNode = thisNode;
+        for (int i = 0; i < embedHeight; i++) {
+            parentNode = new SubTreeDescriptor(parentNode, null);
+            parentNode.text = "|";
+            parentNode.upBarPosition = thisNode.upBarPosition;
+            parentNode.width = thisNode.width;
+            parentNode.height = currentHeight - 2;
+            parentNode.textStartPosition = thisNode.upBarPosition;
+            currentHeight -= 2;
+        }
+        return parentNode;
     }
 
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
@@ -64,6 +115,11 @@ public class QueryPlanVisualizer {
 
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
+        while (queryPlan instanceof InstrumentedOperator) {
+            InstrumentedOperator io = (InstrumentedOperator) queryPlan;
+            thisNode.note = io.getActuals();
+            queryPlan = io.getOperator();
+        }
 
         if (queryPlan instanceof SeqScan) {
             SeqScan s = (SeqScan) queryPlan;
@@ -76,32 +132,45 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
-                thisNode.upBarPosition = currentStartPosition
-                        + parentUpperBarStartShift;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
-            } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
-                        / 2;
-                thisNode.textStartPosition = currentStartPosition;
+            // predicates pushed into the scan are shown next to it
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(
+                    Database.getCatalog().getTableId(tableName));
+            String conds = "";
+            for (Predicate p : s.getPredicates()) {
+                if (conds.length() > 0)
+                    conds += " AND ";
+                conds += s.getAlias() + "." + tableTd.getFieldName(p.getField())
+                        + p.getOp() + p.getOperand();
             }
-            thisNode.width = thisNode.textStartPosition - currentStartPosition
-                    + thisNode.text.length();
-            int embedHeight = (queryPlanDepth - currentDepth) / 2 - 1;
-            thisNode.height = currentDepth + 2 * embedHeight;
-            int currentHeight = thisNode.height;
-            SubTreeDescriptor parentNode = thisNode;
-            for (int i = 0; i < embedHeight; i++) {
-                parentNode = new SubTreeDescriptor(parentNode, null);
-                parentNode.text = "|";
-                parentNode.upBarPosition = thisNode.upBarPosition;
-                parentNode.width = thisNode.width;
-                parentNode.height = currentHeight - 2;
-                parentNode.textStartPosition = thisNode.upBarPosition;
-                currentHeight -= 2;
+            if (conds.length() > 0)
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT, conds);
+            if (s.numPartitions() > 1)
+                thisNode.text += "/" + s.numPartitions();
+            thisNode = scanNode(thisNode, queryPlanDepth, currentDepth,
+                    currentStartPosition, parentUpperBarStartShift);
+        } else if (queryPlan instanceof BTreeScan) {
+            BTreeScan s = (BTreeScan) queryPlan;
+            String tableName = s.getTableName();
+            String alias = s.getAlias();
+            if (!tableName.equals(alias))
+                alias = " " + alias;
+            else
+                alias = "";
+            thisNode.text = String.format("%1$s(%2$s)", INDEX_SCAN,
+                    tableName + alias);
+            IndexPredicate ipred = s.getIndexPredicate();
+            if (ipred != null) {
+                int tableId = Database.getCatalog().getTableId(tableName);
+                int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                        tableId)).keyField();
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT,
+                        s.getAlias() + "."
+                                + Database.getCatalog().getTupleDesc(tableId)
+                                        .getFieldName(key) + ipred.getOp()
+                                + ipred.getField());
             }
-            thisNode = parentNode;
+            thisNode = scanNode(thisNode, queryPlanDepth, currentDepth,
+                    currentStartPosition, parentUpperBarStartShift);
         } else {
 
             Operator plan = (Operator) queryPlan;
@@ -131,20 +200,32 @@ public class QueryPlanVisualizer {
                         - JOIN.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
+                        thisNode.textStartPosition + thisNode.label().length()
                                 - currentStartPosition);
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof ParallelHashJoin) {
+                JoinPredicate jp;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                } else {
+                    // one input of each side stands for all of them
+                    ParallelHashJoin pj = (ParallelHashJoin) plan;
+                    jp = pj.getJoinPredicate();
+                    children = new OpIterator[]{children[0], children[pj.numLeftInputs()]};
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
+                if (plan instanceof ParallelHashJoin) {
+                    ParallelHashJoin pj = (ParallelHashJoin) plan;
+                    thisNode.text += ",parts:" + pj.numLeftInputs() + "x"
+                            + (pj.getChildren().length - pj.numLeftInputs());
+                }
                 int upBarShift = parentUpperBarStartShift;
                 if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = HASH_JOIN.length() / 2;
@@ -159,29 +240,52 @@ public class QueryPlanVisualizer {
                         - HASH_JOIN.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
+                        thisNode.textStartPosition + thisNode.label().length()
                                 - currentStartPosition);
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
             }
-            else if (plan instanceof Aggregate) {
-                Aggregate a = (Aggregate) plan;
+            else if (plan instanceof Aggregate || plan instanceof StreamingAggregate) {
                 int upBarShift = parentUpperBarStartShift;
                 String alignTxt;
-                TupleDesc td = a.getTupleDesc();
-                int gfield = a.groupField();
+                TupleDesc td = plan.getTupleDesc();
+                String[] groups;
+                String[] aggs;
+                String symbol;
+                if (plan instanceof Aggregate) {
+                    Aggregate a = (Aggregate) plan;
+                    groups = new String[a.groupFields().length];
+                    for (int i = 0; i < groups.length; i++)
+                        groups[i] = a.groupFieldName(i);
+                    aggs = new String[a.numAggregates()];
+                    for (int i = 0; i < aggs.length; i++)
+                        aggs[i] = a.aggregateFieldName(i);
+                    symbol = GROUPBY;
+                } else {
+                    StreamingAggregate a = (StreamingAggregate) plan;
+                    groups = new String[a.groupFields().length];
+                    for (int i = 0; i < groups.length; i++)
+                        groups[i] = a.groupFieldName(i);
+                    aggs = new String[a.numAggregates()];
+                    for (int i = 0; i < aggs.length; i++)
+                        aggs[i] = a.aggregateFieldName(i);
+                    symbol = STREAM_GROUPBY;
+                }
 
-                if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                if (groups.length == 0) {
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            String.join(", ", aggs), plan.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
-                    alignTxt = GROUPBY;
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            symbol, String.join(",", groups), String.join(", ", aggs),
+                            plan.getEstimatedCardinality());
+                    alignTxt = symbol;
                 }
+                // partial aggregates are computed per partition of the input
+                if (plan instanceof Aggregate && ((Aggregate) plan).numPartitions() > 1)
+                    thisNode.text += ",parts:" + ((Aggregate) plan).numPartitions();
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
                     upBarShift = alignTxt.length() / 2;
 
@@ -192,17 +296,21 @@ public class QueryPlanVisualizer {
                 thisNode.textStartPosition = thisNode.upBarPosition
                         - alignTxt.length() / 2;
                 thisNode.width = Math.max(child.width,
-                        thisNode.textStartPosition + thisNode.text.length()
+                        thisNode.textStartPosition + thisNode.label().length()
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                String conds = "";
+                for (Predicate p : f.getPredicates()) {
+                    if (conds.length() > 0)
+                        conds += " AND ";
+                    conds += children[0].getTupleDesc().getFieldName(p.getField())
+                            + p.getOp() + p.getOperand();
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        conds, f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -213,7 +321,7 @@ public class QueryPlanVisualizer {
                 thisNode.textStartPosition = thisNode.upBarPosition
                         - SELECT.length() / 2;
                 thisNode.width = Math.max(child.width,
-                        thisNode.textStartPosition + thisNode.text.length()
+                        thisNode.textStartPosition + thisNode.label().length()
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
@@ -234,7 +342,7 @@ public class QueryPlanVisualizer {
                 thisNode.textStartPosition = thisNode.upBarPosition
                         - ORDERBY.length() / 2;
                 thisNode.width = Math.max(child.width,
-                        thisNode.textStartPosition + thisNode.text.length()
+                        thisNode.textStartPosition + thisNode.label().length()
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
@@ -256,7 +364,7 @@ public class QueryPlanVisualizer {
                 thisNode.textStartPosition = thisNode.upBarPosition
                         - PROJECT.length() / 2;
                 thisNode.width = Math.max(child.width,
-                        thisNode.textStartPosition + thisNode.text.length()
+                        thisNode.textStartPosition + thisNode.label().length()
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
@@ -282,14 +390,14 @@ public class QueryPlanVisualizer {
                     thisNode.upBarPosition = upBarShift;
                     thisNode.textStartPosition = thisNode.upBarPosition
                             - name.length() / 2;
-                    thisNode.width = thisNode.textStartPosition + thisNode.text.length()
+                    thisNode.width = thisNode.textStartPosition + thisNode.label().length()
                                     - currentStartPosition;
                 } else {
                     thisNode.upBarPosition = child.upBarPosition;
                     thisNode.textStartPosition = thisNode.upBarPosition
                             - name.length() / 2;
                     thisNode.width = Math.max(child.width,
-                            thisNode.textStartPosition + thisNode.text.length()
+                            thisNode.textStartPosition + thisNode.label().length()
                                     - currentStartPosition);
                     thisNode.leftChild = child;
                 }
@@ -317,14 +425,14 @@ public class QueryPlanVisualizer {
                     thisNode.upBarPosition = upBarShift;
                     thisNode.textStartPosition = thisNode.upBarPosition
                             - RENAME.length() / 2;
-                    thisNode.width = thisNode.textStartPosition + thisNode.text.length()
+                    thisNode.width = thisNode.textStartPosition + thisNode.label().length()
                                     - currentStartPosition;
                 } else {
                     thisNode.upBarPosition = child.upBarPosition;
                     thisNode.textStartPosition = thisNode.upBarPosition
                             - RENAME.length() / 2;
                     thisNode.width = Math.max(child.width,
-                            thisNode.textStartPosition + thisNode.text.length()
+                            thisNode.textStartPosition + thisNode.label().length()
                                     - currentStartPosition);
                     thisNode.leftChild = child;
                 }
@@ -344,7 +452,7 @@ public class QueryPlanVisualizer {
             textHeight = root.height;
 
         int base = width * textHeight + root.textStartPosition;
-        char[] text = root.text.toCharArray();
+        char[] text = root.label().toCharArray();
         System.arraycopy(text, 0, buffer, base, text.length);
 
         if (root.leftChild != null && root.rightChild == null) {
@@ -5,15 +5,33 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk). Tuples can be read one at a time or, through {@link #nextBatch}, in
+ * batches. A scan can also be asked to return only some of the fields of the
+ * table and only the tuples that satisfy a set of predicates; on a
+ * {@link HeapFile} the predicates are then checked before tuples are decoded.
+ * A scan of a HeapFile can be {@link #split} into scans that share its pages
+ * out between them, to be run by different threads.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements OpIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private TransactionId tid;
     private int tableid;
     private String tableAlias;
+    private TupleDesc myTd;
+    private int[] fields;
+    private Predicate[] preds;
     private DbFileIterator iterator;
+    // the number of scans created by split() that share the pages of the
+    // table; their iterators are created by split() and kept across opens
+    private int partitions = 1;
+    // a filter on the values of one field published by a hash join
+    private int filterField = -1;
+    private BloomFilter filter;
+    // the predicate holding the runtime filter of the current run, and the
+    // tuples the filters of earlier runs since open dropped
+    private transient CompiledPredicate filtered;
+    private long runtimeFiltered;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -30,9 +48,28 @@ public class SeqScan implements OpIterator {
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
         // some code goes here
+        this(tid, tableid, tableAlias, null, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns some of the fields of the tuples
+     * of the specified table that satisfy every given predicate.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table, as for
+     *                   {@link #SeqScan(TransactionId, int, String)}
+     * @param fields     the indices in the table of the fields to return, in
+     *                   output order, or null to return every field
+     * @param preds      predicates on the fields of the table (not of the
+     *                   output) that returned tuples must satisfy; may be null
+     *                   or empty
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields, Predicate[] preds) {
         this.tid = tid;
-        this.tableid = tableid;
-        this.tableAlias = tableAlias;
+        this.fields = fields == null ? null : fields.clone();
+        this.preds = preds == null ? new Predicate[0] : preds.clone();
+        reset(tableid, tableAlias);
     }
 
     /**
@@ -52,7 +89,100 @@ public class SeqScan implements OpIterator {
     }
 
     /**
-     * Reset the tableid, and tableAlias of this operator.
+     * @param i the index of a field in the output of this scan
+     * @return the index of the same field in the scanned table
+     */
+    public int tableField(int i) {
+        return fields == null ? i : fields[i];
+    }
+
+    /**
+     * @return the predicates this scan applies, on the fields of the table;
+     * empty if it returns every tuple
+     */
+    public Predicate[] getPredicates() {
+        return preds.clone();
+    }
+
+    /**
+     * Split this scan into scans that together return the tuples of this
+     * one, for a parallel scan. The pages of the table are claimed a few at
+     * a time by whichever of the scans needs more, so the scans finish at
+     * about the same time even if some pages are slower to read than others.
+     * The scans must be opened, rewound and closed together, e.g. as the
+     * children of a {@link Gather}.
+     * <p>
+     * Only a scan of a {@link HeapFile} can be split; any other scan is
+     * returned as it is.
+     *
+     * @param n the number of scans to split into
+     * @return the scans, or this scan alone if it cannot be split
+     */
+    public SeqScan[] split(int n) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (n <= 1 || !(file instanceof HeapFile))
+            return new SeqScan[]{this};
+        PageMorsels shared = new PageMorsels((HeapFile) file);
+        SeqScan[] parts = new SeqScan[n];
+        for (int i = 0; i < n; i++) {
+            parts[i] = new SeqScan(tid, tableid, tableAlias, fields, preds);
+            parts[i].iterator = ((HeapFile) file).iterator(tid, fields, preds, shared);
+            parts[i].partitions = n;
+        }
+        return parts;
+    }
+
+    /**
+     * @return the number of scans the table is shared out between, 1 unless
+     * this scan was created by {@link #split}
+     */
+    public int numPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Drop the tuples whose value of a field is certainly not in a Bloom
+     * filter, from the next call to open or rewind on. A {@link HashEquiJoin}
+     * uses this to pass the keys of its build side to the scan of its probe
+     * side, which then discards most tuples without a match before they are
+     * decoded. The filter turns itself off if it drops too few tuples to be
+     * worth checking. It has no effect on a scan created by {@link #split}.
+     *
+     * @param field  the index of the field in the output of this scan
+     * @param filter the values the field may have, or null to remove the
+     *               filter
+     */
+    public void setRuntimeFilter(int field, BloomFilter filter) {
+        this.filterField = field;
+        this.filter = filter;
+    }
+
+    /**
+     * @return the predicates of this scan and its runtime filter, compiled,
+     * or null if it returns every tuple
+     */
+    private CompiledPredicate compiledPredicate() {
+        CompiledPredicate pred = preds.length == 0 ? null : CompiledPredicate.compile(preds);
+        if (filter != null) {
+            pred = CompiledPredicate.withFilter(pred, tableField(filterField),
+                    myTd.getFieldType(filterField), filter);
+            filtered = pred;
+        }
+        return pred;
+    }
+
+    /**
+     * @return the number of tuples that satisfied the predicates of this scan
+     * but were dropped by its runtime filter, since it was opened
+     */
+    public long runtimeFiltered() {
+        return runtimeFiltered + (filtered == null ? 0 : filtered.droppedByFilter());
+    }
+
+    /**
+     * Reset the tableid, and tableAlias of this operator. The fields and
+     * predicates given to the constructor are kept, but not a runtime filter;
+     * a scan created by {@link #split} goes back to reading the whole table.
      *
      * @param tableid    the table to scan.
      * @param tableAlias the alias of this table (needed by the parser); the returned
@@ -66,6 +196,17 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.partitions = 1;
+        this.filter = null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        int n = fields == null ? td.numFields() : fields.length;
+        String[] newNames = new String[n];
+        Type[] newTypes = new Type[n];
+        for (int i = 0; i < n; i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(tableField(i));
+            newTypes[i] = td.getFieldType(tableField(i));
+        }
+        this.myTd = new TupleDesc(newTypes, newNames);
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -74,7 +215,21 @@ public class SeqScan implements OpIterator {
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        runtimeFiltered = 0;
+        filtered = null;
+        reopen();
+    }
+
+    private void reopen() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (partitions == 1) {
+            if (file instanceof HeapFile)
+                iterator = ((HeapFile) file).iterator(tid, fields, compiledPredicate());
+            else if (fields == null && preds.length == 0 && filter == null)
+                iterator = file.iterator(tid);
+            else
+                iterator = new FilterProjectIterator(file.iterator(tid));
+        }
         iterator.open();
     }
 
@@ -90,7 +245,7 @@ public class SeqScan implements OpIterator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return Database.getCatalog().getTupleDesc(tableid);
+        return myTd;
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -104,6 +259,21 @@ public class SeqScan implements OpIterator {
         return iterator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (iterator instanceof HeapFile.HeapFileIterator) {
+            // filled from the page data, without building a Tuple per row
+            TupleBatch b = new TupleBatch(myTd, TupleBatch.DEFAULT_SIZE);
+            ((HeapFile.HeapFileIterator) iterator).fillBatch(b);
+            return b.size() == 0 ? null : b;
+        }
+        if (!iterator.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(myTd, TupleBatch.DEFAULT_SIZE);
+        while (!b.isFull() && iterator.hasNext())
+            b.addTuple(iterator.next());
+        return b;
+    }
+
     public void close() {
         // some code goes here
         iterator.close();
@@ -113,6 +283,66 @@ public class SeqScan implements OpIterator {
             TransactionAbortedException {
         // some code goes here
         close();
-        open();
+        runtimeFiltered = runtimeFiltered();
+        filtered = null;
+        reopen();
+    }
+
+    /**
+     * Applies the predicates and projection of this scan to the tuples of a
+     * file that cannot evaluate them itself, such as a {@link BTreeFile}.
+     */
+    private class FilterProjectIterator implements DbFileIterator {
+
+        private final DbFileIterator child;
+        private final CompiledPredicate pred;
+        private Tuple next;
+
+        FilterProjectIterator(DbFileIterator child) {
+            this.child = child;
+            this.pred = compiledPredicate();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && child.hasNext()) {
+                Tuple t = child.next();
+                if (pred == null || pred.test(t))
+                    next = project(t);
+            }
+            return next != null;
+        }
+
+        private Tuple project(Tuple t) {
+            if (fields == null)
+                return t;
+            Tuple out = new Tuple(myTd);
+            for (int i = 0; i < fields.length; i++)
+                out.setField(i, t.getField(fields[i]));
+            out.setRecordId(t.getRecordId());
+            return out;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            next = null;
+        }
+
+        public void close() {
+            child.close();
+            next = null;
+        }
     }
 }
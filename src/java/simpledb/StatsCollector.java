@@ -0,0 +1,808 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StatsCollector gathers the statistics {@link TableStats} is built from:
+ * the number of tuples and, for every column, its minimum, maximum,
+ * histogram and a {@link HyperLogLog} sketch of its distinct values, all in
+ * a single pass over each table.
+ * <p>
+ * The pages of a {@link HeapFile} are read straight from the file by threads
+ * of the {@link WorkerPool}, which claim them in morsels (see
+ * {@link PageMorsels}), so a large table is read by all the threads and many
+ * small tables are read at the same time. The pages do not go through the
+ * {@link BufferPool}, so collecting statistics neither evicts the pages
+ * queries are using nor takes any locks; changes that have not been flushed
+ * yet are not seen. Other files are scanned through the buffer pool.
+ * <p>
+ * The histogram of a column is first collected at a fine grain, in {@link
+ * #FINE_BUCKETS} buckets whose width doubles whenever a value falls outside
+ * of them, and turned into an equi-depth {@link IntHistogram} or {@link
+ * StringHistogram} over the final minimum and maximum at the end, so that
+ * its range need not be known before the pass. The most common values of
+ * the column, found along the way, are kept apart from its buckets. For
+ * each pair of columns declared correlated in the {@link Catalog}, a {@link
+ * JointHistogram} of their values is collected in the same pass.
+ * <p>
+ * A heap file with more than {@link #SAMPLE_FACTOR} times the configured
+ * number of sample pages is not read in full: its statistics are estimated
+ * from a random sample of its pages instead, see {@link #sample}.
+ */
+class StatsCollector {
+
+    /** Number of buckets of the histograms collected for integer columns. */
+    static final int FINE_BUCKETS = 4096;
+
+    /** Number of candidates for the most common values of a column. */
+    static final int MCV_CANDIDATES = 2 * TableStats.NUM_MCVS;
+
+    /**
+     * How many times more often than the average value of a column a value
+     * must occur to be one of its most common values.
+     */
+    static final double MCV_FACTOR = 1.25;
+
+    /** Number of tuples kept in the reservoir of a sampled table. */
+    static final int RESERVOIR_SIZE = 30000;
+
+    /** The z-score of the 95% error bounds reported for samples. */
+    private static final double Z_95 = 1.96;
+
+    // heap files with more than SAMPLE_FACTOR * samplePages pages are sampled
+    static final int SAMPLE_FACTOR = 4;
+    private static volatile int samplePages = TableStats.DEFAULT_SAMPLE_PAGES;
+
+    /**
+     * @param pages the number of pages read from a heap file that is
+     *              sampled rather than read in full; 0 to read every file
+     *              in full
+     */
+    static void setSamplePages(int pages) {
+        if (pages < 0)
+            throw new IllegalArgumentException("pages must not be negative");
+        samplePages = pages;
+    }
+
+    /**
+     * Collect the statistics of some files.
+     *
+     * @param files the files to collect statistics of
+     * @return the statistics of each file, in the same order
+     */
+    static Summary[] collect(List<DbFile> files) {
+        return collect(files, samplePages);
+    }
+
+    /**
+     * Collect the statistics of some files.
+     *
+     * @param files  the files to collect statistics of
+     * @param sample the number of pages read from a heap file that is
+     *               sampled rather than read in full; 0 to read every file
+     *               in full
+     * @return the statistics of each file, in the same order
+     */
+    private static Summary[] collect(List<DbFile> files, int sample) {
+        Summary[] result = new Summary[files.size()];
+        List<PageMorsels> morsels = new ArrayList<>();
+        List<Integer> heapFiles = new ArrayList<>();
+        int pages = 0;
+        for (int i = 0; i < files.size(); i++) {
+            DbFile file = files.get(i);
+            if (file instanceof HeapFile && sample > 0
+                    && ((HeapFile) file).numPages() > SAMPLE_FACTOR * sample) {
+                result[i] = sample((HeapFile) file, sample, new Random());
+            } else if (file instanceof HeapFile) {
+                PageMorsels m = new PageMorsels((HeapFile) file);
+                m.open(0);
+                morsels.add(m);
+                heapFiles.add(i);
+                pages += ((HeapFile) file).numPages();
+            } else {
+                result[i] = scan(file);
+            }
+        }
+
+        // read once, so that the partial summaries of a file all agree
+        List<List<int[]>> groups = new ArrayList<>();
+        for (int f : heapFiles)
+            groups.add(columnGroups(files.get(f)));
+
+        int workers = Math.max(1, Math.min(Database.getWorkerPool().getParallelism(),
+                (pages + PageMorsels.MORSEL_PAGES - 1) / PageMorsels.MORSEL_PAGES));
+        Summary[][] partials = new Summary[workers][heapFiles.size()];
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            Summary[] mine = partials[w];
+            tasks.add(() -> {
+                try {
+                    // work through the files in order, helping with each one
+                    // until all of its pages have been claimed
+                    for (int f = 0; f < mine.length; f++) {
+                        HeapFile file = (HeapFile) files.get(heapFiles.get(f));
+                        PageMorsels m = morsels.get(f);
+                        for (int start = m.claim(); start >= 0; start = m.claim()) {
+                            if (mine[f] == null)
+                                mine[f] = new Summary(file.getTupleDesc(), groups.get(f));
+                            for (int p = start; p < m.end(start); p++) {
+                                HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), p));
+                                if (page == null)
+                                    throw new DbException("could not read page " + p + " of table " + file.getId());
+                                mine[f].addPage(page);
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+        }
+        Database.getWorkerPool().submit(tasks).await();
+        if (failure.get() != null)
+            throw new RuntimeException(failure.get());
+
+        for (int f = 0; f < heapFiles.size(); f++) {
+            HeapFile file = (HeapFile) files.get(heapFiles.get(f));
+            Summary s = new Summary(file.getTupleDesc(), groups.get(f));
+            for (Summary[] mine : partials) {
+                if (mine[f] != null)
+                    s.combine(mine[f]);
+            }
+            s.numPages = file.numPages();
+            result[heapFiles.get(f)] = s;
+        }
+        return result;
+    }
+
+    /**
+     * Estimate the statistics of a heap file from a random sample of its
+     * pages. The pages are read in parallel with positional reads of the
+     * file, again bypassing the buffer pool, and their tuples are fed
+     * through a reservoir of at most {@link #RESERVOIR_SIZE} tuples, from
+     * which the histograms are built, their counts scaled up to the size of
+     * the table so that tuples inserted and deleted later weigh as much as
+     * those sampled. The number of tuples is estimated from
+     * the number of tuples on the sampled pages, and the number of distinct
+     * values of each column with the GEE estimator of Charikar et al.,
+     * sqrt(n/r) * f1 + (the number of values seen more than once), where n
+     * is the number of tuples, r the size of the sample and f1 the number of
+     * values seen exactly once.
+     *
+     * @param file   the file to sample
+     * @param pages  the number of pages to read
+     * @param random the source of the pages and tuples to sample
+     * @return the estimated statistics of the file
+     */
+    static Summary sample(HeapFile file, int pages, Random random) {
+        int numPages = file.numPages();
+        if (pages >= numPages)
+            return collect(Collections.<DbFile>singletonList(file), 0)[0];
+
+        // Floyd's algorithm, then sorted so that the file is read forward
+        HashSet<Integer> picked = new HashSet<>();
+        for (int j = numPages - pages; j < numPages; j++) {
+            int p = random.nextInt(j + 1);
+            picked.add(picked.contains(p) ? j : p);
+        }
+        int[] chosen = new int[pages];
+        int n = 0;
+        for (int p : picked)
+            chosen[n++] = p;
+        Arrays.sort(chosen);
+
+        Tuple[][] read = new Tuple[pages][];
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Runnable> tasks = new ArrayList<>();
+        int workers = Math.max(1, Math.min(Database.getWorkerPool().getParallelism(),
+                pages / PageMorsels.MORSEL_PAGES));
+        try (FileChannel channel = FileChannel.open(file.getFile().toPath(), StandardOpenOption.READ)) {
+            for (int w = 0; w < workers; w++) {
+                tasks.add(() -> {
+                    try {
+                        for (int i = next.getAndIncrement(); i < pages; i = next.getAndIncrement())
+                            read[i] = readTuples(file, channel, chosen[i]);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            }
+            Database.getWorkerPool().submit(tasks).await();
+        } catch (IOException e) {
+            failure.compareAndSet(null, e);
+        }
+        if (failure.get() != null)
+            throw new RuntimeException(failure.get());
+
+        // reservoir sampling (algorithm R) over the tuples of the pages
+        Tuple[] reservoir = new Tuple[RESERVOIR_SIZE];
+        long seen = 0;
+        double sum = 0, sumSquares = 0;
+        for (Tuple[] tuples : read) {
+            sum += tuples.length;
+            sumSquares += (double) tuples.length * tuples.length;
+            for (Tuple t : tuples) {
+                if (seen < RESERVOIR_SIZE) {
+                    reservoir[(int) seen] = t;
+                } else {
+                    long j = (long) (random.nextDouble() * (seen + 1));
+                    if (j < RESERVOIR_SIZE)
+                        reservoir[(int) j] = t;
+                }
+                seen++;
+            }
+        }
+        int r = (int) Math.min(seen, RESERVOIR_SIZE);
+
+        Summary s = new Summary(file.getTupleDesc(), columnGroups(file));
+        for (int i = 0; i < r; i++)
+            s.addTuple(reservoir[i]);
+        s.numPages = numPages;
+
+        // the number of tuples, from the mean number of tuples per page
+        double mean = sum / pages;
+        double variance = pages > 1 ? (sumSquares - pages * mean * mean) / (pages - 1) : 0.0;
+        double fpc = 1.0 - (double) pages / numPages;
+        s.numTuples = (int) Math.round(mean * numPages);
+        s.weight = r == 0 ? 1.0 : (double) s.numTuples / r;
+        for (JointHistogram j : s.joints)
+            j.scale(s.weight);
+        s.tuplesError = (int) Math.ceil(Z_95 * numPages * Math.sqrt(Math.max(0.0, variance) / pages * fpc));
+        s.selectivityError = r == 0 ? 0.0 : Z_95 * Math.sqrt(0.25 / r);
+
+        int fields = file.getTupleDesc().numFields();
+        s.distinct = new int[fields];
+        s.minDistinct = new int[fields];
+        s.maxDistinct = new int[fields];
+        for (int f = 0; f < fields; f++) {
+            HashMap<Field, Integer> freq = new HashMap<>();
+            for (int i = 0; i < r; i++)
+                freq.merge(reservoir[i].getField(f), 1, Integer::sum);
+            int f1 = 0;
+            for (int c : freq.values()) {
+                if (c == 1)
+                    f1++;
+            }
+            int repeated = freq.size() - f1;
+            double scale = r == 0 ? 1.0 : (double) s.numTuples / r;
+            s.minDistinct[f] = freq.size();
+            s.maxDistinct[f] = (int) Math.max(freq.size(), Math.min(s.numTuples, Math.ceil(scale * f1 + repeated)));
+            s.distinct[f] = (int) Math.max(s.minDistinct[f],
+                    Math.min(s.maxDistinct[f], Math.round(Math.sqrt(scale) * f1 + repeated)));
+        }
+        return s;
+    }
+
+    /**
+     * @return the pairs of columns of a file declared correlated in the
+     * catalog, none if it is not in the catalog
+     */
+    private static List<int[]> columnGroups(DbFile file) {
+        try {
+            return Database.getCatalog().getColumnGroups(file.getId());
+        } catch (NoSuchElementException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /** @return the counts, each multiplied by weight and rounded */
+    private static int[] scale(int[] counts, double weight) {
+        int[] scaled = new int[counts.length];
+        for (int i = 0; i < counts.length; i++)
+            scaled[i] = (int) Math.round(counts[i] * weight);
+        return scaled;
+    }
+
+    /**
+     * Read the tuples of a page of a heap file with a positional read.
+     */
+    private static Tuple[] readTuples(HeapFile file, FileChannel channel, int page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        long position = (long) page * pageSize;
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0)
+                break;
+        }
+        HeapPage p = new HeapPage(new HeapPageId(file.getId(), page), buf.array());
+        ArrayList<Tuple> tuples = new ArrayList<>();
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            tuples.add(it.next());
+        return tuples.toArray(new Tuple[0]);
+    }
+
+    /**
+     * Collect the statistics of a file by scanning it through the buffer
+     * pool in a transaction of its own.
+     */
+    private static Summary scan(DbFile file) {
+        Summary s = new Summary(file.getTupleDesc(), columnGroups(file));
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext())
+                s.addTuple(it.next());
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (file instanceof BTreeFile)
+            s.numPages = ((BTreeFile) file).numPages();
+        return s;
+    }
+
+    /**
+     * The statistics of one table, or of the part of it read by one thread.
+     */
+    static class Summary {
+
+        private final TupleDesc td;
+        private final Column[] columns;
+        // the joint distribution of each pair of correlated columns
+        private final JointHistogram[] joints;
+        private int numTuples;
+        private int numPages;
+        // the number of tuples of the table each tuple counted stands for: 1,
+        // or the size of the table over the size of the sample
+        private double weight = 1.0;
+        // set if the statistics were estimated from a sample: the 95% error
+        // bounds of the number of tuples and of selectivities, and the
+        // estimated number of distinct values of each column with its bounds
+        private int tuplesError;
+        private double selectivityError;
+        private int[] distinct;
+        private int[] minDistinct;
+        private int[] maxDistinct;
+
+        Summary(TupleDesc td, List<int[]> groups) {
+            this.td = td;
+            this.columns = new Column[td.numFields()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = new Column();
+            }
+            this.joints = new JointHistogram[groups.size()];
+            for (int g = 0; g < joints.length; g++)
+                joints[g] = new JointHistogram(groups.get(g)[0], groups.get(g)[1]);
+        }
+
+        void addPage(HeapPage page) {
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext())
+                addTuple(it.next());
+        }
+
+        void addTuple(Tuple t) {
+            numTuples++;
+            for (int i = 0; i < columns.length; i++) {
+                Field f = t.getField(i);
+                if (f.getType() == Type.INT_TYPE) {
+                    int v = ((IntField) f).getValue();
+                    columns[i].add(v, v);
+                } else {
+                    String v = ((StringField) f).getValue();
+                    columns[i].add(StringHistogram.stringToInt(v), v);
+                }
+            }
+            for (JointHistogram j : joints)
+                j.addTuple(t);
+        }
+
+        void combine(Summary other) {
+            numTuples += other.numTuples;
+            for (int i = 0; i < columns.length; i++)
+                columns[i].combine(other.columns[i]);
+            for (int g = 0; g < joints.length; g++)
+                joints[g].combine(other.joints[g]);
+        }
+
+        TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        int numTuples() {
+            return numTuples;
+        }
+
+        /** @return the number of pages of the file, 0 if it is not known */
+        int numPages() {
+            return numPages;
+        }
+
+        /**
+         * @return the joint distributions of the pairs of columns declared
+         * correlated when the statistics were collected
+         */
+        JointHistogram[] jointHistograms() {
+            return joints;
+        }
+
+        /** @return the smallest value of an integer column, 0 if it is empty */
+        int min(int field) {
+            Column c = columns[field];
+            return c.values == 0 ? 0 : c.min;
+        }
+
+        /** @return the largest value of an integer column, 0 if it is empty */
+        int max(int field) {
+            Column c = columns[field];
+            return c.values == 0 ? 0 : c.max;
+        }
+
+        /** @return true if the statistics were estimated from a sample */
+        boolean isSampled() {
+            return distinct != null;
+        }
+
+        int tuplesError() {
+            return tuplesError;
+        }
+
+        double selectivityError() {
+            return selectivityError;
+        }
+
+        /** @return the lowest number of distinct values the column may have */
+        int minDistinct(int field) {
+            if (isSampled())
+                return minDistinct[field];
+            int d = numDistinct(field);
+            return Math.min(d, (int) Math.ceil(d * (1 - HyperLogLog.relativeError())));
+        }
+
+        /** @return the highest number of distinct values the column may have */
+        int maxDistinct(int field) {
+            if (isSampled())
+                return maxDistinct[field];
+            int d = numDistinct(field);
+            return (int) Math.min(numTuples, Math.floor(d * (1 + HyperLogLog.relativeError())));
+        }
+
+        int numDistinct(int field) {
+            if (isSampled())
+                return distinct[field];
+            return (int) Math.min(numTuples, sketch(field).estimate());
+        }
+
+        /**
+         * @return the sketch of the distinct values of a column; for a
+         * sampled table, of those in the sample
+         */
+        HyperLogLog sketch(int field) {
+            return columns[field].distinct;
+        }
+
+        /**
+         * @return an equi-depth histogram of an integer column over its
+         * minimum and maximum, with its most common values
+         */
+        IntHistogram intHistogram(int field, int buckets) {
+            List<Map.Entry<Object, Integer>> common = mostCommon(field);
+            int[] mcvs = new int[common.size()];
+            int[] mcvCounts = new int[common.size()];
+            for (int m = 0; m < mcvs.length; m++) {
+                mcvs[m] = (Integer) common.get(m).getKey();
+                mcvCounts[m] = common.get(m).getValue();
+            }
+            return columns[field].histogram(buckets, min(field), max(field),
+                    mcvs, mcvCounts, numDistinct(field), true, weight);
+        }
+
+        /**
+         * @return a histogram of a string column, equi-depth over the
+         * integers the strings map to, with its most common values
+         */
+        StringHistogram stringHistogram(int field, int buckets) {
+            List<Map.Entry<Object, Integer>> common = mostCommon(field);
+            String[] mcvs = new String[common.size()];
+            int[] codes = new int[common.size()];
+            int[] mcvCounts = new int[common.size()];
+            for (int m = 0; m < mcvs.length; m++) {
+                mcvs[m] = (String) common.get(m).getKey();
+                codes[m] = StringHistogram.stringToInt(mcvs[m]);
+                mcvCounts[m] = common.get(m).getValue();
+            }
+            IntHistogram hist = columns[field].histogram(buckets, StringHistogram.minVal(),
+                    StringHistogram.maxVal(), codes, mcvCounts, numDistinct(field), false, weight);
+            return new StringHistogram(hist, mcvs, scale(mcvCounts, weight));
+        }
+
+        /**
+         * @return the most common values of a column and their counts,
+         * sorted by value: at most {@link TableStats#NUM_MCVS} of the values
+         * seen at least twice and more than {@link #MCV_FACTOR} times as
+         * often as the average value
+         */
+        private List<Map.Entry<Object, Integer>> mostCommon(int field) {
+            Column c = columns[field];
+            ArrayList<Map.Entry<Object, Integer>> common = new ArrayList<>();
+            for (Map.Entry<Object, Integer> e : c.frequent.entrySet())
+                common.add(new AbstractMap.SimpleEntry<>(e.getKey(), c.count(e.getKey(), e.getValue())));
+            common.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
+            double threshold = Math.max(2, MCV_FACTOR * c.values / Math.max(1, numDistinct(field)));
+            int n = 0;
+            while (n < Math.min(common.size(), TableStats.NUM_MCVS) && common.get(n).getValue() >= threshold)
+                n++;
+            List<Map.Entry<Object, Integer>> mcvs = new ArrayList<>(common.subList(0, n));
+            mcvs.sort((a, b) -> compareValues(a.getKey(), b.getKey()));
+            return mcvs;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static int compareValues(Object a, Object b) {
+            return ((Comparable<Object>) a).compareTo(b);
+        }
+    }
+
+    /**
+     * The values seen in a column: their range and a histogram with {@link
+     * #FINE_BUCKETS} buckets of width 2^shift starting at base, both over
+     * the integers the values map to (the values themselves in an integer
+     * column, see {@link StringHistogram#stringToInt} for strings), a
+     * 64-bit bitmap per bucket for counting the distinct values in it, a
+     * sketch of the distinct values of the whole column, and the candidates
+     * for the most common values with their counts.
+     * <p>
+     * The candidates are kept with the Misra-Gries algorithm: once there
+     * are more than twice {@link #MCV_CANDIDATES} of them, the count of the
+     * next most common one is taken off every count, and the values whose
+     * count drops to 0 are forgotten. A count is then at most n / ({@link
+     * #MCV_CANDIDATES} + 1) short of the number of occurrences of its value,
+     * where n is the number of values seen, and every value occurring more
+     * often than that is a candidate. Candidates collected by several
+     * threads are combined the same way. The count plus everything taken
+     * off the counts is exact for a value that has been a candidate since it
+     * was first seen, as the most common values nearly always are, and too
+     * high for any other, so it is used capped by the count of the fine
+     * bucket of the value.
+     */
+    private static class Column {
+
+        final int[] counts = new int[FINE_BUCKETS];
+        // for each fine bucket, a bit set by the hash of each value in it
+        final long[] seen = new long[FINE_BUCKETS];
+        final HyperLogLog distinct = new HyperLogLog();
+        final HashMap<Object, Integer> frequent = new HashMap<>();
+        // the total taken off the count of every candidate
+        long pruned;
+        long base;
+        int shift;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long values;
+
+        /**
+         * Add a value.
+         *
+         * @param code  the integer the value maps to
+         * @param value the value, an Integer or a String
+         */
+        void add(int code, Object value) {
+            if (code < base || code >= base + ((long) FINE_BUCKETS << shift))
+                cover(Math.min(code, min), Math.max(code, max));
+            int b = bucketOf(code);
+            counts[b]++;
+            seen[b] |= 1L << ((value.hashCode() * 0x9E3779B9) >>> 26);
+            values++;
+            min = Math.min(min, code);
+            max = Math.max(max, code);
+            distinct.add(value.hashCode());
+            frequent.merge(value, 1, Integer::sum);
+            if (frequent.size() > 2 * MCV_CANDIDATES)
+                pruneFrequent();
+        }
+
+        /**
+         * @return the estimated number of occurrences of a candidate with a
+         * given count
+         */
+        int count(Object value, int count) {
+            int code = value instanceof Integer ? (Integer) value
+                    : StringHistogram.stringToInt((String) value);
+            return (int) Math.min(count + pruned, counts[bucketOf(code)]);
+        }
+
+        /** @return the fine bucket of a code within the histogram */
+        int bucketOf(int code) {
+            return (int) ((code - base) >>> shift);
+        }
+
+        /**
+         * Build an equi-depth histogram from the fine one. Its buckets end
+         * at the ends of fine buckets, each holding about as many values
+         * other than the most common ones. The number of distinct values in
+         * each bucket is estimated from the bitmaps of its fine buckets, and
+         * scaled to add up to the distinct values of the whole column.
+         *
+         * @param buckets   the largest number of buckets
+         * @param lo        the smallest value the histogram covers
+         * @param hi        the largest value the histogram covers
+         * @param mcvCodes  the codes of the most common values, sorted
+         * @param mcvCounts the number of occurrences of each of them
+         * @param distinct  the number of distinct values of the column
+         * @param keepMcvs  true if the histogram is to hold the most common
+         *                  values; otherwise they are only left out of it
+         * @param weight    the number of values each value seen stands for,
+         *                  which the counts of the histogram are scaled by
+         */
+        IntHistogram histogram(int buckets, int lo, int hi, int[] mcvCodes, int[] mcvCounts,
+                               long distinct, boolean keepMcvs, double weight) {
+            int[] rest = counts.clone();
+            double[] kinds = new double[FINE_BUCKETS];
+            for (int b = 0; b < FINE_BUCKETS; b++) {
+                if (counts[b] > 0)
+                    kinds[b] = Math.min(Math.min(1L << shift, counts[b]), linearCount(seen[b]));
+            }
+            for (int m = 0; m < mcvCodes.length; m++) {
+                if (mcvCodes[m] >= base && mcvCodes[m] < base + ((long) FINE_BUCKETS << shift)) {
+                    int b = bucketOf(mcvCodes[m]);
+                    rest[b] = Math.max(0, rest[b] - mcvCounts[m]);
+                    kinds[b] = Math.max(0, kinds[b] - 1);
+                }
+            }
+            long total = 0;
+            double allKinds = 0;
+            for (int b = 0; b < FINE_BUCKETS; b++) {
+                total += rest[b];
+                allKinds += kinds[b];
+            }
+            double scale = allKinds == 0 ? 0 : Math.max(0, distinct - mcvCodes.length) / allKinds;
+
+            ArrayList<Long> starts = new ArrayList<>();
+            ArrayList<Integer> depths = new ArrayList<>();
+            ArrayList<Integer> distincts = new ArrayList<>();
+            starts.add((long) lo);
+            long seenValues = 0;
+            int depth = 0;
+            double kind = 0;
+            for (int b = 0; b < FINE_BUCKETS && values > 0; b++) {
+                long end = base + ((long) (b + 1) << shift);
+                seenValues += rest[b];
+                depth += rest[b];
+                kind += kinds[b];
+                if (depths.size() < buckets - 1 && depth > 0 && end <= hi && end > starts.get(starts.size() - 1)
+                        && seenValues * buckets >= (depths.size() + 1) * total) {
+                    starts.add(end);
+                    depths.add(depth);
+                    distincts.add((int) Math.max(1, Math.round(kind * scale)));
+                    depth = 0;
+                    kind = 0;
+                }
+            }
+            starts.add(hi + 1L);
+            depths.add(depth);
+            distincts.add((int) Math.max(depth > 0 ? 1 : 0, Math.round(kind * scale)));
+
+            long[] s = new long[starts.size()];
+            int[] c = new int[depths.size()];
+            int[] d = new int[depths.size()];
+            for (int i = 0; i < c.length; i++) {
+                s[i] = starts.get(i);
+                c[i] = (int) Math.round(depths.get(i) * weight);
+                d[i] = distincts.get(i);
+            }
+            s[c.length] = starts.get(c.length);
+            return keepMcvs ? new IntHistogram(s, c, d, mcvCodes, scale(mcvCounts, weight))
+                    : new IntHistogram(s, c, d, new int[0], new int[0]);
+        }
+
+        /**
+         * @return the number of distinct values that set the bits of a
+         * bitmap, estimated by linear counting; infinite if all are set
+         */
+        private static double linearCount(long bits) {
+            int zeros = Long.SIZE - Long.bitCount(bits);
+            return zeros == 0 ? Double.POSITIVE_INFINITY : Long.SIZE * Math.log((double) Long.SIZE / zeros);
+        }
+
+        /**
+         * Move the buckets, and widen them as little as possible, so that
+         * they cover lo..hi, which includes every value seen so far.
+         */
+        private void cover(long lo, long hi) {
+            while (true) {
+                long newBase = Math.floorDiv(lo, 1L << shift) << shift;
+                if (hi < newBase + ((long) FINE_BUCKETS << shift)) {
+                    int[] old = counts.clone();
+                    long[] oldSeen = seen.clone();
+                    Arrays.fill(counts, 0);
+                    Arrays.fill(seen, 0);
+                    int moved = (int) ((base - newBase) >> shift);
+                    for (int b = 0; b < FINE_BUCKETS; b++) {
+                        if (old[b] != 0) {
+                            counts[b + moved] = old[b];
+                            seen[b + moved] = oldSeen[b];
+                        }
+                    }
+                    base = newBase;
+                    return;
+                }
+                widen();
+            }
+        }
+
+        /**
+         * Double the width of the buckets, merging them in pairs, so that
+         * the histogram covers twice the range.
+         */
+        private void widen() {
+            long width = 2L << shift;
+            long newBase = Math.floorDiv(base, width) * width;
+            int[] old = counts.clone();
+            long[] oldSeen = seen.clone();
+            Arrays.fill(counts, 0);
+            Arrays.fill(seen, 0);
+            for (int b = 0; b < FINE_BUCKETS; b++) {
+                if (old[b] != 0) {
+                    int to = (int) ((base + ((long) b << shift) - newBase) / width);
+                    counts[to] += old[b];
+                    seen[to] |= oldSeen[b];
+                }
+            }
+            base = newBase;
+            shift++;
+        }
+
+        void combine(Column other) {
+            if (other.values == 0)
+                return;
+            while (shift < other.shift)
+                widen();
+            cover(Math.min(min, other.min), Math.max(max, other.max));
+            // each bucket of other now lies within a single bucket of this
+            // histogram, which is at least as wide
+            for (int b = 0; b < FINE_BUCKETS; b++) {
+                if (other.counts[b] != 0) {
+                    int to = (int) ((other.base + ((long) b << other.shift) - base) >>> shift);
+                    counts[to] += other.counts[b];
+                    seen[to] |= other.seen[b];
+                }
+            }
+            values += other.values;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            distinct.merge(other.distinct);
+            for (Map.Entry<Object, Integer> e : other.frequent.entrySet())
+                frequent.merge(e.getKey(), e.getValue(), Integer::sum);
+            pruned += other.pruned;
+            if (frequent.size() > 2 * MCV_CANDIDATES)
+                pruneFrequent();
+        }
+
+        /**
+         * Take the count of the candidate ranked {@link #MCV_CANDIDATES} + 1
+         * off every candidate, leaving at most {@link #MCV_CANDIDATES}.
+         */
+        private void pruneFrequent() {
+            int[] c = new int[frequent.size()];
+            int i = 0;
+            for (int v : frequent.values())
+                c[i++] = v;
+            Arrays.sort(c);
+            int cut = c[c.length - 1 - MCV_CANDIDATES];
+            frequent.replaceAll((k, v) -> v - cut);
+            pruned += cut;
+            frequent.values().removeIf(v -> v <= 0);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * StatsFile keeps the {@link TableStats} of the tables of a catalog in a
+ * file, so that they need not be computed again every time the database is
+ * started. The statistics of each table are stored with a marker of the
+ * table's data file, its length and the time it was last modified, taken
+ * before the statistics were collected; the statistics of a table are stale
+ * once its data file no longer matches the marker, or once the column groups
+ * declared for the table are not those they keep joint histograms of.
+ *
+ * @Threadsafe
+ */
+class StatsFile {
+
+    private final File file;
+    private final HashMap<String, Entry> entries;
+
+    /**
+     * Open a statistics file, reading the statistics it holds. A file that
+     * does not exist or cannot be read holds no statistics.
+     *
+     * @param file the statistics file
+     */
+    @SuppressWarnings("unchecked")
+    StatsFile(File file) {
+        this.file = file;
+        HashMap<String, Entry> read = new HashMap<String, Entry>();
+        if (file.exists()) {
+            try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+                read = (HashMap<String, Entry>) in.readObject();
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                System.out.println("Ignoring unreadable statistics file " + file + ": " + e);
+            }
+        }
+        this.entries = read;
+    }
+
+    /**
+     * @return the marker of the data file of a table, or null if its state
+     * cannot be told, in which case its statistics are never current
+     */
+    static long[] marker(DbFile f) {
+        File data = null;
+        if (f instanceof HeapFile)
+            data = ((HeapFile) f).getFile();
+        else if (f instanceof BTreeFile)
+            data = ((BTreeFile) f).getFile();
+        if (data == null)
+            return null;
+        return new long[]{data.length(), data.lastModified()};
+    }
+
+    /**
+     * @param name the name of a table
+     * @param td   the schema the table has now
+     * @return the stored statistics of the table, or null if there are none
+     * or they were collected for different column types
+     */
+    synchronized TableStats get(String name, TupleDesc td) {
+        Entry e = entries.get(name);
+        if (e == null)
+            return null;
+        TupleDesc stored = e.stats.getTupleDesc();
+        if (stored.numFields() != td.numFields())
+            return null;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (stored.getFieldType(i) != td.getFieldType(i))
+                return null;
+        }
+        return e.stats;
+    }
+
+    /**
+     * @param groups the column groups declared for the table now, see
+     *               {@link Catalog#getColumnGroups}
+     * @return true if the stored statistics of a table were collected from
+     * the data file as it is now, for the same column groups
+     */
+    synchronized boolean isCurrent(String name, DbFile f, List<int[]> groups) {
+        Entry e = entries.get(name);
+        long[] now = marker(f);
+        return e != null && e.marker != null && now != null
+                && e.marker[0] == now[0] && e.marker[1] == now[1]
+                && e.stats.hasColumnGroups(groups);
+    }
+
+    /**
+     * Record the statistics of a table; they are written by the next call
+     * to {@link #save}.
+     *
+     * @param marker the marker of the data file taken before the statistics
+     *               were collected
+     */
+    synchronized void put(String name, long[] marker, TableStats stats) {
+        entries.put(name, new Entry(marker, stats));
+    }
+
+    /**
+     * Write the statistics to the file. They are first written to a
+     * temporary file, which then replaces the old one, so that the file is
+     * never left half written.
+     */
+    synchronized void save() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp))) {
+            out.writeObject(entries);
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("could not replace " + file);
+        }
+    }
+
+    private static class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final long[] marker;
+        final TableStats stats;
+
+        Entry(long[] marker, TableStats stats) {
+            this.marker = marker;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamingAggregate computes the same aggregates as {@link Aggregate}, but
+ * relies on its child delivering tuples clustered on the group-by fields,
+ * e.g. from an {@link OrderBy} or a scan of a {@link BTreeFile} on its key.
+ * Only the group currently being read is kept in memory, and each group is
+ * returned as soon as the next group key shows up.
+ */
+public class StreamingAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+    private final MultiFieldAggregator layout;
+
+    private Tuple lookahead;
+    private boolean done;
+
+    /**
+     * Constructor.
+     *
+     * @param child   The OpIterator that is feeding us tuples; tuples with
+     *                equal values in gfields must arrive one after another.
+     * @param afields The columns over which we are computing aggregates.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aops    The aggregation operator to apply to each of afields
+     */
+    public StreamingAggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.layout = new MultiFieldAggregator(td, gfields, afields, aops);
+    }
+
+    /**
+     * @return the group-by field indices in the <b>INPUT</b> tuples, in the
+     * order they appear in the output; empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @param i the index of a group-by field
+     * @return the name of the ith group-by field in the <b>OUTPUT</b> tuples
+     */
+    public String groupFieldName(int i) {
+        return td.getFieldName(gfields[i]);
+    }
+
+    /**
+     * @return the number of aggregate expressions computed by this operator
+     */
+    public int numAggregates() {
+        return afields.length;
+    }
+
+    /**
+     * @param i the index of an aggregate expression
+     * @return the name of the ith aggregate field in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName(int i) {
+        return aops[i].toString() + "(" + td.getFieldName(afields[i]) + ")";
+    }
+
+    /**
+     * Decide whether the tuples of it arrive clustered on the given field, so
+     * that a StreamingAggregate grouping on it can be placed on top of it.
+     *
+     * @param it    the operator whose output order is checked
+     * @param field the index of a field in the TupleDesc of it
+     * @return true if tuples with equal values in field are known to be
+     * adjacent in the output of it
+     */
+    public static boolean isOrderedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            return ((OrderBy) it).getOrderByField() == field;
+        } else if (it instanceof Filter) {
+            return isOrderedOn(((Filter) it).getChildren()[0], field);
+        } else if (it instanceof Join) {
+            // the nested loops join keeps the order of its outer input
+            OpIterator outer = ((Join) it).getChildren()[0];
+            return field < outer.getTupleDesc().numFields() && isOrderedOn(outer, field);
+        } else if (it instanceof SeqScan) {
+            SeqScan scan = (SeqScan) it;
+            return isBTreeKey(scan.getTableName(), scan.tableField(field));
+        } else if (it instanceof BTreeScan) {
+            return isBTreeKey(((BTreeScan) it).getTableName(), field);
+        }
+        return false;
+    }
+
+    private static boolean isBTreeKey(String tableName, int field) {
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(tableName));
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        super.open();
+        child.open();
+        lookahead = null;
+        done = false;
+    }
+
+    public void close() {
+        child.close();
+        lookahead = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        lookahead = null;
+        done = false;
+    }
+
+    /**
+     * Returns the next group. Tuples are read from the child until one with a
+     * different group key appears; that tuple is held back as the first tuple
+     * of the following group. Without grouping, an empty input produces no
+     * tuples, like {@link Aggregate}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (lookahead == null) {
+            if (done || !child.hasNext())
+                return null;
+            lookahead = child.next();
+        }
+        List<Field> key = layout.groupKey(lookahead);
+        AggregateState[] states = layout.newStates();
+        layout.mergeInto(states, lookahead);
+        lookahead = null;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!layout.groupKey(t).equals(key)) {
+                lookahead = t;
+                break;
+            }
+            layout.mergeInto(states, t);
+        }
+        if (lookahead == null)
+            done = true;
+        return layout.makeTuple(key, states);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return layout.aggregatedTupleDesc();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
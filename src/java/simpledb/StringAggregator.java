@@ -72,6 +72,14 @@ public class StringAggregator implements Aggregator {
         }
     }
 
+    @Override
+    public void combine(Aggregator partial) {
+        if (!(partial instanceof StringAggregator))
+            throw new IllegalArgumentException("Cannot combine with " + partial);
+        for (Map.Entry<Field, Integer> e : ((StringAggregator) partial).groupMap.entrySet())
+            groupMap.merge(e.getKey(), e.getValue(), Integer::sum);
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      *
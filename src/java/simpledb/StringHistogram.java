@@ -1,11 +1,24 @@
 package simpledb;
 
+import java.io.Serializable;
+import java.util.Arrays;
+
 /**
- * A class to represent a fixed-width histogram over a single String-based
- * field.
+ * A class to represent a histogram over a single String-based field.
+ * <p>
+ * Strings are mapped to integers by their first four characters and kept in
+ * an {@link IntHistogram}, except for the most common values of the column,
+ * which are kept apart with their exact counts. Strings sharing their first
+ * characters can therefore still be told apart if they are common.
  */
-public class StringHistogram {
+public class StringHistogram implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
     final IntHistogram hist;
+    // the most common values, sorted, and their counts
+    private final String[] mcvs;
+    private final int[] mcvCounts;
 
     /**
      * Create a new StringHistogram with a specified number of buckets.
@@ -17,14 +30,29 @@ public class StringHistogram {
      *            the number of buckets
      */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        this(new IntHistogram(buckets, minVal(), maxVal()), new String[0], new int[0]);
+    }
+
+    /**
+     * Create a histogram of strings from a histogram of the integers they
+     * map to and a list of most common values.
+     *
+     * @param hist      the histogram of the other strings, mapped by {@link
+     *                  #stringToInt}; it must cover every string
+     * @param mcvs      the most common values, sorted
+     * @param mcvCounts the number of occurrences of each of mcvs
+     */
+    StringHistogram(IntHistogram hist, String[] mcvs, int[] mcvCounts) {
+        this.hist = hist;
+        this.mcvs = mcvs;
+        this.mcvCounts = mcvCounts;
     }
 
     /**
      * Convert a string to an integer, with the property that if the return
      * value(s1) < return value(s2), then s1 < s2
      */
-    private int stringToInt(String s) {
+    static int stringToInt(String s) {
         int i;
         int v = 0;
         for (i = 3; i >= 0; i--) {
@@ -50,19 +78,43 @@ public class StringHistogram {
     }
 
     /** @return the maximum value indexed by the histogram */
-    int maxVal() {
+    static int maxVal() {
         return stringToInt("zzzz");
     }
 
     /** @return the minimum value indexed by the histogram */
-    int minVal() {
+    static int minVal() {
         return stringToInt("");
     }
 
     /** Add a new value to thte histogram */
     public void addValue(String s) {
-        int val = stringToInt(s);
-        hist.addValue(val);
+        int m = mcvs.length == 0 ? -1 : Arrays.binarySearch(mcvs, s);
+        if (m >= 0)
+            mcvCounts[m]++;
+        else
+            hist.addValue(stringToInt(s));
+    }
+
+    /** Remove a value added before from the histogram */
+    void removeValue(String s) {
+        int m = mcvs.length == 0 ? -1 : Arrays.binarySearch(mcvs, s);
+        if (m < 0)
+            hist.removeValue(stringToInt(s));
+        else if (mcvCounts[m] > 0)
+            mcvCounts[m]--;
+    }
+
+    /**
+     * Add the values of another StringHistogram with the same number of
+     * buckets and the same most common values to this one.
+     */
+    public void combine(StringHistogram other) {
+        if (!Arrays.equals(other.mcvs, mcvs))
+            throw new IllegalArgumentException("Histograms have different MCVs");
+        hist.combine(other.hist);
+        for (int m = 0; m < mcvs.length; m++)
+            mcvCounts[m] += other.mcvCounts[m];
     }
 
     /**
@@ -76,7 +128,53 @@ public class StringHistogram {
      */
     public double estimateSelectivity(Predicate.Op op, String s) {
         int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
+        if (mcvs.length == 0)
+            return hist.estimateSelectivity(op, val);
+        // the MCVs the predicate holds for, counted exactly
+        long matching = 0;
+        long total = hist.numValues();
+        for (int m = 0; m < mcvs.length; m++) {
+            total += mcvCounts[m];
+            int cmp = mcvs[m].compareTo(s);
+            boolean holds;
+            switch (op) {
+                case EQUALS: holds = cmp == 0; break;
+                case NOT_EQUALS: holds = cmp != 0; break;
+                case LIKE: holds = mcvs[m].contains(s); break;
+                case GREATER_THAN: holds = cmp > 0; break;
+                case GREATER_THAN_OR_EQ: holds = cmp >= 0; break;
+                case LESS_THAN: holds = cmp < 0; break;
+                case LESS_THAN_OR_EQ: holds = cmp <= 0; break;
+                default: throw new IllegalArgumentException("Unknown operator " + op);
+            }
+            if (holds)
+                matching += mcvCounts[m];
+        }
+        if (total == 0)
+            return hist.estimateSelectivity(op, val);
+        double rest = (op == Predicate.Op.EQUALS && Arrays.binarySearch(mcvs, s) >= 0) ? 0.0
+                : hist.estimateSelectivity(op, val) * hist.numValues();
+        return (matching + rest) / total;
+    }
+
+    /**
+     * @return the estimated fraction of the strings that map to the integers
+     * from lo to hi, inclusive, see {@link #stringToInt}
+     */
+    double codeSelectivity(long lo, long hi) {
+        if (mcvs.length == 0)
+            return hist.rangeSelectivity(lo, hi);
+        long matching = 0;
+        long total = hist.numValues();
+        for (int m = 0; m < mcvs.length; m++) {
+            total += mcvCounts[m];
+            int code = stringToInt(mcvs[m]);
+            if (code >= lo && code <= hi)
+                matching += mcvCounts[m];
+        }
+        if (total == 0)
+            return 0.0;
+        return (matching + hist.rangeSelectivity(lo, hi) * hist.numValues()) / total;
     }
 
     /**
@@ -87,6 +185,17 @@ public class StringHistogram {
      *         efficient optimization
      * */
     public double avgSelectivity() {
-        return hist.avgSelectivity();
+        long total = hist.numValues();
+        for (int c : mcvCounts)
+            total += c;
+        if (mcvs.length == 0 || total == 0)
+            return hist.avgSelectivity();
+        double rest = (double) hist.numValues() / total;
+        double sel = hist.avgSelectivity() * rest * rest;
+        for (int c : mcvCounts) {
+            double f = (double) c / total;
+            sel += f * f;
+        }
+        return sel;
     }
 }
@@ -1,9 +1,24 @@
 package simpledb;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -11,22 +26,77 @@ import java.util.concurrent.ConcurrentHashMap;
  * 
  * This class is not needed in implementing lab1 and lab2.
  */
-public class TableStats {
+public class TableStats implements Serializable {
+
+    private static final long serialVersionUID = 2L;
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
 
+    // counts the times the statistics of a table were replaced
+    private static final AtomicLong version = new AtomicLong();
+
     static final int IOCOSTPERPAGE = 1000;
 
+    /**
+     * The suffix of the name of the file the cost constants measured by
+     * {@link CostCalibrator} are kept in, next to the catalog file.
+     */
+    public static final String COSTS_FILE_SUFFIX = ".costs";
+
+    // the cost of reading the next page of a file, of reading a page at
+    // random and of finding a page in the buffer pool, where applying a
+    // predicate to a tuple costs 1
+    private static volatile double seqPageCost = IOCOSTPERPAGE;
+    private static volatile double randomPageCost = IOCOSTPERPAGE;
+    private static volatile double cachedPageCost = 1;
+
+    /**
+     * The suffix of the name of the file the statistics of the tables of a
+     * catalog are kept in, next to the catalog file.
+     */
+    public static final String STATS_FILE_SUFFIX = ".stats";
+
+    /**
+     * The default fraction of the tuples of a table that may be inserted or
+     * deleted before its statistics are computed again from scratch.
+     */
+    public static final double DEFAULT_REANALYZE_DRIFT = 0.2;
+
+    private static volatile double reanalyzeDrift = DEFAULT_REANALYZE_DRIFT;
+
+    /** The default number of pages read to sample a large table. */
+    public static final int DEFAULT_SAMPLE_PAGES = 2048;
+
+    // computes stale statistics in the background, one table set at a time
+    private static final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "simpledb-stats");
+        t.setDaemon(true);
+        return t;
+    });
+    // the tuples inserted and deleted by each running transaction, applied
+    // to the statistics when it commits and dropped if it aborts
+    private static final ConcurrentHashMap<TransactionId, List<Change>> uncommitted =
+            new ConcurrentHashMap<>();
+    // the tables whose statistics have drifted, to be refreshed once the
+    // transaction that changed them ends
+    private static final Set<Integer> drifted = ConcurrentHashMap.newKeySet();
+    // the tables waiting to be refreshed
+    private static final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+    // where refreshed statistics are saved, if they were loaded from a file
+    private static volatile StatsFile store;
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        version.incrementAndGet();
     }
     
     public static void setStatsMap(HashMap<String,TableStats> s)
     {
+        version.incrementAndGet();
         try {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
@@ -47,16 +117,296 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * @return a number that changes whenever the statistics of a table are
+     * replaced, e.g. computed again; not when they are updated for a tuple
+     * inserted or deleted
+     */
+    public static long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Compute the statistics of every table in the catalog. The tables are
+     * read in a single parallel pass, see {@link StatsCollector}.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        List<Integer> tableids = new ArrayList<Integer>();
+        while (tableIt.hasNext())
+            tableids.add(tableIt.next());
 
         System.out.println("Computing table stats.");
+        computeStatistics(tableids, null);
+        System.out.println("Done.");
+    }
+
+    /**
+     * Compute the statistics of some tables in a single pass.
+     *
+     * @param tableids the tables
+     * @param store    where to record and save the statistics, or null
+     */
+    private static void computeStatistics(List<Integer> tableids, StatsFile store) {
+        List<DbFile> files = new ArrayList<DbFile>();
+        List<long[]> markers = new ArrayList<long[]>();
+        for (int tableid : tableids) {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+            files.add(f);
+            // taken first, so that changes made while collecting leave the
+            // statistics stale
+            markers.add(StatsFile.marker(f));
+        }
+        StatsCollector.Summary[] summaries = StatsCollector.collect(files);
+        for (int i = 0; i < summaries.length; i++) {
+            String name = Database.getCatalog().getTableName(tableids.get(i));
+            TableStats s = new TableStats(summaries[i], ioCostPerPage());
+            setTableStats(name, s);
+            if (store != null)
+                store.put(name, markers.get(i), s);
+        }
+        if (store != null) {
+            try {
+                store.save();
+            } catch (IOException e) {
+                System.out.println("Could not save table stats: " + e);
+            }
+        }
+    }
+
+    /**
+     * Load the statistics of every table in the catalog from a file written
+     * by an earlier call, and compute the ones that are missing. The stored
+     * statistics of a table that has changed since they were collected are
+     * used for now and computed again on a background thread; the file is
+     * then updated.
+     *
+     * @param statsFile the file the statistics are kept in, usually the
+     *                  catalog file followed by {@link #STATS_FILE_SUFFIX}
+     */
+    public static synchronized void loadStatistics(File statsFile) {
+        StatsFile store = new StatsFile(statsFile);
+        List<Integer> missing = new ArrayList<Integer>();
+        List<Integer> stale = new ArrayList<Integer>();
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = store.get(name, Database.getCatalog().getTupleDesc(tableid));
+            if (s == null) {
+                missing.add(tableid);
+            } else {
+                setTableStats(name, s);
+                if (!store.isCurrent(name, Database.getCatalog().getDatabaseFile(tableid),
+                        Database.getCatalog().getColumnGroups(tableid)))
+                    stale.add(tableid);
+            }
+        }
+
+        System.out.println("Loaded table stats; " + missing.size() + " tables missing, "
+                + stale.size() + " stale.");
+        TableStats.store = store;
+        if (!missing.isEmpty())
+            computeStatistics(missing, store);
+        refreshInBackground(stale);
+    }
+
+    /**
+     * Compute the statistics of some tables again on a background thread,
+     * except for those already waiting to be.
+     */
+    private static void refreshInBackground(List<Integer> tableids) {
+        List<Integer> todo = new ArrayList<Integer>();
+        for (int tableid : tableids) {
+            if (pending.add(tableid))
+                todo.add(tableid);
+        }
+        if (todo.isEmpty())
+            return;
+        refresher.execute(() -> {
+            pending.removeAll(todo);
+            try {
+                computeStatistics(todo, store);
+            } catch (RuntimeException e) {
+                System.out.println("Could not refresh table stats: " + e);
+            }
+        });
+    }
+
+    /**
+     * Wait for the statistics being computed in the background, if any.
+     */
+    static void awaitRefresh() {
+        try {
+            refresher.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Set how far the statistics of a table may drift before they are
+     * computed again from scratch.
+     *
+     * @param fraction the fraction of the tuples of a table, as of the last
+     *                 time its statistics were computed, that may be inserted
+     *                 or deleted; {@link #DEFAULT_REANALYZE_DRIFT} by default
+     */
+    public static void setReanalyzeDrift(double fraction) {
+        if (fraction <= 0)
+            throw new IllegalArgumentException("drift must be positive");
+        reanalyzeDrift = fraction;
+    }
+
+    /**
+     * Set the constants of the cost model, e.g. those measured on this host
+     * by {@link CostCalibrator}. All costs are relative to the cost of
+     * applying a predicate to one tuple. Statistics computed from now on use
+     * the cost of a sequential read as their cost per page of IO. The costs
+     * of statistics computed or loaded before change with it: each keeps
+     * its cost per page in proportion to the cost of a sequential read when
+     * it was computed, and the other costs in proportion to its cost per
+     * page.
+     *
+     * @param seq    the cost of reading the next page of a file, {@link
+     *               #IOCOSTPERPAGE} by default
+     * @param random the cost of reading a page anywhere in a file, the same
+     *               as a sequential read by default
+     * @param cached the cost of finding a page in the buffer pool, 1 by
+     *               default
+     */
+    public static void setCosts(double seq, double random, double cached) {
+        if (seq <= 0 || random <= 0 || cached < 0)
+            throw new IllegalArgumentException("costs must be positive");
+        seqPageCost = seq;
+        randomPageCost = random;
+        cachedPageCost = cached;
+    }
+
+    /**
+     * Set the constants of the cost model from a file written by {@link
+     * CostCalibrator}, see {@link #setCosts}.
+     *
+     * @param costsFile the file, usually the catalog file followed by {@link
+     *                  #COSTS_FILE_SUFFIX}
+     * @throws IOException if the file can't be read or is not valid
+     */
+    public static void loadCosts(File costsFile) throws IOException {
+        Properties p = new Properties();
+        try (FileInputStream in = new FileInputStream(costsFile)) {
+            p.load(in);
+        }
+        try {
+            setCosts(Double.parseDouble(p.getProperty(CostCalibrator.SEQ_PAGE_COST)),
+                    Double.parseDouble(p.getProperty(CostCalibrator.RANDOM_PAGE_COST)),
+                    Double.parseDouble(p.getProperty(CostCalibrator.CACHED_PAGE_COST)));
+        } catch (NullPointerException | IllegalArgumentException e) {
+            throw new IOException("invalid cost file " + costsFile + ": " + e);
+        }
+    }
+
+    /**
+     * @return the cost per page of IO given to statistics that are computed
+     * now
+     */
+    static int ioCostPerPage() {
+        return (int) Math.max(1, Math.round(seqPageCost));
+    }
+
+    /**
+     * Estimates the cost of reading again a relation that has just been
+     * read at the specified cost, e.g. the inner relation of a join. If it
+     * fits in the buffer pool, its pages are still there; otherwise they are
+     * all read again. The number of pages is estimated from the cost of
+     * reading them in sequence.
+     *
+     * @param cost the cost of reading the relation the first time
+     * @return the cost of reading it again
+     */
+    public static double estimateRescanCost(double cost) {
+        double pages = cost / seqPageCost;
+        if (pages > Database.getBufferPool().getNumPages())
+            return cost;
+        return Math.min(cost, Math.ceil(pages) * cachedPageCost);
+    }
+
+    /**
+     * Called by the {@link BufferPool} when a transaction has ended, and its
+     * changes have been written or undone: update the statistics for the
+     * tuples it inserted and deleted if it committed, then start computing
+     * the statistics of the tables that have drifted too far again.
+     *
+     * @param tid    the transaction
+     * @param commit true if the transaction committed, false if it aborted
+     */
+    static void transactionComplete(TransactionId tid, boolean commit) {
+        List<Change> changes = uncommitted.remove(tid);
+        if (commit && changes != null) {
+            synchronized (changes) {
+                for (Change c : changes) {
+                    TableStats s = statsOf(c.tableid);
+                    if (s != null && (c.inserted ? s.addTuple(c.tuple) : s.removeTuple(c.tuple)))
+                        drifted.add(c.tableid);
+                }
+            }
+        }
+        if (drifted.isEmpty())
+            return;
+        List<Integer> tableids = new ArrayList<Integer>();
+        for (Iterator<Integer> it = drifted.iterator(); it.hasNext(); ) {
+            tableids.add(it.next());
+            it.remove();
+        }
+        refreshInBackground(tableids);
+    }
+
+    private static TableStats statsOf(int tableid) {
+        String name = Database.getCatalog().getTableName(tableid);
+        return name == null ? null : getTableStats(name);
+    }
+
+    /**
+     * Called by the {@link BufferPool} when a tuple has been inserted into a
+     * table, to update its statistics once the transaction commits.
+     */
+    static void tupleInserted(TransactionId tid, int tableid, Tuple t) {
+        changed(tid, new Change(tableid, t, true));
+    }
+
+    /**
+     * Called by the {@link BufferPool} when a tuple has been deleted from a
+     * table, to update its statistics once the transaction commits.
+     */
+    static void tupleDeleted(TransactionId tid, int tableid, Tuple t) {
+        changed(tid, new Change(tableid, t, false));
+    }
+
+    private static void changed(TransactionId tid, Change c) {
+        List<Change> changes = uncommitted.computeIfAbsent(tid, k -> new ArrayList<Change>());
+        synchronized (changes) {
+            changes.add(c);
+        }
+    }
+
+    /**
+     * A tuple inserted into or deleted from a table by a transaction that
+     * has not ended yet. The values of the tuple are copied, since the
+     * caller may reuse it.
+     */
+    private static class Change {
+        final int tableid;
+        final Tuple tuple;
+        final boolean inserted;
+
+        Change(int tableid, Tuple t, boolean inserted) {
+            this.tableid = tableid;
+            this.tuple = new Tuple(t.getTupleDesc());
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                tuple.setField(i, t.getField(i));
+            this.inserted = inserted;
         }
-        System.out.println("Done.");
     }
 
     /**
@@ -66,6 +416,48 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Largest number of most common values kept apart from the histogram of
+     * a column, see {@link IntHistogram}.
+     */
+    static final int NUM_MCVS = 32;
+
+    private final int ioCostPerPage;
+    // the cost of a sequential read in the cost model when the statistics
+    // were computed, so that their costs follow the model as it is changed
+    // later, e.g. for statistics loaded from a file; 0 in statistics saved
+    // before it was kept, whose cost per page is taken to be that of the
+    // model
+    private final double modelSeqPageCost;
+    private final int numPages;
+    // the number of tuples when the statistics were computed, and now
+    private final int analyzedTuples;
+    private int numTuples;
+    // the number of tuples inserted or deleted since, and whether that has
+    // been found to be too many
+    private int changes;
+    private transient boolean drift;
+    private final TupleDesc td;
+    // the histogram of each column; only one of the two is set for a column
+    private final IntHistogram[] intHists;
+    private final StringHistogram[] stringHists;
+    private final int[] mins;
+    private final int[] maxs;
+    // a sketch of the distinct values of each column, and the difference
+    // between the number of distinct values and the sketch's estimate when
+    // the statistics were computed, which is 0 unless they were sampled
+    private final HyperLogLog[] sketches;
+    private final long[] distinctOffsets;
+    // for statistics estimated from a sample, the bounds of the estimates
+    private final boolean sampled;
+    private final int tuplesError;
+    private final double selectivityError;
+    private final int[] minDistinct;
+    private final int[] maxDistinct;
+    // the joint distribution of each pair of columns declared correlated in
+    // the catalog; null in statistics saved before these were kept
+    private final JointHistogram[] joints;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -85,6 +477,171 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this(StatsCollector.collect(Collections.singletonList(
+                Database.getCatalog().getDatabaseFile(tableid)))[0], ioCostPerPage);
+    }
+
+    /**
+     * Estimate the statistics of a heap file from a random sample of its
+     * pages, rather than by reading all of it. The estimates come with 95%
+     * error bounds, see {@link #tuplesErrorBound}, {@link
+     * #selectivityErrorBound}, {@link #minDistinct} and {@link #maxDistinct}.
+     * Tables with more than four times the pages set by {@link
+     * #setSamplePages} are always sampled.
+     *
+     * @param tableid       the table, which must be stored in a HeapFile
+     * @param ioCostPerPage the cost per page of IO
+     * @param pages         the number of pages to read
+     */
+    public static TableStats sample(int tableid, int ioCostPerPage, int pages) {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(f instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be sampled");
+        return new TableStats(StatsCollector.sample((HeapFile) f, pages, new Random()), ioCostPerPage);
+    }
+
+    /**
+     * Set the number of pages read from a large table to estimate its
+     * statistics. Tables with more than four times as many pages are
+     * sampled rather than read in full, by {@link #computeStatistics}, by
+     * {@link #loadStatistics} and by the constructor.
+     *
+     * @param pages the number of pages to sample, {@link
+     *              #DEFAULT_SAMPLE_PAGES} by default; 0 to read every table
+     *              in full
+     */
+    public static void setSamplePages(int pages) {
+        StatsCollector.setSamplePages(pages);
+    }
+
+    /**
+     * Create a TableStats from the statistics collected over a table.
+     */
+    TableStats(StatsCollector.Summary summary, int ioCostPerPage) {
+        this.ioCostPerPage = ioCostPerPage;
+        this.modelSeqPageCost = seqPageCost;
+        this.numPages = summary.numPages();
+        this.numTuples = summary.numTuples();
+        this.analyzedTuples = numTuples;
+        this.td = summary.getTupleDesc();
+        int n = td.numFields();
+        this.intHists = new IntHistogram[n];
+        this.stringHists = new StringHistogram[n];
+        this.mins = new int[n];
+        this.maxs = new int[n];
+        this.sketches = new HyperLogLog[n];
+        this.distinctOffsets = new long[n];
+        this.minDistinct = new int[n];
+        this.maxDistinct = new int[n];
+        this.sampled = summary.isSampled();
+        this.tuplesError = summary.tuplesError();
+        this.selectivityError = summary.selectivityError();
+        this.joints = summary.jointHistograms();
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                intHists[i] = summary.intHistogram(i, NUM_HIST_BINS);
+                mins[i] = summary.min(i);
+                maxs[i] = summary.max(i);
+            } else {
+                stringHists[i] = summary.stringHistogram(i, NUM_HIST_BINS);
+            }
+            sketches[i] = summary.sketch(i);
+            distinctOffsets[i] = summary.numDistinct(i) - sketches[i].estimate();
+            minDistinct[i] = summary.minDistinct(i);
+            maxDistinct[i] = summary.maxDistinct(i);
+        }
+    }
+
+    /**
+     * Update the statistics for a tuple inserted into the table.
+     *
+     * @return true if the statistics have drifted far enough from the table
+     * they were computed over to be computed again
+     */
+    synchronized boolean addTuple(Tuple t) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = ((IntField) t.getField(i)).getValue();
+                if (numTuples == 0) {
+                    intHists[i] = new IntHistogram(NUM_HIST_BINS, v, v);
+                    mins[i] = maxs[i] = v;
+                } else if (v < mins[i] || v > maxs[i]) {
+                    intHists[i] = intHists[i].covering(v, NUM_HIST_BINS);
+                    mins[i] = Math.min(mins[i], v);
+                    maxs[i] = Math.max(maxs[i], v);
+                }
+                intHists[i].addValue(v);
+            } else {
+                stringHists[i].addValue(((StringField) t.getField(i)).getValue());
+            }
+            sketches[i].add(t.getField(i));
+        }
+        if (joints != null) {
+            for (JointHistogram j : joints)
+                j.addTuple(t);
+        }
+        numTuples++;
+        return drifted();
+    }
+
+    /**
+     * Update the statistics for a tuple deleted from the table.
+     *
+     * @return true if the statistics have drifted far enough from the table
+     * they were computed over to be computed again
+     */
+    synchronized boolean removeTuple(Tuple t) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intHists[i].removeValue(((IntField) t.getField(i)).getValue());
+            else
+                stringHists[i].removeValue(((StringField) t.getField(i)).getValue());
+        }
+        if (joints != null) {
+            for (JointHistogram j : joints)
+                j.removeTuple(t);
+        }
+        if (numTuples > 0)
+            numTuples--;
+        return drifted();
+    }
+
+    private boolean drifted() {
+        changes++;
+        // only report the drift once; the statistics are then replaced
+        if (drift || changes < Math.max(1, Math.ceil(analyzedTuples * reanalyzeDrift)))
+            return false;
+        drift = true;
+        return true;
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+    /**
+     * @return the schema of the table these statistics describe
+     */
+    TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @param groups the pairs of fields of the table declared correlated,
+     *               see {@link Catalog#getColumnGroups}
+     * @return true if these statistics keep a joint histogram of each pair,
+     * in the same order, and of no other
+     */
+    boolean hasColumnGroups(List<int[]> groups) {
+        if (joints == null)
+            return groups.isEmpty();
+        if (joints.length != groups.size())
+            return false;
+        for (int g = 0; g < joints.length; g++) {
+            if (joints[g].getField1() != groups.get(g)[0] || joints[g].getField2() != groups.get(g)[1])
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -101,7 +658,82 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return estimatePages() * seqPageCost();
+    }
+
+    /**
+     * Estimates the cost of sequentially scanning the file, as {@link
+     * #estimateScanCost()}, when some of its pages are in the buffer pool
+     * and can be read without any IO.
+     *
+     * @param cachedPages
+     *            the number of pages of the file in the buffer pool, see
+     *            {@link BufferPool#cachedPages}
+     * @return The estimated cost of scanning the table.
+     */
+    public double estimateScanCost(int cachedPages) {
+        int pages = estimatePages();
+        int cached = Math.min(Math.max(cachedPages, 0), pages);
+        return (pages - cached) * seqPageCost() + cached * cachedPageCost();
+    }
+
+    /** @return the number of pages of the table, as it is now */
+    private int estimatePages() {
+        int pages = numPages;
+        if (analyzedTuples > 0 && numTuples != analyzedTuples)
+            pages = (int) Math.ceil((double) numPages * numTuples / analyzedTuples);
+        else if (analyzedTuples == 0 && numTuples > 0)
+            pages = Math.max(numPages, 1);
+        return pages;
+    }
+
+    // the costs of the cost model, in proportion to the cost per page of
+    // these statistics
+    private double seqPageCost() {
+        if (modelSeqPageCost <= 0)
+            return seqPageCost;
+        return ioCostPerPage * seqPageCost / modelSeqPageCost;
+    }
+
+    private double randomPageCost() {
+        return seqPageCost() * randomPageCost / seqPageCost;
+    }
+
+    private double cachedPageCost() {
+        return seqPageCost() * cachedPageCost / seqPageCost;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy a predicate on
+     * the key of a B+ tree table through its index, rather than scanning the
+     * whole table: one page for each level of the tree to find the first
+     * matching leaf, then the leaves holding the matching tuples, which make
+     * up about the same fraction of the leaves as of the tuples.
+     *
+     * The pages are read in no particular order, at the cost of random
+     * reads, except those found in the buffer pool.
+     *
+     * @param field
+     *            the key field of the table
+     * @param selectivity
+     *            the selectivity of the predicate on the key
+     * @param cachedPages
+     *            the number of pages of the file in the buffer pool, see
+     *            {@link BufferPool#cachedPages}
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(int field, double selectivity, int cachedPages) {
+        double leaves = estimatePages();
+        int keySize = td.getFieldType(field).getLen();
+        // as BTreeInternalPage.getMaxEntries
+        int fanout = 1 + (BufferPool.getPageSize() * 8 - 2 * BTreePage.INDEX_SIZE * 8 - 9)
+                / (keySize * 8 + BTreePage.INDEX_SIZE * 8 + 1);
+        // the root pointer page and the internal pages down to a leaf
+        double depth = 1 + Math.max(1, Math.ceil(Math.log(Math.max(leaves, 1)) / Math.log(fanout)));
+        // the pages read are as likely to be in the buffer pool as any other
+        double cached = Math.min(1.0, Math.max(cachedPages, 0) / Math.max(leaves, 1));
+        return (depth + Math.ceil(selectivity * leaves))
+                * ((1 - cached) * randomPageCost() + cached * cachedPageCost());
     }
 
     /**
@@ -115,7 +747,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -130,12 +762,25 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        double eq = td.getFieldType(field) == Type.INT_TYPE
+                ? intHists[field].avgSelectivity() : stringHists[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1.0 - eq;
+            default:
+                // a range predicate with a value drawn from the column
+                return 0.5;
+        }
     }
 
     /**
      * Estimate the selectivity of predicate <tt>field op constant</tt> on the
-     * table.
+     * table. If the predicate has been evaluated on the table before, the
+     * estimate is corrected by what was seen then, see {@link
+     * CardinalityFeedback}.
      * 
      * @param field
      *            The field over which the predicate ranges
@@ -148,7 +793,225 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        return estimateSelectivity(new Predicate[]{new Predicate(field, op, constant)});
+    }
+
+    /**
+     * Estimate the selectivity of a conjunction of predicates on the table,
+     * corrected by what was seen when the same conjunction was evaluated
+     * before, if it was.
+     *
+     * @param preds predicates on the fields of the table
+     * @return the estimated fraction of tuples that satisfy all of them
+     */
+    public double estimateSelectivity(Predicate[] preds) {
+        if (preds.length == 0)
+            return 1.0;
+        return Math.min(1.0, rawSelectivity(preds) * CardinalityFeedback.selectivityRatio(this, preds));
+    }
+
+    /**
+     * @return the selectivity of a conjunction of predicates on the fields
+     * of the table estimated from the statistics alone: the predicates on a
+     * pair of columns declared correlated are estimated together from their
+     * {@link JointHistogram}, and all others are taken to be independent
+     */
+    double rawSelectivity(Predicate[] preds) {
+        double sel = 1.0;
+        boolean[] done = new boolean[preds.length];
+        if (joints != null && preds.length > 1) {
+            for (JointHistogram j : joints)
+                sel *= jointSelectivity(j, preds, done);
+        }
+        for (int i = 0; i < preds.length; i++) {
+            if (!done[i])
+                sel *= columnSelectivity(preds[i].getField(), preds[i].getOp(), preds[i].getOperand());
+        }
+        return sel;
+    }
+
+    /**
+     * Estimate the selectivity of the predicates on the columns of a joint
+     * histogram that bound their values, if there are such predicates on
+     * both columns and they are not estimated already.
+     *
+     * @param done for each predicate, whether it is estimated already; set
+     *             for the predicates estimated
+     * @return the selectivity of the predicates, 1 if there are none
+     */
+    private double jointSelectivity(JointHistogram j, Predicate[] preds, boolean[] done) {
+        Range r1 = new Range(j.getField1());
+        Range r2 = new Range(j.getField2());
+        boolean[] used = new boolean[preds.length];
+        for (int i = 0; i < preds.length; i++) {
+            if (!done[i] && (r1.add(preds[i]) || r2.add(preds[i])))
+                used[i] = true;
+        }
+        if (!r1.bounded || !r2.bounded || j.numValues() == 0)
+            return 1.0;
+        for (int i = 0; i < preds.length; i++)
+            done[i] |= used[i];
+        if (r1.empty || r2.empty || r1.lo > r1.hi || r2.lo > r2.hi)
+            return 0.0;
+        // not while a tuple inserted or deleted is being counted
+        synchronized (this) {
+            return j.estimateSelectivity(r1, r2);
+        }
+    }
+
+    /**
+     * The values of a column allowed by the predicates on it that bound
+     * them: those from lo to hi, inclusive, as mapped by {@link
+     * JointHistogram#codeOf}, and only eq if it is set. Strings are only
+     * bounded as finely as they are mapped.
+     */
+    private final class Range implements JointHistogram.Marginal {
+        final int field;
+        long lo = Long.MIN_VALUE;
+        long hi = Long.MAX_VALUE;
+        Field eq;
+        boolean bounded;
+        // set if two equalities allow no value at all
+        boolean empty;
+
+        Range(int field) {
+            this.field = field;
+        }
+
+        /** @return true if p is on the column and bounds its values */
+        boolean add(Predicate p) {
+            if (p.getField() != field)
+                return false;
+            long v = JointHistogram.codeOf(p.getOperand());
+            // strict bounds on strings are inclusive of the strings mapped
+            // to the same integer
+            long strict = td.getFieldType(field) == Type.INT_TYPE ? 1 : 0;
+            switch (p.getOp()) {
+                case EQUALS:
+                    if (eq != null && !eq.equals(p.getOperand()))
+                        empty = true;
+                    eq = p.getOperand();
+                    lo = Math.max(lo, v);
+                    hi = Math.min(hi, v);
+                    break;
+                case GREATER_THAN:
+                    lo = Math.max(lo, v + strict);
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    lo = Math.max(lo, v);
+                    break;
+                case LESS_THAN:
+                    hi = Math.min(hi, v - strict);
+                    break;
+                case LESS_THAN_OR_EQ:
+                    hi = Math.min(hi, v);
+                    break;
+                default:
+                    return false;
+            }
+            bounded = true;
+            return true;
+        }
+
+        /**
+         * @return the fraction of the values of the column from cellLo to
+         * cellHi that are allowed, from the histogram of the column, or
+         * spread evenly over the range if the histogram has none there
+         */
+        public double fraction(long cellLo, long cellHi) {
+            long from = Math.max(lo, cellLo);
+            long to = Math.min(hi, cellHi);
+            if (from > to)
+                return 0.0;
+            double cell = codeSelectivity(field, cellLo, cellHi);
+            if (cell <= 0)
+                return eq != null ? 1.0 / (cellHi - cellLo + 1) : (double) (to - from + 1) / (cellHi - cellLo + 1);
+            double allowed = eq != null ? columnSelectivity(field, Predicate.Op.EQUALS, eq)
+                    : codeSelectivity(field, from, to);
+            return Math.min(1.0, allowed / cell);
+        }
+    }
+
+    /**
+     * @return the estimated fraction of the values of a field that map to
+     * the integers from lo to hi, inclusive
+     */
+    private double codeSelectivity(int field, long lo, long hi) {
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            return intHists[field].rangeSelectivity(lo, hi);
+        return stringHists[field].codeSelectivity(lo, hi);
+    }
+
+    private double columnSelectivity(int field, Predicate.Op op, Field constant) {
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            return intHists[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        return stringHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
+    }
+
+    /**
+     * @return the estimated number of distinct values of a field, from a
+     * {@link HyperLogLog} sketch that inserts are added to
+     */
+    public int numDistinct(int field) {
+        long d = sketches[field].estimate() + distinctOffsets[field];
+        return (int) Math.max(Math.min(d, numTuples), numTuples > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return true if these statistics were estimated from a sample of the
+     * table
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return the half-width of the 95% confidence interval of {@link
+     * #totalTuples} as of when the statistics were computed; 0 unless they
+     * were estimated from a sample
+     */
+    public int tuplesErrorBound() {
+        return tuplesError;
+    }
+
+    /**
+     * @return the half-width of the 95% confidence interval of selectivity
+     * estimates due to sampling; 0 unless the statistics were estimated from
+     * a sample
+     */
+    public double selectivityErrorBound() {
+        return selectivityError;
+    }
+
+    /**
+     * @return the lowest number of distinct values the field may have, as of
+     * when the statistics were computed
+     */
+    public int minDistinct(int field) {
+        return minDistinct[field];
+    }
+
+    /**
+     * @return the highest number of distinct values the field may have, as
+     * of when the statistics were computed
+     */
+    public int maxDistinct(int field) {
+        return maxDistinct[field];
+    }
+
+    /**
+     * @return the smallest value of an integer field, 0 if the table is
+     * empty
+     */
+    public int minValue(int field) {
+        return mins[field];
+    }
+
+    /**
+     * @return the largest value of an integer field, 0 if the table is empty
+     */
+    public int maxValue(int field) {
+        return maxs[field];
     }
 
     /**
@@ -156,7 +1019,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
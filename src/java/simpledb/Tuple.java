@@ -29,6 +29,19 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are provided by a subclass, which
+     * overrides every method that reads or writes the fields.
+     *
+     * @param td     the schema of this tuple
+     * @param fields the array backing the fields, or null if the subclass
+     *               keeps them elsewhere
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.td = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows in column form: an int[] for
+ * every {@link Type#INT_TYPE} field and a Field[] for every other field. A
+ * selection vector lists the rows of the batch that are still live, so that
+ * filters can drop rows without copying any column. SimpleDB has no NULL
+ * values, so no null vector is kept.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows in a batch produced by the batch operators. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final Object[] columns;
+    private RecordId[] rids;
+    private int size;
+    private int[] sel;
+    private int selSize;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td       the TupleDesc of the rows in this batch
+     * @param capacity the maximum number of rows in this batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.columns = new Object[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                columns[i] = new int[capacity];
+            else
+                columns[i] = new Field[capacity];
+        }
+        this.rids = new RecordId[capacity];
+    }
+
+    private TupleBatch(TupleDesc td, Object[] columns, RecordId[] rids, int size, int[] sel, int selSize) {
+        this.td = td;
+        this.columns = columns;
+        this.rids = rids;
+        this.size = size;
+        this.sel = sel;
+        this.selSize = selSize;
+    }
+
+    /**
+     * @return the TupleDesc of the rows in this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows this batch can hold
+     */
+    public int capacity() {
+        return rids.length;
+    }
+
+    /**
+     * @return true if no more rows can be added to this batch
+     */
+    public boolean isFull() {
+        return size == rids.length;
+    }
+
+    /**
+     * @return the number of rows added to this batch, whether they are
+     * selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int numRows() {
+        return sel == null ? size : selSize;
+    }
+
+    /**
+     * @param i the index of a selected row, between 0 and numRows()
+     * @return the position of the ith selected row in the columns
+     */
+    public int rowIndex(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * Replace the selection vector of this batch.
+     *
+     * @param rows the positions of the rows that stay selected, in increasing
+     *             order; only the first n entries are used
+     * @param n    the number of selected rows
+     */
+    public void select(int[] rows, int n) {
+        this.sel = rows;
+        this.selSize = n;
+    }
+
+    /**
+     * @param i the index of an INT_TYPE field
+     * @return the values of field i, indexed by row position
+     */
+    public int[] intColumn(int i) {
+        return (int[]) columns[i];
+    }
+
+    /**
+     * @param i the index of a field that is not INT_TYPE
+     * @return the values of field i, indexed by row position
+     */
+    public Field[] fieldColumn(int i) {
+        return (Field[]) columns[i];
+    }
+
+    /**
+     * @param i   the index of a field
+     * @param row a row position, as returned by {@link #rowIndex}
+     * @return the value of field i in the given row
+     */
+    public Field getField(int i, int row) {
+        if (columns[i] instanceof int[])
+            return new IntField(((int[]) columns[i])[row]);
+        return ((Field[]) columns[i])[row];
+    }
+
+    /**
+     * Append a tuple to this batch. The new row is selected.
+     *
+     * @param t a tuple with the TupleDesc of this batch
+     */
+    public void addTuple(Tuple t) {
+        int row = appendRow();
+        for (int i = 0; i < columns.length; i++)
+            setColumn(i, row, t.getField(i));
+        rids[row] = t.getRecordId();
+    }
+
+    /**
+     * Append the concatenation of a tuple and a row of another batch, as
+     * produced by a join. The new row is selected.
+     *
+     * @param left  the tuple supplying the first fields of the new row
+     * @param right the batch supplying the remaining fields
+     * @param row   a row position in right
+     */
+    public void addJoinedRow(Tuple left, TupleBatch right, int row) {
+        int out = appendRow();
+        int n1 = left.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++)
+            setColumn(i, out, left.getField(i));
+        for (int i = 0; i < right.columns.length; i++) {
+            if (columns[n1 + i] instanceof int[])
+                ((int[]) columns[n1 + i])[out] = ((int[]) right.columns[i])[row];
+            else
+                ((Field[]) columns[n1 + i])[out] = ((Field[]) right.columns[i])[row];
+        }
+    }
+
+    /**
+     * Append a row whose values the caller then writes into the columns of
+     * this batch, e.g. straight from the data of a page. The new row is
+     * selected.
+     *
+     * @param rid the RecordId of the row
+     * @return the position of the row in the columns
+     */
+    int addRow(RecordId rid) {
+        int row = appendRow();
+        rids[row] = rid;
+        return row;
+    }
+
+    private int appendRow() {
+        if (sel != null)
+            sel[selSize++] = size;
+        return size++;
+    }
+
+    private void setColumn(int i, int row, Field f) {
+        if (columns[i] instanceof int[])
+            ((int[]) columns[i])[row] = ((IntField) f).getValue();
+        else
+            ((Field[]) columns[i])[row] = f;
+    }
+
+    /**
+     * Build a Tuple for one row of this batch.
+     *
+     * @param row a row position, as returned by {@link #rowIndex}
+     * @return a new Tuple holding the values of the row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++)
+            t.setField(i, getField(i, row));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Return a batch with a subset of the fields of this batch. The columns
+     * and the selection vector are shared, not copied.
+     *
+     * @param fields the indices of the fields to keep, in output order
+     * @param newTd  the TupleDesc of the result
+     * @return the projected batch
+     */
+    public TupleBatch project(int[] fields, TupleDesc newTd) {
+        Object[] cols = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            cols[i] = columns[fields[i]];
+        return new TupleBatch(newTd, cols, rids, size, sel, selSize);
+    }
+}
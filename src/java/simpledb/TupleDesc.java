@@ -208,11 +208,11 @@ public class TupleDesc implements Serializable {
      */
     public String toString() {
         // some code goes here
-        String str = null;
+        String str = "";
         for (int i = 0; i < tdItemList.size() - 1; i++) {
             str += tdItemList.get(i).fieldType + "(" + tdItemList.get(i).fieldName + "), ";
         }
-        str += tdItemList.get(tdItemList.size() - 1).fieldType + "(" + tdItemList.get(tdItemList.size()) + ")";
+        str += tdItemList.get(tdItemList.size() - 1).fieldType + "(" + tdItemList.get(tdItemList.size() - 1).fieldName + ")";
         return str;
     }
 }
@@ -0,0 +1,105 @@
+package simpledb;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * WorkerPool runs the pipelines of a query that have been split off by an
+ * {@link Exchange} on background threads. The degree of parallelism is the
+ * number of partitions the planner splits a heavy operator into; it defaults
+ * to the number of available processors.
+ * <p>
+ * Threads are not capped at the degree of parallelism: a pipeline may block
+ * on a full exchange queue until another pipeline drains it, so every
+ * submitted task has to be able to run at once.
+ *
+ * @Threadsafe
+ */
+public class WorkerPool {
+
+    private final ExecutorService executor;
+    private volatile int parallelism;
+
+    /**
+     * Create a pool.
+     *
+     * @param parallelism the number of partitions the planner should use
+     */
+    public WorkerPool(int parallelism) {
+        this.parallelism = parallelism;
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "simpledb-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return the number of partitions the planner should split a heavy
+     * operator into; 1 disables intra-query parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of partitions the planner should split a
+     *                    heavy operator into; at least 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Start a group of tasks, each on its own thread.
+     *
+     * @param tasks the tasks to run
+     * @return a handle that can be used to wait for all of the tasks to end
+     */
+    public Job submit(List<? extends Runnable> tasks) {
+        Job job = new Job(tasks.size());
+        for (Runnable task : tasks) {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    job.done.countDown();
+                }
+            });
+        }
+        return job;
+    }
+
+    /**
+     * A group of tasks started by {@link #submit}.
+     */
+    public static class Job {
+
+        private final CountDownLatch done;
+
+        private Job(int tasks) {
+            this.done = new CountDownLatch(tasks);
+        }
+
+        /**
+         * Wait until every task of this job has returned.
+         */
+        public void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -176,6 +176,77 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.SUM, Aggregator.Op.COUNT });
+    assertEquals(4, op.getTupleDesc().numFields());
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 2, 12, 3,
+                    3, 2, 12, 3,
+                    5, 7, 7, 1 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() grouping on more than one field
+   */
+  @Test public void multiFieldGroupBy() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 2,
+                    "a", 1, 4,
+                    "a", 2, 6,
+                    "b", 1, 2,
+                    "b", 1, 5 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 0 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.COUNT });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new Object[] { "a", 1, 3, 2,
+                    "a", 2, 6, 1,
+                    "b", 1, 3, 2 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+
+    op.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for an Aggregate over several partitions of its input, which
+   * are aggregated in parallel and combined
+   */
+  @Test public void partitionedAggregate() throws Exception {
+    OpIterator[] parts = new OpIterator[] {
+        TestUtil.createTupleList(width1, new int[] { 1, 2, 3, 2, 5, 7 }),
+        TestUtil.createTupleList(width1, new int[] { 1, 4, 1, 6, 3, 6 }),
+        TestUtil.createTupleList(width1, new int[] { 3, 4 }) };
+    Aggregate op = new Aggregate(parts, new int[] { 1 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.AVG });
+    assertEquals(3, op.numPartitions());
+    op.open();
+    avg.open();
+    TestUtil.matchAllTuples(avg, op);
+
+    op.rewind();
+    avg.rewind();
+    TestUtil.matchAllTuples(avg, op);
+    op.close();
+
+    op = new Aggregate(parts, new int[] { 1, 1, 0 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MAX, Aggregator.Op.COUNT });
+    OpIterator expected = TestUtil.createTupleList(3, new int[] { 31, 7, 7 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
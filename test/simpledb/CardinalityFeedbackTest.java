@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CardinalityFeedbackTest extends SimpleDbTestBase {
+
+    Parser p;
+
+    /**
+     * Create a table of two int columns, c0 and c1, from its tuples.
+     */
+    private static HeapFile table(String name, int rows, int c0Base, boolean equalColumns)
+            throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            int v = c0Base + i % 100;
+            tuples.add(new ArrayList<Integer>(Arrays.asList(v, equalColumns ? v : i % 97)));
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        HeapFile hf = Utility.openHeapFile(2, "c", f);
+        Database.getCatalog().addTable(hf, name);
+        return hf;
+    }
+
+    /** Run a statement, without printing its result. */
+    private void run(String sql) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            p.processNextStatement(sql);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * Set up two tables with columns the statistics can't tell are
+     * correlated: in fa, c1 is always c0, and the values of fb.c0 are never
+     * those of fa.c0.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        CardinalityFeedback.clear();
+        table("fa", 2000, 0, true);
+        table("fb", 500, 1000, false);
+        TableStats.computeStatistics();
+        p = new Parser();
+    }
+
+    /**
+     * Once a query has run, the selectivity of its filters is estimated as
+     * it was measured
+     */
+    @Test
+    public void selectivityTest() throws Exception {
+        TableStats s = TableStats.getTableStats("fa");
+        Predicate[] preds = {
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10)) };
+        // taken to be independent, the two are estimated to be ten times
+        // as selective as they are
+        Assert.assertEquals(0.01, s.estimateSelectivity(preds), 0.005);
+
+        run("SELECT * FROM fa WHERE fa.c0 < 10 AND fa.c1 < 10;");
+        Assert.assertEquals(0.1, s.estimateSelectivity(preds), 0.001);
+        // in any order
+        Assert.assertEquals(0.1, s.estimateSelectivity(new Predicate[]{preds[1], preds[0]}), 0.001);
+        // a single predicate has no feedback of its own yet
+        Assert.assertEquals(0.1, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(10)), 0.02);
+
+        // feedback belongs to the statistics it corrects
+        TableStats.computeStatistics();
+        Assert.assertEquals(0.01, TableStats.getTableStats("fa").estimateSelectivity(preds), 0.005);
+    }
+
+    /**
+     * Once a join has run, its cardinality is estimated as it was measured,
+     * whichever way round it is written
+     */
+    @Test
+    public void joinTest() throws Exception {
+        Map<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("a", Database.getCatalog().getTableId("fa"));
+        aliases.put("b", Database.getCatalog().getTableId("fb"));
+        Map<String, TableStats> stats = TableStats.getStatsMap();
+        int before = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "c0", "c0", 2000, 500, false, false, stats, aliases);
+        Assert.assertTrue(before > 1000);
+
+        run("SELECT a.c1 FROM fa a, fb b WHERE a.c0 = b.c0;");
+        Assert.assertEquals(1, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "a", "b", "c0", "c0", 2000, 500, false, false, stats, aliases));
+        Assert.assertEquals(1, JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "b", "a", "c0", "c0", 500, 2000, false, false, stats, aliases));
+    }
+
+    /**
+     * Nothing is recorded when feedback is turned off
+     */
+    @Test
+    public void disabledTest() throws Exception {
+        CardinalityFeedback.setEnabled(false);
+        try {
+            run("SELECT * FROM fa WHERE fa.c0 < 10 AND fa.c1 < 10;");
+            Assert.assertEquals(0, CardinalityFeedback.size());
+        } finally {
+            CardinalityFeedback.setEnabled(true);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CardinalityFeedbackTest.class);
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CostCalibratorTest extends SimpleDbTestBase {
+
+    /**
+     * Measure the cost constants on a small file, and load them back. The
+     * file read leaves the catalog as it was.
+     */
+    @Test public void calibrateTest() throws Exception {
+        long version = Database.getCatalog().getVersion();
+        Properties p = CostCalibrator.calibrate(64);
+        Assert.assertEquals(version, Database.getCatalog().getVersion());
+        Assert.assertFalse(Database.getCatalog().tableIdIterator().hasNext());
+        for (String key : new String[] { CostCalibrator.SEQ_PAGE_COST,
+                CostCalibrator.RANDOM_PAGE_COST, CostCalibrator.CACHED_PAGE_COST }) {
+            double cost = Double.parseDouble(p.getProperty(key));
+            Assert.assertTrue(key + " = " + cost, cost > 0 && !Double.isInfinite(cost));
+        }
+
+        File f = File.createTempFile("costs", ".costs");
+        f.deleteOnExit();
+        p.setProperty(CostCalibrator.SEQ_PAGE_COST, "42");
+        try (OutputStream out = new FileOutputStream(f)) {
+            p.store(out, null);
+        }
+        try {
+            TableStats.loadCosts(f);
+            Assert.assertEquals(42, TableStats.ioCostPerPage());
+        } finally {
+            TableStats.setCosts(TableStats.IOCOSTPERPAGE, TableStats.IOCOSTPERPAGE, 1);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CostCalibratorTest.class);
+    }
+}
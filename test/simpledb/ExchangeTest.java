@@ -0,0 +1,125 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  /**
+   * @return the values of the first field of every tuple of it, checking
+   *   that no value is returned twice
+   */
+  private static Set<Integer> drain(OpIterator it) throws Exception {
+    Set<Integer> seen = new HashSet<Integer>();
+    while (it.hasNext()) {
+      int v = ((IntField) it.next().getField(0)).getValue();
+      assertTrue("duplicate value " + v, seen.add(v));
+    }
+    return seen;
+  }
+
+  /**
+   * Unit test for Gather: returns the union of its children
+   */
+  @Test public void gather() throws Exception {
+    Gather op = new Gather(new TestUtil.MockScan(0, 1000, 2),
+        new TestUtil.MockScan(1000, 3000, 2), new TestUtil.MockScan(3000, 3500, 2));
+    assertEquals(Utility.getTupleDesc(2), op.getTupleDesc());
+    op.open();
+    Set<Integer> seen = drain(op);
+    assertEquals(3500, seen.size());
+    for (int i = 0; i < 3500; i++)
+      assertTrue(seen.contains(i));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for Gather.rewind()
+   */
+  @Test public void gatherRewind() throws Exception {
+    Gather op = new Gather(new TestUtil.MockScan(0, 5000, 1), new TestUtil.MockScan(5000, 6000, 1));
+    op.open();
+    for (int i = 0; i < 100; i++)
+      op.next();
+    op.rewind();
+    assertEquals(6000, drain(op).size());
+    op.rewind();
+    assertEquals(6000, drain(op).size());
+    op.close();
+  }
+
+  /**
+   * Unit test for Gather: an error in a child is raised by the consumer
+   */
+  @Test public void gatherError() throws Exception {
+    OpIterator bad = new TestUtil.MockScan(0, 10000, 1) {
+      private int n = 0;
+
+      public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (++n == 700)
+          throw new DbException("broken child");
+        return super.next();
+      }
+    };
+    Gather op = new Gather(new TestUtil.MockScan(0, 10000, 1), bad);
+    op.open();
+    try {
+      while (op.hasNext())
+        op.next();
+      fail("expected the failure of a child to be raised");
+    } catch (DbException e) {
+      // expected, with the failure of the child as its cause
+      assertEquals("broken child", e.getCause().getMessage());
+    }
+    op.close();
+  }
+
+  /**
+   * Unit test for ParallelHashJoin: the build and probe sides are each read
+   * from several inputs, and rewinding probes the hash tables again
+   */
+  @Test public void parallelHashJoin() throws Exception {
+    OpIterator[] left = new OpIterator[] {
+        new TestUtil.MockScan(0, 1500, 2), new TestUtil.MockScan(1500, 3000, 2) };
+    OpIterator[] right = new OpIterator[] {
+        new TestUtil.MockScan(1000, 2000, 3), new TestUtil.MockScan(2000, 4000, 3),
+        new TestUtil.MockScan(2500, 2600, 3) };
+    ParallelHashJoin op = new ParallelHashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), left, right);
+    assertEquals(5, op.getTupleDesc().numFields());
+    assertEquals(2, op.numLeftInputs());
+    assertEquals(5, op.getChildren().length);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      int n = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int v = ((IntField) t.getField(0)).getValue();
+        assertTrue(v >= 1000 && v < 3000);
+        assertEquals(v, ((IntField) t.getField(3)).getValue());
+        n++;
+      }
+      assertEquals(2100, n);
+      op.rewind();
+    }
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -120,6 +120,20 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() with several conjuncts
+   */
+  @Test public void filterConjunction() throws Exception {
+    Predicate[] preds = new Predicate[] {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+        new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(3)) };
+    Filter op = new Filter(preds, scan);
+    op.open();
+    TestUtil.MockScan expectedOut = new TestUtil.MockScan(-2, 3, testWidth);
+    TestUtil.compareDbIterators(op, expectedOut);
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
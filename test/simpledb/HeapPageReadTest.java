@@ -99,6 +99,36 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(int[], TupleDesc, CompiledPredicate)
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        TupleDesc outTd = Utility.getTupleDesc(1);
+        CompiledPredicate pred = CompiledPredicate.compile(
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)));
+        Iterator<Tuple> it = page.iterator(new int[]{1}, outTd, pred);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            if (EXAMPLE_VALUES[row][0] <= 30000)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(outTd, tup.getTupleDesc());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(0)).getValue());
+            assertEquals(new RecordId(pid, row), tup.getRecordId());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() on a page whose tuples were never read
+     */
+    @Test public void getPageDataUnread() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,55 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class HyperLogLogTest {
+
+	/**
+	 * Make sure that the estimate is within the 95% error bound, for small
+	 * and large numbers of distinct values.
+	 */
+	@Test public void estimateTest() {
+		for (int n : new int[]{0, 1, 10, 1000, 100000, 1000000}) {
+			HyperLogLog h = new HyperLogLog();
+			// each value added several times; repeats must not count
+			for (int r = 0; r < 3; r++) {
+				for (int v = 0; v < n; v++)
+					h.add(new IntField(v));
+			}
+			Assert.assertEquals(n, h.estimate(), Math.max(1, n * HyperLogLog.relativeError()));
+		}
+	}
+
+	/**
+	 * Make sure that merging the sketches of two overlapping sets estimates
+	 * the size of their union.
+	 */
+	@Test public void mergeTest() {
+		HyperLogLog a = new HyperLogLog();
+		HyperLogLog b = new HyperLogLog();
+		for (int v = 0; v < 60000; v++)
+			a.add(new IntField(v));
+		for (int v = 40000; v < 100000; v++)
+			b.add(new IntField(v));
+		a.merge(b);
+		Assert.assertEquals(100000, a.estimate(), 100000 * HyperLogLog.relativeError());
+	}
+
+	/**
+	 * Make sure that strings are counted too.
+	 */
+	@Test public void stringTest() {
+		HyperLogLog h = new HyperLogLog();
+		for (int v = 0; v < 20000; v++)
+			h.add(new StringField("value" + (v % 5000), Type.STRING_LEN));
+		Assert.assertEquals(5000, h.estimate(), 5000 * HyperLogLog.relativeError());
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new junit.framework.JUnit4TestAdapter(HyperLogLogTest.class);
+	}
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class InstrumentedOperatorTest extends SimpleDbTestBase {
+
+    ArrayList<ArrayList<Integer>> tuples;
+    HeapFile f;
+
+    /**
+     * Set up a table of a few pages, with statistics
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "measured");
+        TableStats.computeStatistics();
+    }
+
+    /** @return the number of tuples with a first field below v */
+    private int expected(int v) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < v)
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Each operator of a plan counts the rows it returns and the pages read
+     * below it
+     */
+    @Test
+    public void instrumentTest() throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "m");
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(30)), scan);
+        OpIterator plan = InstrumentedOperator.instrument(filter);
+
+        InstrumentedOperator root = (InstrumentedOperator) plan;
+        Assert.assertSame(filter, root.getOperator());
+        InstrumentedOperator leaf = (InstrumentedOperator) filter.getChildren()[0];
+        Assert.assertSame(scan, leaf.getOperator());
+
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        Assert.assertEquals(expected(30), n);
+        Assert.assertEquals(n, root.getRows());
+        Assert.assertEquals(tuples.size(), leaf.getRows());
+        Assert.assertEquals(f.numPages(), leaf.getPageMisses());
+        Assert.assertEquals(0, leaf.getPageHits());
+        Assert.assertEquals(f.numPages(), root.getPageMisses());
+        Assert.assertTrue(root.getNextNanos() >= leaf.getNextNanos());
+        plan.close();
+
+        // a second run finds the pages in the buffer pool
+        plan.open();
+        while (plan.hasNext())
+            plan.next();
+        Assert.assertEquals(n, root.getRows());
+        Assert.assertEquals(0, leaf.getPageMisses());
+        Assert.assertEquals(f.numPages(), leaf.getPageHits());
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * EXPLAIN ANALYZE prints the plan with the actual rows of each operator,
+     * rather than the result of the query
+     */
+    @Test
+    public void explainAnalyzeTest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            new Parser().processNextStatement(
+                    "explain  analyze SELECT m.c1 FROM measured m WHERE m.c0 < 30;");
+        } finally {
+            System.setOut(out);
+        }
+        String printed = bytes.toString("UTF-8");
+        Assert.assertTrue(printed, printed.contains("actual:" + expected(30) + ","));
+        Assert.assertTrue(printed, printed.contains("scan(measured m)"));
+        Assert.assertFalse(printed, printed.contains("rows."));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(InstrumentedOperatorTest.class);
+    }
+}
@@ -174,4 +174,46 @@ public class IntHistogramTest {
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
 	}
+
+	/**
+	 * Make sure that the most common values are estimated from their own
+	 * counts, and the other values from their buckets.
+	 */
+	@Test public void mostCommonValuesTest() {
+		// two buckets, 1..10 and 11..100, and two common values
+		IntHistogram h = new IntHistogram(new long[]{1, 11, 101}, new int[]{0, 0},
+				new int[]{9, 89}, new int[]{5, 50}, new int[]{0, 0});
+		for (int c = 0; c < 300; c++)
+			h.addValue(5);
+		for (int c = 0; c < 200; c++)
+			h.addValue(50);
+		for (int c = 1; c <= 100; c++) {
+			if (c != 5 && c != 50) {
+				h.addValue(c);
+				h.addValue(c);
+			}
+		}
+		Assert.assertEquals(696, h.numValues());
+		Assert.assertEquals(300.0 / 696, h.estimateSelectivity(Op.EQUALS, 5), 1e-9);
+		Assert.assertEquals(200.0 / 696, h.estimateSelectivity(Op.EQUALS, 50), 1e-9);
+		Assert.assertEquals(2.0 / 696, h.estimateSelectivity(Op.EQUALS, 70), 0.5 / 696);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN, 5) + h.estimateSelectivity(Op.EQUALS, 5)
+				+ h.estimateSelectivity(Op.GREATER_THAN, 5), 1e-9);
+		Assert.assertEquals(308.0 / 696, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 5), 1.0 / 696);
+
+		// the common values survive widening the histogram
+		h = h.covering(200, 2);
+		Assert.assertEquals(300.0 / 696, h.estimateSelectivity(Op.EQUALS, 5), 1e-9);
+
+		// strings that only differ after their fourth character
+		StringHistogram sh = new StringHistogram(new StringHistogram(10).hist,
+				new String[]{"value1", "value2"}, new int[]{0, 0});
+		for (int c = 0; c < 90; c++)
+			sh.addValue("value1");
+		for (int c = 0; c < 10; c++)
+			sh.addValue("value2");
+		Assert.assertEquals(0.9, sh.estimateSelectivity(Op.EQUALS, "value1"), 1e-9);
+		Assert.assertEquals(0.1, sh.estimateSelectivity(Op.EQUALS, "value2"), 1e-9);
+		Assert.assertEquals(0.9, sh.estimateSelectivity(Op.LESS_THAN, "value2"), 1e-9);
+	}
 }
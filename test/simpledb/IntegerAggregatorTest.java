@@ -126,6 +126,28 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator.combine() over partial averages
+   */
+  @Test public void combineAvg() throws Exception {
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    // the groups are split unevenly, so averaging the averages would be wrong
+    agg.mergeTupleIntoGroup(scan1.next());
+    agg.mergeTupleIntoGroup(scan1.next());
+    agg.mergeTupleIntoGroup(scan1.next());
+    agg.mergeTupleIntoGroup(scan1.next());
+    while (scan1.hasNext())
+      partial.mergeTupleIntoGroup(scan1.next());
+    agg.combine(partial);
+
+    OpIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, 4, 3, 4, 5, 7 }), it);
+  }
+
   /**
    * Test IntegerAggregator.iterator() for OpIterator behaviour
    */
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -621,4 +622,65 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Order the joins of a query in which every one of twelve tables is
+     * joined to every other, and make sure that it is done quickly, that
+     * every join is kept and that no join needs a cross product.
+     */
+    @Test(timeout = 10000)
+    public void cliqueOrderJoinsTest() throws ParsingException {
+        checkCliqueOrder(12);
+    }
+
+    /**
+     * Order the joins of a query with more tables than are ordered
+     * exhaustively, by the greedy order alone and with the randomized search.
+     */
+    @Test(timeout = 10000)
+    public void searchOrderJoinsTest() throws ParsingException {
+        try {
+            JoinOptimizer.setSearchThreshold(4);
+            checkCliqueOrder(20);
+            JoinOptimizer.setSearchMillis(0);
+            checkCliqueOrder(20);
+        } finally {
+            JoinOptimizer.setSearchThreshold(JoinOptimizer.DEFAULT_SEARCH_THRESHOLD);
+            JoinOptimizer.setSearchMillis(JoinOptimizer.DEFAULT_SEARCH_MILLIS);
+        }
+    }
+
+    private void checkCliqueOrder(int tables) throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(tableName1, stats1);
+
+        StringBuilder from = new StringBuilder();
+        for (int i = 0; i < tables; i++) {
+            from.append(i == 0 ? "" : ", ").append(tableName1).append(" t").append(i);
+            filterSelectivities.put("t" + i, 1.0 / (i + 1));
+            for (int k = 0; k < i; k++)
+                nodes.add(new LogicalJoinNode("t" + k, "t" + i, "c" + (k % 10),
+                        "c" + (i % 10), Predicate.Op.EQUALS));
+        }
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + from + ";"), nodes);
+
+        Vector<LogicalJoinNode> result = j.orderJoins(stats,
+                filterSelectivities, false);
+
+        Assert.assertEquals(nodes.size(), result.size());
+        HashSet<String> joined = new HashSet<String>();
+        joined.add(result.get(0).t1Alias);
+        for (LogicalJoinNode n : result) {
+            Assert.assertTrue(joined.contains(n.t1Alias)
+                    || joined.contains(n.t2Alias));
+            joined.add(n.t1Alias);
+            joined.add(n.t2Alias);
+        }
+        Assert.assertEquals(tables, joined.size());
+    }
 }
@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JointHistogramTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 4000;
+
+    /**
+     * Create a table of addresses: a city, its zip code, which depends on
+     * the city alone, and a number that depends on neither. There are 20
+     * cities, each in as many tuples.
+     */
+    private static HeapFile addresses(String name) throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"city", "zip", "n"});
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, name);
+        HeapPage page = null;
+        int pages = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (page == null)
+                page = new HeapPage(new HeapPageId(hf.getId(), pages), HeapPage.createEmptyPageData());
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("t" + (10 + i % 20), Type.STRING_LEN));
+            t.setField(1, new IntField(90010 + i % 20));
+            t.setField(2, new IntField(i % 97));
+            page.insertTuple(t);
+            if (page.getNumEmptySlots() == 0 || i == ROWS - 1) {
+                hf.writePage(page);
+                pages++;
+                page = null;
+            }
+        }
+        return hf;
+    }
+
+    private static Predicate[] both(Predicate.Op op1, Field v1, Predicate.Op op2, Field v2) {
+        return new Predicate[]{new Predicate(0, op1, v1), new Predicate(1, op2, v2)};
+    }
+
+    private static StringField city(int c) {
+        return new StringField("t" + c, Type.STRING_LEN);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        CardinalityFeedback.clear();
+    }
+
+    /**
+     * Without a column group, predicates on correlated columns are taken to
+     * be independent; with one, they are estimated from how the columns
+     * occur together
+     */
+    @Test
+    public void correlatedTest() throws Exception {
+        HeapFile hf = addresses("address");
+        Predicate[] match = both(Predicate.Op.EQUALS, city(15), Predicate.Op.EQUALS, new IntField(90015));
+        Predicate[] mismatch = both(Predicate.Op.EQUALS, city(15), Predicate.Op.EQUALS, new IntField(90016));
+        Predicate[] range = both(Predicate.Op.LESS_THAN, city(15), Predicate.Op.LESS_THAN, new IntField(90015));
+
+        TableStats independent = new TableStats(hf.getId(), 1);
+        Assert.assertEquals(0.0025, independent.estimateSelectivity(match), 0.001);
+        Assert.assertEquals(0.0025, independent.estimateSelectivity(mismatch), 0.001);
+        Assert.assertEquals(0.0625, independent.estimateSelectivity(range), 0.015);
+
+        Database.getCatalog().addColumnGroup("address", "city", "zip");
+        TableStats grouped = new TableStats(hf.getId(), 1);
+        Assert.assertEquals(0.05, grouped.estimateSelectivity(match), 0.01);
+        Assert.assertEquals(0.0, grouped.estimateSelectivity(mismatch), 0.001);
+        Assert.assertEquals(0.25, grouped.estimateSelectivity(range), 0.03);
+
+        // a predicate on either column alone, or on a column outside the
+        // group, is estimated as before
+        Predicate[] single = {new Predicate(1, Predicate.Op.EQUALS, new IntField(90015))};
+        Assert.assertEquals(independent.estimateSelectivity(single), grouped.estimateSelectivity(single), 1e-9);
+        Predicate[] other = {new Predicate(0, Predicate.Op.EQUALS, city(15)),
+                new Predicate(2, Predicate.Op.LESS_THAN, new IntField(10))};
+        Assert.assertEquals(independent.estimateSelectivity(other), grouped.estimateSelectivity(other), 1e-9);
+        // contradictory equalities match nothing
+        Predicate[] contradiction = {match[0], match[1], new Predicate(1, Predicate.Op.EQUALS, new IntField(90016))};
+        Assert.assertEquals(0.0, grouped.estimateSelectivity(contradiction), 1e-9);
+    }
+
+    /**
+     * The joint histogram follows the tuples inserted after the statistics
+     * were computed
+     */
+    @Test
+    public void insertTest() throws Exception {
+        HeapFile hf = addresses("address");
+        Database.getCatalog().addColumnGroup("address", "city", "zip");
+        TableStats s = new TableStats(hf.getId(), 1);
+        Predicate[] moved = both(Predicate.Op.EQUALS, city(15), Predicate.Op.EQUALS, new IntField(90016));
+        Assert.assertEquals(0.0, s.estimateSelectivity(moved), 0.001);
+
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, city(15));
+        t.setField(1, new IntField(90016));
+        t.setField(2, new IntField(0));
+        for (int i = 0; i < ROWS; i++)
+            s.addTuple(t);
+        Assert.assertEquals(0.5, s.estimateSelectivity(moved), 0.05);
+    }
+
+    /**
+     * Column groups are declared in the catalog file along with the table
+     */
+    @Test
+    public void schemaTest() throws Exception {
+        HeapFile hf = addresses("address");
+        String name = hf.getFile().getName().replace(".dat", "");
+        File catalog = new File(hf.getFile().getParentFile(), name + ".txt");
+        catalog.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(catalog, "UTF-8")) {
+            out.println(name + " (city string, zip int, n int) group (city, zip) group (n, zip)");
+        }
+        Database.getCatalog().loadSchema(catalog.getPath());
+        List<int[]> groups = Database.getCatalog().getColumnGroups(Database.getCatalog().getTableId(name));
+        Assert.assertEquals(2, groups.size());
+        Assert.assertArrayEquals(new int[]{0, 1}, groups.get(0));
+        Assert.assertArrayEquals(new int[]{2, 1}, groups.get(1));
+    }
+
+    /**
+     * Stored statistics without the joint histogram of a column group
+     * declared since are stale, and computed again
+     */
+    @Test
+    public void storedStatsTest() throws Exception {
+        addresses("address");
+        File statsFile = File.createTempFile("table", TableStats.STATS_FILE_SUFFIX);
+        statsFile.delete();
+        statsFile.deleteOnExit();
+        Predicate[] match = both(Predicate.Op.EQUALS, city(15), Predicate.Op.EQUALS, new IntField(90015));
+
+        TableStats.loadStatistics(statsFile);
+        Assert.assertEquals(0.0025, TableStats.getTableStats("address").estimateSelectivity(match), 0.001);
+
+        Database.getCatalog().addColumnGroup("address", "city", "zip");
+        TableStats.loadStatistics(statsFile);
+        TableStats.awaitRefresh();
+        Assert.assertEquals(0.05, TableStats.getTableStats("address").estimateSelectivity(match), 0.01);
+
+        // and the refreshed statistics were saved with the histogram
+        TableStats.loadStatistics(statsFile);
+        Assert.assertEquals(0.05, TableStats.getTableStats("address").estimateSelectivity(match), 0.01);
+    }
+
+    /**
+     * Histograms built over parts of the values, with different ranges,
+     * combine into the histogram of all of them
+     */
+    @Test
+    public void combineTest() {
+        JointHistogram whole = new JointHistogram(0, 1);
+        JointHistogram low = new JointHistogram(0, 1);
+        JointHistogram high = new JointHistogram(0, 1);
+        for (int v = 0; v < 100000; v += 7) {
+            whole.addValue(v, -v);
+            (v < 30000 ? low : high).addValue(v, -v);
+        }
+        low.combine(high);
+        Assert.assertEquals(whole.numValues(), low.numValues());
+        // the values of the first column below 50000 and of the second above
+        // -20000, taking them to be spread evenly in each cell
+        JointHistogram.Marginal below = (lo, hi) -> Math.max(0.0,
+                Math.min(1.0, (double) (50000 - lo) / (hi - lo + 1)));
+        JointHistogram.Marginal above = (lo, hi) -> Math.max(0.0,
+                Math.min(1.0, (double) (hi + 1 - -20000) / (hi - lo + 1)));
+        // which only the values up to 20000 are; taken to be independent,
+        // the two would be estimated to hold for 0.5 * 0.2 of them
+        Assert.assertEquals(0.2, whole.estimateSelectivity(below, above), 0.01);
+        Assert.assertEquals(0.2, low.estimateSelectivity(below, above), 0.01);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(JointHistogramTest.class);
+    }
+}
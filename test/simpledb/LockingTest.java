@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
@@ -186,6 +187,30 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for the lock waits counted by BufferPool.getPage().
+   * The time a transaction waits for a lock released during its first
+   * attempt to take it is counted too.
+   */
+  @Test public void lockWaitCounted() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    final long[] waited = new long[1];
+    Thread t = new Thread(() -> {
+      long start = BufferPool.pageStats().lockWaitNanos;
+      try {
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      waited[0] = BufferPool.pageStats().lockWaitNanos - start;
+    });
+    t.start();
+    Thread.sleep(TIMEOUT / 2);
+    bp.releasePage(tid1, p0);
+    t.join();
+    assertTrue(waited[0] >= TIMEOUT / 4 * 1000000L);
+  }
+
   /**
    * JUnit suite target
    */
@@ -55,6 +55,44 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Unit test for Predicate.compile(); the compiled evaluator must agree
+   * with Predicate.filter() for every operator
+   */
+  @Test public void compile() {
+    int[] vals = new int[] { -1, 0, 1 };
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i : vals) {
+        Predicate p = new Predicate(0, op, TestUtil.getField(i));
+        CompiledPredicate c = p.compile();
+        for (int d = -1; d <= 1; d++) {
+          Tuple t = Utility.getHeapTuple(i + d);
+          assertTrue(p.filter(t) == c.test(t));
+        }
+      }
+    }
+
+    Tuple t = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE }));
+    t.setField(0, new StringField("simpledb", Type.STRING_LEN));
+    assertTrue(new Predicate(0, Predicate.Op.LIKE,
+        new StringField("pled", Type.STRING_LEN)).compile().test(t));
+    assertFalse(new Predicate(0, Predicate.Op.GREATER_THAN,
+        new StringField("z", Type.STRING_LEN)).compile().test(t));
+  }
+
+  /**
+   * Unit test for CompiledPredicate over a conjunction
+   */
+  @Test public void compileConjunction() {
+    CompiledPredicate c = CompiledPredicate.compile(
+        new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(1)),
+        new Predicate(1, Predicate.Op.NOT_EQUALS, TestUtil.getField(3)));
+    assertTrue(c.test(Utility.getHeapTuple(new int[] { 2, 4 })));
+    assertFalse(c.test(Utility.getHeapTuple(new int[] { 2, 3 })));
+    assertFalse(c.test(Utility.getHeapTuple(new int[] { 1, 4 })));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PreparedStatementTest extends SimpleDbTestBase {
+
+    private static final String QUERY = "SELECT * FROM pa a, pb b "
+            + "WHERE a.c0 = b.c0 AND a.c1 < ? AND b.c1 = ?;";
+
+    ArrayList<ArrayList<Integer>> tuplesA;
+    ArrayList<ArrayList<Integer>> tuplesB;
+    Parser p;
+
+    /**
+     * Set up two tables to join, with statistics
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuplesA = new ArrayList<ArrayList<Integer>>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 300, 20, null,
+                tuplesA, "c");
+        Database.getCatalog().addTable(a, "pa");
+        tuplesB = new ArrayList<ArrayList<Integer>>();
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 200, 20, null,
+                tuplesB, "c");
+        Database.getCatalog().addTable(b, "pb");
+        TableStats.computeStatistics();
+        p = new Parser();
+    }
+
+    /** @return the number of tuples a run of QUERY should return */
+    private int expected(int lessThan, int equals) {
+        int n = 0;
+        for (ArrayList<Integer> ta : tuplesA) {
+            for (ArrayList<Integer> tb : tuplesB) {
+                if (ta.get(0).equals(tb.get(0)) && ta.get(1) < lessThan
+                        && tb.get(1) == equals)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    /** @return the number of tuples returned by a query */
+    private static int run(Query q) throws Exception {
+        int n = 0;
+        q.start();
+        while (q.hasNext()) {
+            q.next();
+            n++;
+        }
+        q.close();
+        return n;
+    }
+
+    /**
+     * Run a prepared query several times with different values
+     */
+    @Test
+    public void bindTest() throws Exception {
+        PreparedStatement ps = p.prepare(QUERY);
+        Assert.assertEquals(2, ps.getParameterCount());
+        Assert.assertEquals(Type.INT_TYPE, ps.getParameterType(0));
+        Assert.assertEquals(Type.INT_TYPE, ps.getParameterType(1));
+        for (int v = 0; v < 20; v += 3) {
+            Query q = ps.bind(new TransactionId(), 5 + v, v);
+            Assert.assertEquals(expected(5 + v, v), run(q));
+        }
+    }
+
+    /**
+     * The same query, written differently, is prepared only once
+     */
+    @Test
+    public void cacheTest() throws Exception {
+        PreparedStatement ps = p.prepare(QUERY);
+        Assert.assertSame(ps, p.prepare("  SELECT *\n FROM pa a,   pb b "
+                + "WHERE a.c0 = b.c0\tAND a.c1 < ? AND b.c1 = ?"));
+        Assert.assertNotSame(ps, p.prepare(QUERY.replace("<", ">")));
+    }
+
+    /**
+     * New statistics or tables invalidate prepared queries
+     */
+    @Test
+    public void invalidateTest() throws Exception {
+        PreparedStatement ps = p.prepare(QUERY);
+        TableStats.setTableStats("pa", TableStats.getTableStats("pa"));
+        PreparedStatement ps2 = p.prepare(QUERY);
+        Assert.assertNotSame(ps, ps2);
+        Assert.assertSame(ps2, p.prepare(QUERY));
+
+        HeapFile c = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        Database.getCatalog().addTable(c, "pc");
+        PreparedStatement ps3 = p.prepare(QUERY);
+        Assert.assertNotSame(ps2, ps3);
+        Assert.assertEquals(expected(10, 4),
+                run(ps3.bind(new TransactionId(), 10, 4)));
+    }
+
+    /**
+     * Values that don't match the parameters are rejected
+     */
+    @Test
+    public void badValuesTest() throws Exception {
+        PreparedStatement ps = p.prepare(QUERY);
+        TransactionId tid = new TransactionId();
+        try {
+            ps.bind(tid, 1);
+            Assert.fail("too few values");
+        } catch (ParsingException e) {
+        }
+        try {
+            ps.bind(tid, 1, 2, 3);
+            Assert.fail("too many values");
+        } catch (ParsingException e) {
+        }
+        try {
+            ps.bind(tid, 1, "2");
+            Assert.fail("a string for an int field");
+        } catch (ParsingException e) {
+        }
+        try {
+            p.prepare("SELECT * FROM pa a WHERE ? = 3;");
+            Assert.fail("a parameter not compared with a field");
+        } catch (ParsingException e) {
+        }
+        try {
+            p.prepare("DELETE FROM pa WHERE pa.c0 = ?;");
+            Assert.fail("not a query");
+        } catch (ParsingException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PreparedStatementTest.class);
+    }
+}
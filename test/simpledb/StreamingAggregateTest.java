@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StreamingAggregateTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  OpIterator scan1;
+  OpIterator unordered;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+    this.unordered = TestUtil.createTupleList(width1,
+        new int[] { 3, 2,
+                    1, 4,
+                    5, 7,
+                    1, 6,
+                    3, 4,
+                    1, 2,
+                    3, 6 });
+  }
+
+  /**
+   * Unit test for StreamingAggregate.getNext() over input clustered on the
+   * group-by field
+   */
+  @Test public void groupedInput() throws Exception {
+    StreamingAggregate op = new StreamingAggregate(scan1, new int[] { 1, 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG });
+    OpIterator expected = TestUtil.createTupleList(3,
+        new int[] { 1, 12, 4,
+                    3, 12, 4,
+                    5, 7, 7 });
+    op.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    assertTrue(TestUtil.checkExhausted(op));
+
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+  }
+
+  /**
+   * Unit test for StreamingAggregate.getNext() without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    StreamingAggregate op = new StreamingAggregate(unordered, new int[] { 1, 1 },
+        new int[0], new Aggregator.Op[] { Aggregator.Op.MAX, Aggregator.Op.COUNT });
+    assertEquals(2, op.getTupleDesc().numFields());
+    OpIterator expected = TestUtil.createTupleList(2, new int[] { 7, 7 });
+    op.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for StreamingAggregate on top of an OrderBy; the result must
+   * match the hash-based Aggregate
+   */
+  @Test public void orderByInput() throws Exception {
+    OrderBy sorted = new OrderBy(0, true, unordered);
+    assertTrue(StreamingAggregate.isOrderedOn(sorted, 0));
+    assertFalse(StreamingAggregate.isOrderedOn(sorted, 1));
+    assertFalse(StreamingAggregate.isOrderedOn(unordered, 0));
+
+    StreamingAggregate op = new StreamingAggregate(sorted, new int[] { 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.MIN });
+    Aggregate hash = new Aggregate(scan1, 1, 0, Aggregator.Op.MIN);
+    op.open();
+    hash.open();
+    TestUtil.matchAllTuples(hash, op);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StreamingAggregateTest.class);
+  }
+}
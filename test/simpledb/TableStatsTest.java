@@ -1,7 +1,12 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -151,4 +156,288 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that statistics collected by several threads, over values whose
+	 * range is not known in advance, match the table.
+	 */
+	@Test public void parallelCollectionTest() throws Exception {
+		Database.getWorkerPool().setParallelism(4);
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20000, 1 << 20, null, rows);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		Assert.assertTrue(hf.numPages() > 4 * PageMorsels.MORSEL_PAGES);
+
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		Assert.assertEquals(20000, s.totalTuples());
+		for (int col = 0; col < 2; col++) {
+			TreeSet<Integer> values = new TreeSet<Integer>();
+			for (ArrayList<Integer> row : rows)
+				values.add(row.get(col));
+			Assert.assertEquals(values.size(), s.numDistinct(col), values.size() * HyperLogLog.relativeError());
+			Assert.assertTrue(s.minDistinct(col) <= values.size() && values.size() <= s.maxDistinct(col));
+			Assert.assertEquals((int) values.first(), s.minValue(col));
+			Assert.assertEquals((int) values.last(), s.maxValue(col));
+			Assert.assertEquals(0.5, s.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(1 << 19)), 0.02);
+		}
+	}
+
+	/**
+	 * Verify that the selectivities of a Zipf-distributed column are close to
+	 * the real ones, both for its most common values and for rare ones.
+	 */
+	@Test public void skewedSelectivityTest() throws Exception {
+		// 50000 values of 1..10000, value k occurring in proportion to 1/k
+		final int rows = 50000, values = 10000;
+		double[] cdf = new double[values + 1];
+		for (int k = 1; k <= values; k++)
+			cdf[k] = cdf[k - 1] + 1.0 / k;
+		Random r = new Random(42);
+		int[] freq = new int[values + 1];
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < rows; i++) {
+			int k = Arrays.binarySearch(cdf, r.nextDouble() * cdf[values]);
+			k = Math.min(values, Math.max(1, k >= 0 ? k : -k - 1));
+			freq[k]++;
+			ArrayList<Integer> t = new ArrayList<Integer>();
+			t.add(k);
+			tuples.add(t);
+		}
+		File temp = File.createTempFile("table", ".dat");
+		temp.deleteOnExit();
+		HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 1);
+		HeapFile hf = Utility.openHeapFile(1, temp);
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+
+		// the most common values are estimated from their own counts
+		for (int k = 1; k <= 10; k++) {
+			double actual = (double) freq[k] / rows;
+			Assert.assertEquals(actual, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(k)), actual * 0.05);
+		}
+		// a rare value is not estimated as if it were as common as its bucket
+		int rare = 0, rareCount = 0;
+		for (int k = values / 2; k <= values; k++) {
+			rare += freq[k];
+			rareCount++;
+		}
+		double actual = (double) rare / rareCount / rows;
+		double estimate = s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(values * 3 / 4));
+		Assert.assertTrue(estimate + " vs " + actual, estimate > actual / 3 && estimate < actual * 3);
+		// range predicates on both sides of the most common values
+		for (int v : new int[]{2, 20, 200, 2000}) {
+			int less = 0;
+			for (int k = 1; k < v; k++)
+				less += freq[k];
+			Assert.assertEquals((double) less / rows, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)), 0.01);
+		}
+	}
+
+	/**
+	 * Verify that the distinct values counted by the statistics give a close
+	 * estimate of the size of an equality join.
+	 */
+	@Test public void joinCardinalityTest() throws Exception {
+		ArrayList<ArrayList<Integer>> rows1 = new ArrayList<ArrayList<Integer>>();
+		ArrayList<ArrayList<Integer>> rows2 = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf1 = SystemTestUtil.createRandomHeapFile(1, 2000, 100, null, rows1, "c");
+		HeapFile hf2 = SystemTestUtil.createRandomHeapFile(1, 1000, 100, null, rows2, "c");
+		String name1 = SystemTestUtil.getUUID();
+		String name2 = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf1, name1);
+		Database.getCatalog().addTable(hf2, name2);
+
+		HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+		stats.put(name1, new TableStats(hf1.getId(), IO_COST));
+		stats.put(name2, new TableStats(hf2.getId(), IO_COST));
+		HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+		aliases.put("t1", hf1.getId());
+		aliases.put("t2", hf2.getId());
+
+		int joined = 0;
+		for (ArrayList<Integer> r1 : rows1) {
+			for (ArrayList<Integer> r2 : rows2) {
+				if (r1.get(0).equals(r2.get(0)))
+					joined++;
+			}
+		}
+		int card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "t1", "t2",
+				"c0", "c0", 2000, 1000, false, false, stats, aliases);
+		Assert.assertEquals(joined, card, joined * 0.1);
+	}
+
+	/**
+	 * Verify that statistics saved to a file are loaded again, and that the
+	 * statistics of a table that changed since are computed again.
+	 */
+	@Test public void persistedStatsTest() throws Exception {
+		File statsFile = File.createTempFile("table", TableStats.STATS_FILE_SUFFIX);
+		statsFile.delete();
+		statsFile.deleteOnExit();
+
+		TableStats.loadStatistics(statsFile);
+		Assert.assertTrue(statsFile.exists());
+		TableStats computed = TableStats.getTableStats(tableName);
+		Assert.assertEquals(10200, computed.totalTuples());
+
+		// nothing changed: the stored statistics are used
+		TableStats.loadStatistics(statsFile);
+		TableStats loaded = TableStats.getTableStats(tableName);
+		Assert.assertNotSame(computed, loaded);
+		Assert.assertEquals(10200, loaded.totalTuples());
+		Assert.assertEquals(computed.estimateScanCost(), loaded.estimateScanCost(), 0.0);
+		Assert.assertEquals(computed.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)),
+				loaded.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(16)), 0.0);
+
+		// the table grows: its statistics are refreshed in the background
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 500; i++)
+			Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(i, 10));
+		Database.getBufferPool().transactionComplete(tid);
+		Database.getBufferPool().flushAllPages();
+		TableStats.loadStatistics(statsFile);
+		TableStats.awaitRefresh();
+		Assert.assertEquals(10700, TableStats.getTableStats(tableName).totalTuples());
+
+		// and the refreshed statistics were saved
+		TableStats.setTableStats(tableName, computed);
+		TableStats.loadStatistics(statsFile);
+		Assert.assertEquals(10700, TableStats.getTableStats(tableName).totalTuples());
+	}
+
+	/**
+	 * Verify that the inserts and deletes of committed transactions update
+	 * the statistics of a table, and that they are computed again once they
+	 * have drifted far enough.
+	 */
+	@Test public void incrementalStatsTest() throws Exception {
+		TableStats s = new TableStats(tableId, IO_COST);
+		TableStats.setTableStats(tableName, s);
+
+		// the changes of a transaction that aborts are never counted
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 100; i++)
+			Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(40, 10));
+		Assert.assertEquals(10200, s.totalTuples());
+		Database.getBufferPool().transactionComplete(tid, false);
+		Assert.assertEquals(10200, s.totalTuples());
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(40)), 0.001);
+
+		// those of a transaction that commits are, once it commits
+		tid = new TransactionId();
+		ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+		for (int i = 0; i < 100; i++) {
+			Tuple t = Utility.getHeapTuple(40, 10);
+			Database.getBufferPool().insertTuple(tid, tableId, t);
+			inserted.add(t);
+		}
+		Assert.assertEquals(10200, s.totalTuples());
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10300, s.totalTuples());
+		Assert.assertEquals(40, s.maxValue(0));
+		Assert.assertEquals(100.0 / 10300, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(40)), 0.005);
+		Assert.assertEquals(10200.0 / 10300, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(40)), 0.01);
+
+		tid = new TransactionId();
+		for (Tuple t : inserted)
+			Database.getBufferPool().deleteTuple(tid, t);
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10200, s.totalTuples());
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(40)), 0.001);
+		TableStats.awaitRefresh();
+		Assert.assertSame(s, TableStats.getTableStats(tableName));
+
+		// past the drift, the statistics are computed again at commit
+		TableStats.setReanalyzeDrift(0.01);
+		try {
+			tid = new TransactionId();
+			for (int i = 0; i < 200; i++)
+				Database.getBufferPool().insertTuple(tid, tableId, Utility.getHeapTuple(i, 10));
+			Database.getBufferPool().transactionComplete(tid);
+			TableStats.awaitRefresh();
+			Assert.assertNotSame(s, TableStats.getTableStats(tableName));
+			Assert.assertEquals(10400, TableStats.getTableStats(tableName).totalTuples());
+		} finally {
+			TableStats.setReanalyzeDrift(TableStats.DEFAULT_REANALYZE_DRIFT);
+		}
+	}
+
+	/**
+	 * Verify that statistics estimated from a sample of the pages of a table
+	 * are close to the real ones, within the bounds they report.
+	 */
+	@Test public void samplingTest() throws Exception {
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100000, 1000, null, rows);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+		TableStats s = TableStats.sample(hf.getId(), IO_COST, hf.numPages() / 5);
+		Assert.assertTrue(s.isSampled());
+		Assert.assertEquals(100000, s.totalTuples(), Math.max(s.tuplesErrorBound(), 1000));
+		Assert.assertEquals(hf.numPages() * IO_COST, s.estimateScanCost(), 0.0);
+		TreeSet<Integer> values = new TreeSet<Integer>();
+		for (ArrayList<Integer> row : rows)
+			values.add(row.get(0));
+		Assert.assertTrue(s.minDistinct(0) <= s.numDistinct(0));
+		Assert.assertTrue(s.numDistinct(0) <= s.maxDistinct(0));
+		Assert.assertEquals(values.size(), s.numDistinct(0), values.size() / 10);
+		Assert.assertTrue(s.selectivityErrorBound() > 0.0 && s.selectivityErrorBound() < 0.05);
+		Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(500)),
+				s.selectivityErrorBound() + 0.01);
+
+		// a tuple inserted later weighs as much as one of the table
+		int n = s.totalTuples();
+		Tuple zero = Utility.getHeapTuple(0, 2);
+		for (int i = 0; i < n; i++)
+			s.addTuple(zero);
+		Assert.assertEquals(0.75, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(500)),
+				s.selectivityErrorBound() + 0.02);
+		for (int i = 0; i < n; i++)
+			s.removeTuple(zero);
+
+		// large tables are sampled without being asked to
+		TableStats.setSamplePages(hf.numPages() / 5);
+		try {
+			Assert.assertTrue(new TableStats(hf.getId(), IO_COST).isSampled());
+			// but asking to sample every page reads the whole table
+			Assert.assertFalse(TableStats.sample(hf.getId(), IO_COST, hf.numPages()).isSampled());
+		} finally {
+			TableStats.setSamplePages(TableStats.DEFAULT_SAMPLE_PAGES);
+		}
+		Assert.assertFalse(new TableStats(hf.getId(), IO_COST).isSampled());
+	}
+
+	/**
+	 * Verify that pages in the buffer pool are cheaper to scan than pages on
+	 * disk, that random reads cost more than sequential ones when the cost
+	 * model says so, and that the costs follow the cost model as it changes.
+	 */
+	@Test public void cachedCostTest() throws Exception {
+		TableStats s = new TableStats(tableId, IO_COST);
+		int pages = f.numPages();
+		Assert.assertEquals(s.estimateScanCost(), s.estimateScanCost(0), 0.0);
+		double indexCost = s.estimateIndexScanCost(0, 0.01, 0);
+
+		TableStats.setCosts(1000, 4000, 10);
+		try {
+			Assert.assertEquals(pages * IO_COST, s.estimateScanCost(0), 0.0);
+			Assert.assertEquals(pages * IO_COST * 0.01, s.estimateScanCost(pages), 1e-9);
+			Assert.assertTrue(s.estimateScanCost(pages / 2) < s.estimateScanCost(0));
+			Assert.assertTrue(s.estimateScanCost(pages / 2) > s.estimateScanCost(pages));
+			Assert.assertEquals(4 * indexCost, s.estimateIndexScanCost(0, 0.01, 0), 1e-9);
+			Assert.assertTrue(s.estimateIndexScanCost(0, 0.01, pages) < indexCost);
+
+			// a relation that fits in the buffer pool is read again from it
+			int poolPages = Database.getBufferPool().getNumPages();
+			Assert.assertEquals(10 * 10, TableStats.estimateRescanCost(10 * 1000), 0.0);
+			Assert.assertEquals(2000.0 * poolPages, TableStats.estimateRescanCost(2000.0 * poolPages), 0.0);
+
+			// statistics computed before the cost of a sequential read
+			// changes, or loaded from a file, follow it
+			TableStats.setCosts(2000, 8000, 20);
+			Assert.assertEquals(pages * IO_COST * 2, s.estimateScanCost(0), 1e-9);
+			Assert.assertEquals(8 * indexCost, s.estimateIndexScanCost(0, 0.01, 0), 1e-9);
+		} finally {
+			TableStats.setCosts(TableStats.IOCOSTPERPAGE, TableStats.IOCOSTPERPAGE, 1);
+		}
+	}
 }
@@ -0,0 +1,187 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  OpIterator scan1;
+  OpIterator scan2;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    1, 4,
+                    1, 6,
+                    3, 2,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+    this.scan2 = TestUtil.createTupleList(width1,
+        new int[] { 1, 10,
+                    3, 30,
+                    3, 31,
+                    4, 40 });
+  }
+
+  /**
+   * Unit test for Filter.nextBatch() and the conversion back to tuples
+   */
+  @Test public void filterBatches() throws Exception {
+    Filter op = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(3)), scan1);
+    OpIterator expected = TestUtil.createTupleList(width1,
+        new int[] { 1, 4,
+                    1, 6,
+                    3, 4,
+                    3, 6,
+                    5, 7 });
+    BatchOpIterator tuples = new BatchOpIterator(op);
+    tuples.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, tuples);
+
+    tuples.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, tuples);
+  }
+
+  /**
+   * Unit test for Project.nextBatch() on top of a filtered batch
+   */
+  @Test public void projectBatches() throws Exception {
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(3)), scan1);
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(1);
+    Project op = new Project(fields, new Type[] { Type.INT_TYPE }, filter);
+    op.open();
+    TupleBatch b = op.nextBatch();
+    assertEquals(3, b.numRows());
+    assertEquals(1, b.getTupleDesc().numFields());
+    int[] col = b.intColumn(0);
+    assertEquals(2, col[b.rowIndex(0)]);
+    assertEquals(4, col[b.rowIndex(1)]);
+    assertEquals(6, col[b.rowIndex(2)]);
+    assertNull(op.nextBatch());
+  }
+
+  /**
+   * Unit test for Aggregate consuming and producing batches
+   */
+  @Test public void aggregateBatches() throws Exception {
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(7)), scan1);
+    Aggregate op = new Aggregate(filter, new int[] { 1, 1 }, new int[0],
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT });
+    op.open();
+    TupleBatch b = op.nextBatch();
+    assertEquals(1, b.numRows());
+    assertEquals(24, b.intColumn(0)[0]);
+    assertEquals(6, b.intColumn(1)[0]);
+    assertNull(op.nextBatch());
+
+    op.rewind();
+    OpIterator expected = TestUtil.createTupleList(2, new int[] { 24, 6 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.nextBatch(); must produce the same rows as
+   * the tuple interface
+   */
+  @Test public void hashJoinBatches() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    OpIterator expected = TestUtil.createTupleList(4,
+        new int[] { 1, 2, 1, 10,
+                    1, 4, 1, 10,
+                    1, 6, 1, 10,
+                    3, 2, 3, 30,
+                    3, 4, 3, 30,
+                    3, 6, 3, 30,
+                    3, 2, 3, 31,
+                    3, 4, 3, 31,
+                    3, 6, 3, 31 });
+    BatchOpIterator tuples = new BatchOpIterator(op);
+    tuples.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, tuples);
+  }
+
+  /**
+   * Unit test for SeqScan.nextBatch() over a heap file larger than a batch
+   */
+  @Test public void seqScanBatches() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, f.getId(), "t");
+    scan.open();
+    int rows = 0;
+    TupleBatch b;
+    while ((b = scan.nextBatch()) != null) {
+      for (int i = 0; i < b.numRows(); i++) {
+        ArrayList<Integer> t = tuples.get(rows++);
+        assertEquals((int) t.get(0), b.intColumn(0)[b.rowIndex(i)]);
+        assertEquals((int) t.get(1), b.intColumn(1)[b.rowIndex(i)]);
+      }
+    }
+    assertEquals(3000, rows);
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Unit test for SeqScan.nextBatch() with a projection and predicates,
+   * read from the page data, including after next() has started on a page
+   */
+  @Test public void seqScanFilteredBatches() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples);
+    ArrayList<Integer> expected = new ArrayList<Integer>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) < 500)
+        expected.add(t.get(1));
+    }
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[] { 1 },
+        new Predicate[] { new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)) });
+    scan.open();
+    for (int pass = 0; pass < 2; pass++) {
+      ArrayList<Integer> read = new ArrayList<Integer>();
+      if (pass == 1) {
+        scan.rewind();
+        for (int i = 0; i < 10; i++)
+          read.add(((IntField) scan.next().getField(0)).getValue());
+      }
+      TupleBatch b;
+      while ((b = scan.nextBatch()) != null) {
+        assertEquals(1, b.getTupleDesc().numFields());
+        for (int i = 0; i < b.numRows(); i++)
+          read.add(b.intColumn(0)[b.rowIndex(i)]);
+      }
+      assertEquals(expected, read);
+    }
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
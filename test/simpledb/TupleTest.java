@@ -57,6 +57,28 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for JoinedTuple: reads through to the joined tuples, and
+     * setting a field leaves them unchanged
+     */
+    @Test public void joinedTuple() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        Tuple tup = new JoinedTuple(td, left, right);
+
+        assertEquals(td, tup.getTupleDesc());
+        assertEquals(left.getRecordId(), tup.getRecordId());
+        for (int i = 0; i < 5; i++)
+            assertEquals(new IntField(i + 1), tup.getField(i));
+        assertEquals("1\t2\t3\t4\t5", tup.toString());
+
+        tup.setField(3, new IntField(-1));
+        assertEquals(new IntField(-1), tup.getField(3));
+        assertEquals(new IntField(1), tup.getField(0));
+        assertEquals(new IntField(4), right.getField(1));
+    }
+
     /**
      * JUnit suite target
      */
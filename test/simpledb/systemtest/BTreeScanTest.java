@@ -282,6 +282,58 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** @return true if the plan reads a table through its index */
+    private static boolean usesIndex(OpIterator plan) {
+        if (plan instanceof BTreeScan)
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (usesIndex(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** Test that the planner reads a B+ tree table through its index for selective filters on the key */
+    @Test public void testPlannerUsesIndex() throws Exception {
+        final int LEAF_PAGES = 30;
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int keyField = 0;
+        BTreeFile f = BTreeUtility.createBTreeFile(2, LEAF_PAGES*502, null, tuples, keyField);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), keyField, Utility.getTupleDesc(2, "c"));
+        String name = "indexed";
+        Database.getCatalog().addTable(table, name);
+        TableStats.setTableStats(name, new TableStats(table.getId(), 1000));
+        Parser p = new Parser();
+
+        // a point query on the key reads a few pages
+        TransactionId tid = new TransactionId();
+        int key = r.nextInt(LEAF_PAGES*502);
+        ArrayList<ArrayList<Integer>> tuplesFiltered = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> tup : tuples) {
+            if (tup.get(keyField) == key && tup.get(1) > 0)
+                tuplesFiltered.add(tup);
+        }
+        OpIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t WHERE t.c0 = " + key
+                + " AND t.c1 > 0;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(usesIndex(plan));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        SystemTestUtil.matchTuples(plan, tuplesFiltered);
+        assertTrue(table.readCount <= 4);
+
+        // a filter on another field, or one that matches most tuples, reads the whole table
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t WHERE t.c1 = " + key + ";")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(usesIndex(plan));
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + name + " t WHERE t.c0 > 10;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(usesIndex(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
@@ -67,6 +67,104 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Test a scan that returns some of the fields of the tuples matching a predicate. */
+    @Test public void testPushdown() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, 1000, null, tuples, "c");
+
+        Predicate[] preds = new Predicate[]{
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(250))};
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 500 && t.get(1) >= 250) {
+                ArrayList<Integer> projected = new ArrayList<Integer>();
+                projected.add(t.get(2));
+                projected.add(t.get(0));
+                expected.add(projected);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "table", new int[]{2, 0}, preds);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("table.c2", scan.getTupleDesc().getFieldName(0));
+        assertEquals(2, scan.tableField(0));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test a scan split into parts that share out the pages of the table. */
+    @Test public void testSplit() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        assertTrue(f.numPages() > 32);
+
+        TransactionId tid = new TransactionId();
+        SeqScan[] parts = new SeqScan(tid, f.getId(), "table").split(4);
+        assertEquals(4, parts.length);
+        assertEquals(4, parts[0].numPartitions());
+
+        // together, the parts return every tuple once
+        Gather scan = new Gather(parts);
+        SystemTestUtil.matchTuples(scan, tuples);
+        scan.open();
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        assertEquals(tuples.size(), count);
+        scan.close();
+
+        // a scan split into one part is returned as it is
+        assertEquals(1, new SeqScan(tid, f.getId(), "table").split(1).length);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test a scan with a runtime filter, and that the filter turns itself off when it drops too little. */
+    @Test public void testRuntimeFilter() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples, "c");
+        TransactionId tid = new TransactionId();
+
+        // a selective filter keeps every matching tuple and drops most others
+        BloomFilter keys = new BloomFilter(10);
+        for (int k = 0; k < 10; k++)
+            keys.add(new IntField(k));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 10)
+                expected.add(t);
+        }
+        SeqScan scan = new SeqScan(tid, f.getId(), "table");
+        scan.setRuntimeFilter(1, keys);
+        scan.open();
+        int kept = 0;
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(1)).getValue() < 10)
+                kept++;
+        }
+        assertEquals(expected.size(), kept);
+        scan.rewind();
+        int all = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            all++;
+        }
+        assertTrue(all < tuples.size() / 10);
+        scan.close();
+
+        // a filter that drops almost nothing stops being checked
+        BloomFilter every = new BloomFilter(1000);
+        for (int k = 0; k < 1000; k++)
+            every.add(new IntField(k));
+        scan.setRuntimeFilter(0, every);
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Verifies that the buffer pool is actually caching data.
      * @throws TransactionAbortedException
      * @throws DbException */